@@ -51,6 +51,21 @@ dependencies {
     testImplementation("org.mockito:mockito-core:5.13.0")
 }
 
+// Benchmarks live in their own source set so they can see the
+// listings (which are all under src/test) without being picked up
+// by the regular test run.
+sourceSets {
+    create("jmh") {
+        compileClasspath += sourceSets["test"].output + sourceSets["test"].compileClasspath
+        runtimeClasspath += sourceSets["test"].output + sourceSets["test"].runtimeClasspath
+    }
+}
+
+dependencies {
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+}
+
 // Apply a specific Java toolchain to ease working on different environments.
 java {
     toolchain {
@@ -75,6 +90,21 @@ tasks.named<Test>("test") {
 }
 
 
+// Runs every benchmark and writes the results as JSON. Extra JMH
+// options can be passed through, e.g.
+//   gradle jmh -Pjmh.args="Interpreter -f 1 -wi 2 -i 3"
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Runs the JMH benchmarks in src/jmh"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    val results = layout.buildDirectory.file("results/jmh/results.json").get().asFile
+    val extraArgs = (findProperty("jmh.args") as String?)?.split(" ")?.filter { it.isNotBlank() } ?: emptyList()
+    args = extraArgs + listOf("-rf", "json", "-rff", results.path)
+    doFirst { results.parentFile.mkdirs() }
+}
+
+
 tasks.withType<JavaCompile>().configureEach {
     //enable compilation in a separate daemon process
     options.encoding = "UTF-8"
@@ -0,0 +1,131 @@
+package dop.chapter06;
+
+import dop.chapter06.Listing6_40.PaymentTerms;
+import dop.chapter06.Listing6_50.Approval;
+import dop.chapter06.Listing6_50.ApprovalStatus;
+import dop.chapter06.Listing6_50.Customer;
+import dop.chapter06.Listing6_50.Draft;
+import dop.chapter06.Listing6_50.LateFee;
+import dop.chapter06.Listing6_50.ReviewedFee;
+import dop.chapter06.Listing6_50.Rules;
+import dop.chapter06.Listing6_50.USD;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The two small, hot functions from the late fee core: computing
+ * due dates (Listing 6.40) and deciding what to do with a draft
+ * (Listing 6.50). Drafts are spread so that some fall below the
+ * minimum, most land in between, and some need approval.
+ *
+ * The thresholds* pair sums the same totals and checks each one
+ * against the fee thresholds, once with the BigDecimal-backed USD
+ * and once with FixedPointMoney's long cents. Run with -prof gc to
+ * see the difference in allocation, too.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LateFeeBenchmark {
+
+  static final int OPS = 1_024;
+
+  Rules rules;
+  List<LateFee<Draft>> drafts;
+  LocalDate[] dates;
+  PaymentTerms[] terms;
+
+  LateFees.Rules bigDecimalRules;
+  FixedPointMoney.FixedPointRules fixedPointRules;
+  LateFees.USD[] bigDecimalTotals;
+  FixedPointMoney.USD[] fixedPointTotals;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(42);
+    rules = new Rules(new BigDecimal("10.00"), new BigDecimal("500.00"));
+    drafts = new ArrayList<>(OPS);
+    dates = new LocalDate[OPS];
+    terms = new PaymentTerms[OPS];
+    LocalDate start = LocalDate.of(2024, 1, 1);
+    for (int i = 0; i < OPS; i++) {
+      BigDecimal total = BigDecimal.valueOf(random.nextLong(0, 1_000_00), 2);
+      Optional<Approval> approval = random.nextInt(4) == 0
+          ? Optional.empty()
+          : Optional.of(new Approval(ApprovalStatus.values()[random.nextInt(ApprovalStatus.values().length)]));
+      drafts.add(new LateFee<>(new USD(total), new Customer(approval)));
+      dates[i] = start.plusDays(random.nextInt(3 * 365));
+      terms[i] = PaymentTerms.values()[random.nextInt(PaymentTerms.values().length)];
+    }
+
+    bigDecimalRules = new LateFees.Rules(new BigDecimal("10.00"), new BigDecimal("500.00"));
+    fixedPointRules = FixedPointMoney.FixedPointRules.of(bigDecimalRules);
+    bigDecimalTotals = new LateFees.USD[OPS];
+    fixedPointTotals = new FixedPointMoney.USD[OPS];
+    for (int i = 0; i < OPS; i++) {
+      long cents = random.nextLong(0, 1_000_00);
+      bigDecimalTotals[i] = new LateFees.USD(BigDecimal.valueOf(cents, 2));
+      fixedPointTotals[i] = new FixedPointMoney.USD(cents);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(OPS)
+  public void assessDraft(Blackhole bh) {
+    for (LateFee<Draft> draft : drafts) {
+      ReviewedFee fee = Listing6_50.assessDraft(rules, draft);
+      bh.consume(fee);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(OPS)
+  public LateFees.USD thresholdsBigDecimal(Blackhole bh) {
+    LateFees.USD total = LateFees.USD.zero();
+    for (LateFees.USD amount : bigDecimalTotals) {
+      total = total.add(amount);
+      bh.consume(FixedPointMoney.classify(bigDecimalRules, amount));
+    }
+    return total;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(OPS)
+  public FixedPointMoney.USD thresholdsFixedPoint(Blackhole bh) {
+    FixedPointMoney.USD total = FixedPointMoney.USD.ZERO;
+    for (FixedPointMoney.USD amount : fixedPointTotals) {
+      total = total.plus(amount);
+      bh.consume(FixedPointMoney.classify(fixedPointRules, amount));
+    }
+    return total;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(OPS)
+  public void dueDate(Blackhole bh) {
+    for (int i = 0; i < OPS; i++) {
+      bh.consume(Listing6_40.dueDate(dates[i], terms[i]));
+    }
+  }
+}
@@ -0,0 +1,73 @@
+package dop.chapter07;
+
+import dop.chapter07.Listing7_61.AuditFinding;
+import dop.chapter07.Listing7_61.Policy;
+import dop.chapter07.Listing7_61.RawData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The merge from Listing 7.61, both on its own and driven by
+ * cleanDuplicates over a generated data set. Every id shows up
+ * `duplicates` times on average, with each field independently
+ * missing about a third of the time, which is what the audit
+ * exports in the chapter tend to look like.
+ *
+ * persistentToMap is the same fold as cleanDuplicates (Listing
+ * 7.17's reduce over single-entry maps), with PersistentMaps in
+ * place of copying a HashMap at every step.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DedupeBenchmark {
+
+  @Param({"1000", "5000"})
+  int rows;
+
+  @Param({"4"})
+  int duplicates;
+
+  List<RawData> data;
+  RawData left;
+  RawData right;
+
+  @Setup
+  public void setup() {
+    data = Dedupe.randomRows(new Random(42), rows, duplicates);
+    left = data.get(0);
+    right = new RawData(left.id(), Optional.of(Policy.FLEXIBLE), Optional.of(AuditFinding.NO_ISSUE), Optional.of(true));
+  }
+
+  @Benchmark
+  public RawData merge() {
+    return Dedupe.merge(left, right);
+  }
+
+  @Benchmark
+  public List<RawData> cleanDuplicates() {
+    return Dedupe.cleanDuplicates(data);
+  }
+
+  @Benchmark
+  public PersistentMaps.PersistentMap<String, RawData> persistentToMap() {
+    return PersistentMaps.toMap(data, RawData::id, Dedupe::merge);
+  }
+}
@@ -0,0 +1,75 @@
+package dop.chapter07;
+
+import dop.chapter07.Listing7_61.RawData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ParallelDedupe on one thread versus spread over the common
+ * ForkJoinPool, at sizes where Listing 7.61's own cleanDuplicates
+ * (see DedupeBenchmark) is far too slow to take part. Run with
+ * -Djava.util.concurrent.ForkJoinPool.common.parallelism=N to see
+ * how it scales with cores.
+ *
+ * `packed` does the same job with PackedRows: encode the rows, merge
+ * them, and decode the result, so it's comparable with the other two.
+ * `packedMergeOnly` leaves out the encoding and decoding, and times
+ * just the merge over rows which are already an id number and a
+ * one-byte state.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelDedupeBenchmark {
+
+  @Param({"1000000"})
+  int rows;
+
+  @Param({"4"})
+  int duplicates;
+
+  List<RawData> data;
+  PackedRows packed;
+
+  @Setup
+  public void setup() {
+    data = Dedupe.randomRows(new Random(42), rows, duplicates);
+    packed = PackedRows.of(data);
+  }
+
+  @Benchmark
+  public List<RawData> sequential() {
+    return ParallelDedupe.sequential(data);
+  }
+
+  @Benchmark
+  public List<RawData> parallel() {
+    return ParallelDedupe.cleanDuplicates(data);
+  }
+
+  @Benchmark
+  public List<RawData> packed() {
+    return PackedRows.of(data).cleanDuplicates();
+  }
+
+  @Benchmark
+  public byte[] packedMergeOnly() {
+    return packed.mergedStates();
+  }
+}
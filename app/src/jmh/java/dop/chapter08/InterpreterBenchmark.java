@@ -0,0 +1,106 @@
+package dop.chapter08;
+
+import dop.chapter08.CompiledRules.CompiledRule;
+import dop.chapter08.Listing8_50.Account;
+import dop.chapter08.Listing8_50.Result;
+import dop.chapter08.Listing8_50.Rule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listing 8.50's interpreter, and the compiled match-only version of
+ * the same rules (CompiledRules), run over a set of randomly
+ * generated accounts and rules. `depth` controls how many levels of
+ * And/Or/Not each rule has, so it's roughly the size of the rules
+ * people write by hand (2-4) up to the gnarly ones (6).
+ *
+ * The explain cases build the structured explanation from
+ * Explanations, with and without rendering it to text afterwards.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+
+  @Param({"2", "4", "6"})
+  int depth;
+
+  @Param({"10000"})
+  int accounts;
+
+  Account[] data;
+  Rule[] rules;
+  CompiledRule[] compiled;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(42);
+    data = Generators.randomAccounts(random, accounts);
+    rules = new Rule[64];
+    compiled = new CompiledRule[rules.length];
+    for (int i = 0; i < rules.length; i++) {
+      rules[i] = Generators.randomRule(random, depth);
+      compiled[i] = CompiledRules.compile(rules[i]);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(OPS)
+  public void interpret(Blackhole bh) {
+    for (int i = 0; i < OPS; i++) {
+      Result result = Listing8_50.interpret(data[i % data.length], rules[i % rules.length]);
+      bh.consume(result);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(OPS)
+  public void compiledMatch(Blackhole bh) {
+    for (int i = 0; i < OPS; i++) {
+      bh.consume(compiled[i % compiled.length].matches(data[i % data.length]));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(OPS)
+  public void explain(Blackhole bh) {
+    for (int i = 0; i < OPS; i++) {
+      bh.consume(Explanations.explain(data[i % data.length], rules[i % rules.length]));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(OPS)
+  public void explainShortCircuit(Blackhole bh) {
+    for (int i = 0; i < OPS; i++) {
+      bh.consume(Explanations.explainShortCircuit(data[i % data.length], rules[i % rules.length]));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(OPS)
+  public void explainAndRender(Blackhole bh) {
+    for (int i = 0; i < OPS; i++) {
+      bh.consume(Explanations.explainShortCircuit(data[i % data.length], rules[i % rules.length]).toResult());
+    }
+  }
+
+  static final int OPS = 1_000;
+}
@@ -0,0 +1,78 @@
+package dop.chapter08;
+
+import dop.chapter08.RangeRules.Account;
+import dop.chapter08.RangeRules.IndexedAccounts;
+import dop.chapter08.RangeRules.Rule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Finding every account matched by each rule in a set of mixed
+ * equality and range rules, e.g. REGION=EMEA AND TOTAL_SPEND>$10M.
+ * The naive version runs Listing 8.65's interpreter over every
+ * account. The indexed one answers from bitmaps and sorted indexes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RangeRulesBenchmark {
+
+  @Param({"10000", "100000"})
+  int accounts;
+
+  @Param({"20"})
+  int rules;
+
+  List<Account> data;
+  List<Rule> ruleSet;
+  IndexedAccounts index;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(42);
+    data = Stream.generate(() -> RangeRules.randomAccount(random)).limit(accounts).toList();
+    ruleSet = Stream.generate(() -> RangeRules.randomRule(random, 3)).limit(rules).toList();
+    index = IndexedAccounts.of(data);
+  }
+
+  @Benchmark
+  public long naive() {
+    long matched = 0;
+    for (Rule rule : ruleSet) {
+      for (Account account : data) {
+        if (RangeRules.eval(rule, account).matched()) {
+          matched++;
+        }
+      }
+    }
+    return matched;
+  }
+
+  @Benchmark
+  public long indexed() {
+    long matched = 0;
+    for (Rule rule : ruleSet) {
+      BitSet rows = index.matching(rule);
+      matched += rows.cardinality();
+    }
+    return matched;
+  }
+}
@@ -0,0 +1,89 @@
+package dop.chapter08;
+
+import dop.chapter08.CompiledRules.CompiledRule;
+import dop.chapter08.IndexedRouting.Assignment;
+import dop.chapter08.IndexedRouting.RuleIndex;
+import dop.chapter08.IndexedRouting.SalesOrgId;
+import dop.chapter08.Listing8_50.Account;
+import dop.chapter08.Listing8_50.Rule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Routing accounts to a Sales Org through `rules` non-overlapping
+ * rules (so most accounts match exactly one of them, somewhere in
+ * the middle): every compiled rule in order, versus the
+ * IndexedRouting discrimination tree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoutingBenchmark {
+
+  static final int OPS = 1_000;
+
+  @Param({"200", "2000"})
+  int rules;
+
+  Account[] accounts;
+  CompiledRule[] compiled;
+  SalesOrgId[] orgs;
+  RuleIndex index;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(42);
+    List<Rule> generated = Generators.disjointRules(random, rules);
+    List<Assignment> assignments = new ArrayList<>();
+    for (int i = 0; i < rules; i++) {
+      assignments.add(new Assignment(generated.get(i), new SalesOrgId("org-" + i)));
+    }
+    compiled = assignments.stream().map(a -> CompiledRules.compile(a.rule())).toArray(CompiledRule[]::new);
+    orgs = assignments.stream().map(Assignment::org).toArray(SalesOrgId[]::new);
+    index = new RuleIndex(assignments);
+    accounts = Generators.randomAccounts(random, OPS);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(OPS)
+  public void everyRule(Blackhole bh) {
+    for (Account account : accounts) {
+      Optional<SalesOrgId> result = Optional.empty();
+      for (int i = 0; i < compiled.length; i++) {
+        if (compiled[i].matches(account)) {
+          result = Optional.of(orgs[i]);
+          break;
+        }
+      }
+      bh.consume(result);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(OPS)
+  public void indexed(Blackhole bh) {
+    for (Account account : accounts) {
+      bh.consume(index.route(account));
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package dop.chapter08;
+
+import dop.chapter08.RangeRules.Rule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What service start pays to load a repository of rules: parsing
+ * the JSON form from Listing 8.31 with Jackson, versus decoding the
+ * binary form from RuleCodec. Both start from bytes already in memory
+ * and produce the same List of Rules.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RuleLoadingBenchmark {
+
+  @Param({"10000", "100000"})
+  int rules;
+
+  byte[] json;
+  byte[] binary;
+
+  @Setup
+  public void setup() {
+    List<Rule> repository = RuleCodec.randomRepository(new Random(42), rules);
+    json = RuleCodec.toJson(repository).getBytes(StandardCharsets.UTF_8);
+    binary = RuleCodec.encode(repository);
+  }
+
+  @Benchmark
+  public List<Rule> json() {
+    return RuleCodec.fromJson(json);
+  }
+
+  @Benchmark
+  public List<Rule> binary() {
+    return RuleCodec.decode(binary);
+  }
+}
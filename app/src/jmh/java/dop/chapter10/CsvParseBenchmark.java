@@ -0,0 +1,89 @@
+package dop.chapter10;
+
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvException;
+import dop.chapter10.Listing10_30.Account;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The deterministic half of Listing 10.30: bytes in, accounts out.
+ *
+ * The listing hands the actual CSV work to a stubbed out
+ * SomeCSVLibrary, so this fills that in with opencsv (which the
+ * build already depends on). Everything else is the same shape
+ * as the listing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CsvParseBenchmark {
+
+  static final String[] REGIONS = {"NA", "EMEA", "LATAM", "APAC"};
+
+  @Param({"100", "10000"})
+  int rows;
+
+  byte[] csv;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(42);
+    StringBuilder out = new StringBuilder();
+    for (int i = 0; i < rows; i++) {
+      out.append("acct-").append(random.nextInt(1_000_000))
+          .append(',').append(REGIONS[random.nextInt(REGIONS.length)])
+          .append(',').append('"').append("Some Company, Inc. #").append(i).append('"')
+          .append(',').append(random.nextInt(10_000))
+          .append('\n');
+    }
+    csv = out.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public List<Account> parse() {
+    return parse(csv);
+  }
+
+  static List<Account> parse(byte[] bytes) {
+    String rawCSV = new String(bytes, StandardCharsets.UTF_8);
+    return SomeCSVLibrary.parse(rawCSV)
+        .stream()
+        .map((String[] row) -> new Account(
+            row[Listing10_30.ACCOUNT_ID],
+            row[Listing10_30.REGION]))
+        .toList();
+  }
+
+  static class SomeCSVLibrary {
+    static List<String[]> parse(String raw) {
+      try (CSVReader reader = new CSVReader(new StringReader(raw))) {
+        return reader.readAll();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      } catch (CsvException e) {
+        throw new IllegalArgumentException(e);
+      }
+    }
+  }
+}
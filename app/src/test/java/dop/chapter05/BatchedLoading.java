@@ -0,0 +1,391 @@
+package dop.chapter05;
+
+import dop.chapter05.the.existing.world.Caching.CachingFeesRepo;
+import dop.chapter05.the.existing.world.Caching.CachingRulesRepo;
+import dop.chapter05.the.existing.world.Caching.RunScopedCache;
+import dop.chapter05.the.existing.world.Caching.Stats;
+import dop.chapter05.the.existing.world.Entities.Address;
+import dop.chapter05.the.existing.world.Entities.Customer;
+import dop.chapter05.the.existing.world.Entities.Invoice;
+import dop.chapter05.the.existing.world.Entities.Rules;
+import dop.chapter05.the.existing.world.Repositories.CustomerRepo;
+import dop.chapter05.the.existing.world.Repositories.FeesRepo;
+import dop.chapter05.the.existing.world.Repositories.InvoiceRepo;
+import dop.chapter05.the.existing.world.Repositories.RulesRepo;
+import dop.chapter05.the.existing.world.Services.ApprovalsAPI;
+import dop.chapter05.the.existing.world.Services.ApprovalsAPI.Approval;
+import dop.chapter05.the.existing.world.Services.ApprovalsAPI.ApprovalStatus;
+import dop.chapter05.the.existing.world.Services.ContractsAPI;
+import dop.chapter05.the.existing.world.Services.ContractsAPI.PaymentTerms;
+import dop.chapter05.the.existing.world.Services.RatingsAPI;
+import dop.chapter05.the.existing.world.Services.RatingsAPI.CustomerRating;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+public class BatchedLoading {
+
+  /**
+   * ───────────────────────────────────────────────────────
+   * Batched, concurrent loading of InvoicingData
+   * ───────────────────────────────────────────────────────
+   * Listing 5.46 isolated all the "how do we get the data"
+   * into one method. A nice side effect of that refactoring is
+   * that we can now change *how* the data gets loaded without
+   * touching a single line of business logic.
+   *
+   * The original walks every customer one at a time and makes
+   * five round trips for each, back to back. None of those lookups
+   * depend on each other, so there's no reason to wait on them
+   * one by one. This loader takes customers in fixed size batches
+   * and fires every lookup for the batch at the same time on
+   * virtual threads. The batch size puts a ceiling on how many
+   * requests are in flight against our dependencies at once.
+   *
+   * The output is exactly the same List<InvoicingData> as before.
+   * ───────────────────────────────────────────────────────
+   */
+  static class BatchedInvoicingDataLoader {
+    private final CustomerRepo customerRepo;
+    private final InvoiceRepo invoiceRepo;
+    private final RulesRepo rulesRepo;
+    private final FeesRepo feesRepo;
+    private final RatingsAPI ratingsApi;
+    private final ContractsAPI contractsApi;
+    private final ApprovalsAPI approvalsApi;
+    private final int batchSize;
+    private final LatencyRecorder latencies = new LatencyRecorder();
+    private Map<String, Stats> lastRunCacheStats = Map.of();
+
+    BatchedInvoicingDataLoader(
+        CustomerRepo customerRepo,
+        InvoiceRepo invoiceRepo,
+        RulesRepo rulesRepo,
+        FeesRepo feesRepo,
+        RatingsAPI ratingsApi,
+        ContractsAPI contractsApi,
+        ApprovalsAPI approvalsApi,
+        int batchSize) {
+      if (batchSize < 1) {
+        throw new IllegalArgumentException("batchSize must be at least 1");
+      }
+      this.customerRepo = customerRepo;
+      this.invoiceRepo = invoiceRepo;
+      this.rulesRepo = rulesRepo;
+      this.feesRepo = feesRepo;
+      this.ratingsApi = ratingsApi;
+      this.contractsApi = contractsApi;
+      this.approvalsApi = approvalsApi;
+      this.batchSize = batchSize;
+    }
+
+    List<InvoicingData> loadInvoicingData() {
+      return loadInvoicingData(LocalDate.now());
+    }
+
+    List<InvoicingData> loadInvoicingData(LocalDate today) {
+      // The fee for a country and the default rules are the same for
+      // everyone in the run, so they only get loaded once per run.
+      CachingFeesRepo fees = new CachingFeesRepo(country ->
+          latencies.timed("feesRepo.get", () -> feesRepo.get(country)));
+      CachingRulesRepo rules = new CachingRulesRepo(() ->
+          latencies.timed("rulesRepo.loadDefaults", rulesRepo::loadDefaults));
+      List<Customer> customers = latencies.timed("customerRepo.findAll", customerRepo::findAll);
+      List<InvoicingData> results = new ArrayList<>(customers.size());
+      try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+        for (int start = 0; start < customers.size(); start += batchSize) {
+          List<Customer> batch = customers.subList(start, Math.min(start + batchSize, customers.size()));
+          //                                ┌─── Everything for the batch gets kicked off before
+          //                                ▼    we block on any of it.
+          List<PendingLookups> pending = batch.stream()
+              .map(customer -> startLookups(executor, customer, fees, rules))
+              .toList();
+          for (PendingLookups lookups : pending) {
+            results.add(lookups.join(today));   // ◄── joining in submission order keeps
+          }                                     //     the output in customer order
+        }
+      }
+      lastRunCacheStats = Map.of("feesRepo", fees.stats(), "rulesRepo", rules.stats());
+      return results;
+    }
+
+    /**
+     * How long we spent waiting on each dependency during
+     * all the loads this loader has performed so far.
+     */
+    List<DependencyLatency> latencyReport() {
+      return latencies.report();
+    }
+
+    /**
+     * Hits and misses for the run-scoped caches during the most recent load.
+     */
+    Map<String, Stats> cacheStats() {
+      return lastRunCacheStats;
+    }
+
+    private PendingLookups startLookups(
+        ExecutorService executor, Customer customer, FeesRepo fees, RulesRepo rules) {
+      String id = customer.getId();
+      return new PendingLookups(
+          customer,
+          CompletableFuture.supplyAsync(() -> fees.get(customer.getAddress().getCountry()), executor),
+          async(executor, "invoiceRepo.findInvoices", () -> invoiceRepo.findInvoices(id)),
+          async(executor, "ratingsApi.getRating", () -> ratingsApi.getRating(id)),
+          async(executor, "contractsApi.getPaymentTerms", () -> contractsApi.getPaymentTerms(id)),
+          CompletableFuture.supplyAsync(rules::loadDefaults, executor),
+          Optional.ofNullable(customer.getApprovalId())
+              .map(approvalId -> async(executor, "approvalsApi.getApproval",
+                  () -> approvalsApi.getApproval(approvalId)))
+              .orElse(CompletableFuture.completedFuture(Optional.empty()))
+      );
+    }
+
+    private <A> CompletableFuture<A> async(ExecutorService executor, String dependency, Supplier<A> lookup) {
+      return CompletableFuture.supplyAsync(() -> latencies.timed(dependency, lookup), executor);
+    }
+  }
+
+
+  record PendingLookups(
+      Customer customer,
+      CompletableFuture<BigDecimal> fee,
+      CompletableFuture<List<Invoice>> invoices,
+      CompletableFuture<CustomerRating> rating,
+      CompletableFuture<PaymentTerms> terms,
+      CompletableFuture<Rules> rules,
+      CompletableFuture<Optional<Approval>> approval
+  ) {
+    InvoicingData join(LocalDate today) {
+      return new InvoicingData(
+          customer,
+          await(invoices),
+          today,
+          await(rating),
+          await(terms),
+          new Percent(await(fee).doubleValue(), 1),
+          await(rules),
+          await(approval)
+      );
+    }
+
+    private static <A> A await(CompletableFuture<A> future) {
+      try {
+        return future.join();
+      } catch (CompletionException e) {
+        // Surface whatever the dependency actually threw rather
+        // than the wrapper it picked up crossing threads.
+        if (e.getCause() instanceof RuntimeException cause) {
+          throw cause;
+        }
+        throw e;
+      }
+    }
+  }
+
+
+  record DependencyLatency(String dependency, long calls, Duration total, Duration max) {
+    Duration mean() {
+      return calls == 0 ? Duration.ZERO : total.dividedBy(calls);
+    }
+  }
+
+  static class LatencyRecorder {
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+
+    <A> A timed(String dependency, Supplier<A> call) {
+      long start = System.nanoTime();
+      try {
+        return call.get();
+      } finally {
+        stats.computeIfAbsent(dependency, __ -> new Stats()).record(System.nanoTime() - start);
+      }
+    }
+
+    List<DependencyLatency> report() {
+      return stats.entrySet().stream()
+          .map(entry -> entry.getValue().toLatency(entry.getKey()))
+          .sorted(Comparator.comparing(DependencyLatency::dependency))
+          .toList();
+    }
+
+    private static class Stats {
+      private final LongAdder calls = new LongAdder();
+      private final LongAdder totalNanos = new LongAdder();
+      private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+      void record(long nanos) {
+        calls.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+      }
+
+      DependencyLatency toLatency(String dependency) {
+        return new DependencyLatency(
+            dependency,
+            calls.sum(),
+            Duration.ofNanos(totalNanos.sum()),
+            Duration.ofNanos(maxNanos.get()));
+      }
+    }
+  }
+
+
+  @Test
+  void producesTheSameRecordsAsTheSequentialLoader() {
+    World world = new World(1_000);
+    LocalDate today = LocalDate.of(2024, 1, 15);
+    BatchedInvoicingDataLoader loader = world.loader(64);
+
+    assertEquals(world.loadSequentially(today), loader.loadInvoicingData(today));
+  }
+
+  @Test
+  void reportsLatencyForEveryDependency() {
+    World world = new World(250);
+    BatchedInvoicingDataLoader loader = world.loader(32);
+    loader.loadInvoicingData(LocalDate.of(2024, 1, 15));
+
+    Map<String, Long> callsByDependency = new TreeMap<>();
+    loader.latencyReport().forEach(latency ->
+        callsByDependency.put(latency.dependency(), latency.calls()));
+
+    assertEquals(Map.of(
+        "approvalsApi.getApproval", 125L,   // ◄── only customers with an approvalId get looked up
+        "contractsApi.getPaymentTerms", 250L,
+        "customerRepo.findAll", 1L,
+        "feesRepo.get", 1L,                 // ◄── everyone lives in the same country
+        "invoiceRepo.findInvoices", 250L,
+        "ratingsApi.getRating", 250L,
+        "rulesRepo.loadDefaults", 1L
+    ), callsByDependency);
+    assertEquals(Map.of(
+        "feesRepo", new Stats(249, 1),
+        "rulesRepo", new Stats(249, 1)
+    ), loader.cacheStats());
+  }
+
+  @Test
+  void aLoadThatDiesWithAnErrorIsNotCached() {
+    RunScopedCache<String, BigDecimal> cache = new RunScopedCache<>();
+    Error boom = new Error("the fees table is gone");
+
+    assertSame(boom, assertThrows(Error.class, () -> cache.get("US", country -> { throw boom; })));
+    // ┌── Had the failed load been left behind, this would wait on it forever
+    // ▼
+    assertEquals(new BigDecimal("0.025"), assertTimeoutPreemptively(Duration.ofSeconds(10),
+        () -> cache.get("US", country -> new BigDecimal("0.025"))));
+    assertEquals(new Stats(0, 2), cache.stats());
+  }
+
+
+
+
+
+
+
+
+  // Same shape as the InvoicingData introduced in Listing 5.45
+  record Percent(double numerator, double denominator) {}
+  record InvoicingData(
+      Customer customer,
+      List<Invoice> invoices,
+      LocalDate currentDate,
+      CustomerRating customerRating,
+      PaymentTerms terms,
+      Percent feePercent,
+      Rules rules,
+      Optional<Approval> approval
+  ) {}
+
+  // A small in-memory stand-in for the existing world so the
+  // loaders have something to talk to.
+  static class World {
+    final List<Customer> customers;
+    final Map<String, List<Invoice>> invoices = new ConcurrentHashMap<>();
+    final Rules rules = new Rules();
+
+    World(int numCustomers) {
+      this.customers = IntStream.range(0, numCustomers)
+          .mapToObj(i -> new Customer("customer-" + i, new Address(), i % 2 == 0 ? "approval-" + i : null))
+          .toList();
+      customers.forEach(c -> invoices.put(c.getId(), List.of(new Invoice())));
+    }
+
+    CustomerRepo customerRepo() {
+      return new CustomerRepo() {
+        public List<Customer> findAll() { return customers; }
+        public void save(Customer customer) {}
+      };
+    }
+
+    InvoiceRepo invoiceRepo() {
+      return new InvoiceRepo() {
+        public void save(Invoice invoice) {}
+        public List<Invoice> findInvoices(String customerId) { return invoices.get(customerId); }
+      };
+    }
+
+    RulesRepo rulesRepo() { return () -> rules; }
+    FeesRepo feesRepo() { return country -> new BigDecimal("0.025"); }
+    RatingsAPI ratingsApi() {
+      return id -> CustomerRating.values()[Math.floorMod(id.hashCode(), CustomerRating.values().length)];
+    }
+    ContractsAPI contractsApi() {
+      return id -> PaymentTerms.values()[Math.floorMod(id.hashCode(), PaymentTerms.values().length)];
+    }
+    ApprovalsAPI approvalsApi() {
+      return new ApprovalsAPI() {
+        public Approval createApproval(CreateApprovalRequest request) { return null; }
+        public Optional<Approval> getApproval(String approvalId) {
+          return Optional.of(new Approval(approvalId, ApprovalStatus.PENDING));
+        }
+      };
+    }
+
+    BatchedInvoicingDataLoader loader(int batchSize) {
+      return new BatchedInvoicingDataLoader(
+          customerRepo(), invoiceRepo(), rulesRepo(), feesRepo(),
+          ratingsApi(), contractsApi(), approvalsApi(), batchSize);
+    }
+
+    // The one-at-a-time version from Listing 5.46
+    List<InvoicingData> loadSequentially(LocalDate today) {
+      return customerRepo().findAll().stream().map(customer -> {
+        BigDecimal uglyFee = feesRepo().get(customer.getAddress().getCountry());
+        return new InvoicingData(
+            customer,
+            invoiceRepo().findInvoices(customer.getId()),
+            today,
+            ratingsApi().getRating(customer.getId()),
+            contractsApi().getPaymentTerms(customer.getId()),
+            new Percent(uglyFee.doubleValue(), 1),
+            rulesRepo().loadDefaults(),
+            Optional.ofNullable(customer.getApprovalId()).flatMap(approvalsApi()::getApproval));
+      }).toList();
+    }
+  }
+
+}
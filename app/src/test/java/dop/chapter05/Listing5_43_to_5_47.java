@@ -1,6 +1,8 @@
 package dop.chapter05;
 
 import dop.chapter05.Listing5_43_to_5_47.Lifecycle.Draft;
+import dop.chapter05.the.existing.world.Caching.CachingFeesRepo;
+import dop.chapter05.the.existing.world.Caching.CachingRulesRepo;
 import dop.chapter05.the.existing.world.Entities.*;
 import dop.chapter05.the.existing.world.Repositories;
 import dop.chapter05.the.existing.world.Repositories.FeesRepo;
@@ -15,8 +17,10 @@ import org.junit.jupiter.api.Test;
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.stream.Stream;
 
 import static dop.chapter05.Listing5_43_to_5_47.ReviewedFee.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 
 public class Listing5_43_to_5_47 {
 
@@ -186,11 +190,22 @@ public class Listing5_43_to_5_47 {
         // in our original implementation just managing "how" we get what we need.
         // This feels different when pulled out because it's no longer amortized
         // across all the other business logic. It's true cost is laid bare.
+        return streamInvoicingData().toList();
+      }
+
+      // The same loading, but handed out one customer at a time so
+      // callers don't have to hold everyone's data in memory at once.
+      Stream<InvoicingData> streamInvoicingData() {
         LocalDate today = LocalDate.now();
+        // The fee for a country and the default Rules are the same for every
+        // customer, so each is only loaded once per run. The caches are new
+        // every time, so nothing carries over into the next run.
+        FeesRepo fees = new CachingFeesRepo(feesRepo);
+        Repositories.RulesRepo rules = new CachingRulesRepo(rulesRepo);
         return customerRepo.findAll()
             .stream()
             .map(customer -> {
-              BigDecimal uglyFee = feesRepo.get(customer.getAddress().getCountry());
+              BigDecimal uglyFee = fees.get(customer.getAddress().getCountry());
               Percent feePercent = new Percent(uglyFee.doubleValue(), 1);
               return new InvoicingData(
                   customer,
@@ -199,11 +214,11 @@ public class Listing5_43_to_5_47 {
                   ratingsApi.getRating(customer.getId()),
                   contractsApi.getPaymentTerms(customer.getId()),
                   feePercent,
-                  rulesRepo.loadDefaults(),
+                  rules.loadDefaults(),
                   Optional.ofNullable(customer.getApprovalId())
                       .flatMap(approvalsApi::getApproval));
               }
-            ).toList();
+            );
       }
 
 
@@ -215,16 +230,17 @@ public class Listing5_43_to_5_47 {
        * ───────────────────────────────────────────────────────
        */
       public void processLateFees() {
-        this.loadInvoicingData().forEach(invoicingData -> {
-          for (InvoicingData data: this.loadInvoicingData()) {
-            List<Invoice> pastDue = collectPastDue( /*...*/);
-            LateFee<Draft> draft = buildDraft( /*...*/);
-            ReviewedFee decision = assessDraft( /*...*/);
-            switch(decision) {
-              case Billable billable       ->  someAction();
-              case NeedsApproval na          ->  someAction();
-              case NotBillable notBillable ->  someAction();
-            }
+        this.streamInvoicingData().forEach(data -> {
+          //                                ▲
+          //                                └──── Each customer's data is loaded exactly once
+          //                                      and handed straight to the business logic.
+          List<Invoice> pastDue = collectPastDue(data);
+          LateFee<Draft> draft = buildDraft(data, pastDue);
+          ReviewedFee decision = assessDraft(data, draft);
+          switch(decision) {
+            case Billable billable       ->  someAction();
+            case NeedsApproval na          ->  someAction();
+            case NotBillable notBillable ->  someAction();
           }
         });
       }
@@ -235,19 +251,88 @@ public class Listing5_43_to_5_47 {
 
 
       // here for compilation
-      List<Invoice> collectPastDue() {
-        return null; 
+      List<Invoice> collectPastDue(InvoicingData data) {
+        return List.of();
       }
-      LateFee<Draft> buildDraft() {
+      LateFee<Draft> buildDraft(InvoicingData data, List<Invoice> pastDue) {
         return null;
       }
-      ReviewedFee assessDraft() {
-        return null;
+      ReviewedFee assessDraft(InvoicingData data, LateFee<Draft> draft) {
+        return new NotBillable(draft, new Reason("..."));
       }
 
       void someAction() {
       }
     }
+
+
+    // ┌────────────────────────────────────────────────────────────────────┐
+    // │       Regression check: how many calls does each customer cost?    │
+    // └────────────────────────────────────────────────────────────────────┘
+    // An earlier version of processLateFees called loadInvoicingData() inside
+    // of its own forEach, which re-loaded *everyone* once per customer. That's
+    // quadratic in remote calls and almost impossible to spot by reading.
+    // Counting calls makes it obvious. No matter how many customers there
+    // are, each dependency should be hit exactly once per customer, except
+    // for the fees and rules, which are cached for the run. Every customer
+    // here lives in the same (unset) country, so those are loaded just once.
+    Map<String, Integer> calls = new TreeMap<>();
+    for (int numCustomers : new int[]{1, 10, 100, 1_000}) {
+      calls.clear();
+      List<Customer> customers = new ArrayList<>();
+      for (int i = 0; i < numCustomers; i++) {
+        customers.add(new Customer("customer-" + i, new Address(), "approval-" + i));
+      }
+      FeeService service = new FeeService();
+      service.customerRepo = new Repositories.CustomerRepo() {
+        public List<Customer> findAll() { return customers; }
+        public void save(Customer customer) {}
+      };
+      service.invoiceRepo = new Repositories.InvoiceRepo() {
+        public void save(Invoice invoice) {}
+        public List<Invoice> findInvoices(String customerId) {
+          calls.merge("invoiceRepo.findInvoices", 1, Integer::sum);
+          return List.of();
+        }
+      };
+      service.feesRepo = country -> {
+        calls.merge("feesRepo.get", 1, Integer::sum);
+        return new BigDecimal("0.025");
+      };
+      service.rulesRepo = () -> {
+        calls.merge("rulesRepo.loadDefaults", 1, Integer::sum);
+        return new Rules();
+      };
+      service.ratingsApi = id -> {
+        calls.merge("ratingsApi.getRating", 1, Integer::sum);
+        return CustomerRating.GOOD;
+      };
+      service.contractsApi = id -> {
+        calls.merge("contractsApi.getPaymentTerms", 1, Integer::sum);
+        return PaymentTerms.NET_30;
+      };
+      service.approvalsApi = new ApprovalsAPI() {
+        public Approval createApproval(CreateApprovalRequest request) { return null; }
+        public Optional<Approval> getApproval(String approvalId) {
+          calls.merge("approvalsApi.getApproval", 1, Integer::sum);
+          return Optional.empty();
+        }
+      };
+
+      service.processLateFees();
+
+      assertEquals(Map.of(
+          "approvalsApi.getApproval", numCustomers,
+          "contractsApi.getPaymentTerms", numCustomers,
+          "feesRepo.get", 1,
+          "invoiceRepo.findInvoices", numCustomers,
+          "ratingsApi.getRating", numCustomers,
+          "rulesRepo.loadDefaults", 1), calls);
+
+      service.processLateFees();   // ◄── a new run loads them again
+      assertEquals(2, calls.get("feesRepo.get"));
+      assertEquals(2, calls.get("rulesRepo.loadDefaults"));
+    }
   }
 
 
@@ -0,0 +1,112 @@
+package dop.chapter05.the.existing.world;
+
+import dop.chapter05.the.existing.world.Entities.Rules;
+import dop.chapter05.the.existing.world.Repositories.FeesRepo;
+import dop.chapter05.the.existing.world.Repositories.RulesRepo;
+
+import java.math.BigDecimal;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+// A note on difference between the book and this repo:
+// These aren't in the book. They're the kind of plumbing that
+// tends to grow up around Repositories like the ones above.
+//
+// Some lookups (the fee for a country, the default Rules) give the
+// same answer for every customer in a run. These caches make sure
+// each one is loaded at most once per run. A fresh cache is meant
+// to be created for every run so nothing goes stale between them.
+public class Caching {
+
+  public record Stats(long hits, long misses) {}
+
+  public static class RunScopedCache<K, V> {
+    // Optional lets us cache null keys (a customer without a country, say),
+    // which ConcurrentHashMap won't accept directly.
+    private final ConcurrentMap<Optional<K>, CompletableFuture<V>> entries = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public V get(K key, Function<? super K, ? extends V> loader) {
+      CompletableFuture<V> mine = new CompletableFuture<>();
+      CompletableFuture<V> existing = entries.putIfAbsent(Optional.ofNullable(key), mine);
+      if (existing != null) {
+        // Someone else got here first. If their load is still in
+        // flight, we wait on it rather than starting our own.
+        hits.increment();
+        return await(existing);
+      }
+      misses.increment();
+      try {
+        mine.complete(loader.apply(key));
+      } catch (Throwable e) {
+        // Failures aren't cached (Errors included, or anyone waiting
+        // on this load would wait forever). Whoever was waiting gets
+        // the error, and the next caller is free to try again.
+        entries.remove(Optional.ofNullable(key), mine);
+        mine.completeExceptionally(e);
+      }
+      return await(mine);
+    }
+
+    public Stats stats() {
+      return new Stats(hits.sum(), misses.sum());
+    }
+
+    private static <V> V await(CompletableFuture<V> future) {
+      try {
+        return future.join();
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof RuntimeException cause) {
+          throw cause;
+        }
+        if (e.getCause() instanceof Error cause) {
+          throw cause;
+        }
+        throw e;
+      }
+    }
+  }
+
+  public static class CachingFeesRepo implements FeesRepo {
+    private final FeesRepo delegate;
+    private final RunScopedCache<String, BigDecimal> cache = new RunScopedCache<>();
+
+    public CachingFeesRepo(FeesRepo delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public BigDecimal get(String countryCode) {
+      return cache.get(countryCode, delegate::get);
+    }
+
+    public Stats stats() {
+      return cache.stats();
+    }
+  }
+
+  public static class CachingRulesRepo implements RulesRepo {
+    private final RulesRepo delegate;
+    private final RunScopedCache<String, Rules> cache = new RunScopedCache<>();
+
+    public CachingRulesRepo(RulesRepo delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public Rules loadDefaults() {
+      return cache.get("defaults", __ -> delegate.loadDefaults());
+    }
+
+    public Stats stats() {
+      return cache.stats();
+    }
+  }
+
+}
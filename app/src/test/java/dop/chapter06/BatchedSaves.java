@@ -0,0 +1,425 @@
+package dop.chapter06;
+
+import dop.chapter05.the.existing.world.Entities.Customer;
+import dop.chapter05.the.existing.world.Entities.Invoice;
+import dop.chapter05.the.existing.world.Repositories.CustomerRepo;
+import dop.chapter05.the.existing.world.Repositories.InvoiceRepo;
+import dop.chapter06.LateFees.FakeWorld;
+import dop.chapter06.LateFees.LateFee;
+import dop.chapter06.LateFees.LateFeeChargingService;
+import dop.chapter06.LateFees.Lifecycle;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static dop.chapter06.LateFees.approvalUpdate;
+import static dop.chapter06.LateFees.toInvoice;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BatchedSaves {
+
+  /**
+   * ───────────────────────────────────────────────────────
+   * Write-behind batching for save(LateFee)
+   * ───────────────────────────────────────────────────────
+   * The @Transaction save in Listing 6.60 commits once per fee:
+   * one invoice, and sometimes one customer. When most of the
+   * database's time goes to commit overhead, the fix is to commit
+   * less often.
+   *
+   * The saver below holds on to the writes for each fee and
+   * flushes them all in a single transaction once it has
+   * `batchSize` fees or `flushInterval` has passed, whichever comes
+   * first. A batch is all-or-nothing. If any write in it fails,
+   * none of them are committed and the caller gets the whole batch
+   * back in a BatchWriteFailed so it can decide what to do next.
+   *
+   * A batch flushed on the interval fails on the flusher thread, so
+   * its BatchWriteFailed is handed to the next save() or close()
+   * instead. save() still takes its own fee before throwing it, and
+   * close() still flushes whatever is left, so no fee is ever dropped
+   * without being in some BatchWriteFailed.
+   * ───────────────────────────────────────────────────────
+   */
+  interface Transactions {
+    void inTransaction(Runnable work);
+  }
+
+  record PendingWrite(Invoice invoice, Optional<Customer> customer) {
+    static PendingWrite of(LateFee<? extends Lifecycle> latefee) {
+      return new PendingWrite(toInvoice(latefee), approvalUpdate(latefee));
+    }
+  }
+
+  static class BatchWriteFailed extends RuntimeException {
+    final List<PendingWrite> batch;
+
+    BatchWriteFailed(List<PendingWrite> batch, RuntimeException cause) {
+      super("Failed to write a batch of " + batch.size() + " late fees. None were committed.", cause);
+      this.batch = batch;
+    }
+  }
+
+  static class WriteBehindSaver implements AutoCloseable {
+    record Settings(int batchSize, Duration flushInterval) {
+      Settings {
+        if (batchSize < 1) {
+          throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        if (flushInterval.isNegative() || flushInterval.isZero()) {
+          throw new IllegalArgumentException("flushInterval must be positive");
+        }
+      }
+    }
+
+    private final InvoiceRepo invoiceRepo;
+    private final CustomerRepo customerRepo;
+    private final Transactions transactions;
+    private final Settings settings;
+    private final ScheduledExecutorService flusher;
+    private final AtomicReference<RuntimeException> backgroundFailure = new AtomicReference<>();
+    private List<PendingWrite> pending = new ArrayList<>();
+    private boolean closed;
+
+    WriteBehindSaver(InvoiceRepo invoiceRepo, CustomerRepo customerRepo, Transactions transactions, Settings settings) {
+      this.invoiceRepo = invoiceRepo;
+      this.customerRepo = customerRepo;
+      this.transactions = transactions;
+      this.settings = settings;
+      this.flusher = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().factory());
+      long interval = settings.flushInterval().toNanos();
+      this.flusher.scheduleWithFixedDelay(this::flushInBackground, interval, interval, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Queues the fee's writes. If an earlier batch failed in the
+     * background, that batch's BatchWriteFailed is thrown from here,
+     * but only once this fee is safely queued: it's not part of the
+     * failure, and will go out with the next batch.
+     */
+    synchronized void save(LateFee<? extends Lifecycle> latefee) {
+      if (closed) {
+        throw new IllegalStateException("The saver is closed, so nothing would ever write this fee");
+      }
+      pending.add(PendingWrite.of(latefee));
+      rethrowBackgroundFailure();
+      if (pending.size() >= settings.batchSize()) {
+        flush();
+      }
+    }
+
+    synchronized void flush() {
+      if (pending.isEmpty()) {
+        return;
+      }
+      List<PendingWrite> batch = pending;
+      pending = new ArrayList<>();
+      try {
+        transactions.inTransaction(() -> batch.forEach(write -> {
+          invoiceRepo.save(write.invoice());
+          write.customer().ifPresent(customerRepo::save);
+        }));
+      } catch (RuntimeException e) {
+        throw new BatchWriteFailed(batch, e);
+      }
+    }
+
+    @Override
+    public synchronized void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      flusher.shutdownNow();
+      RuntimeException background = backgroundFailure.getAndSet(null);
+      try {
+        flush();
+      } catch (RuntimeException e) {
+        if (background != null) {
+          e.addSuppressed(background);
+        }
+        throw e;
+      }
+      if (background != null) {
+        throw background;
+      }
+    }
+
+    private void flushInBackground() {
+      try {
+        flush();
+      } catch (RuntimeException e) {
+        // Nobody is around to catch this on the flusher thread, so
+        // it gets handed to whoever talks to the saver next.
+        backgroundFailure.compareAndSet(null, e);
+      }
+    }
+
+    private void rethrowBackgroundFailure() {
+      RuntimeException failure = backgroundFailure.getAndSet(null);
+      if (failure != null) {
+        throw failure;
+      }
+    }
+  }
+
+  /**
+   * The same process as Listing 6.60, with the per-fee @Transaction
+   * save swapped out for the write-behind saver.
+   */
+  static class BatchedSaveLateFeeChargingService {
+    private final LateFeeChargingService service;
+    private final Transactions transactions;
+    private final WriteBehindSaver.Settings settings;
+
+    BatchedSaveLateFeeChargingService(
+        LateFeeChargingService service,
+        Transactions transactions,
+        WriteBehindSaver.Settings settings) {
+      this.service = service;
+      this.transactions = transactions;
+      this.settings = settings;
+    }
+
+    public void processLatefees() {
+      try (WriteBehindSaver saver = new WriteBehindSaver(
+          service.invoiceRepo, service.customerRepo, transactions, settings)) {
+        service.loadInvoicingData()
+            .map(LateFees::assess)
+            .map(service::settle)
+            .forEach(saver::save);
+      }
+    }
+  }
+
+
+  @Test
+  void savesTheSameFeesInFarFewerTransactions() {
+    FakeWorld sequential = new FakeWorld(10_000);
+    sequential.service().processLatefees();
+
+    FakeWorld world = new FakeWorld(10_000);
+    FakeDatabase db = new FakeDatabase(world.invoiceRepo(), world.customerRepo());
+    new BatchedSaveLateFeeChargingService(
+        db.attach(world.service()), db, new WriteBehindSaver.Settings(250, Duration.ofMinutes(1))
+    ).processLatefees();
+
+    assertEquals(sequential.outcomes(), world.outcomes());
+    assertEquals(sequential.savedCustomers.size(), world.savedCustomers.size());
+    assertEquals(10_000 / 250, db.commits);
+  }
+
+  @Test
+  void aFailedWriteRollsBackItsWholeBatch() {
+    FakeWorld world = new FakeWorld(1_000);
+    FakeDatabase db = new FakeDatabase(world.invoiceRepo(), world.customerRepo());
+    String poisoned = world.service().loadInvoicingData()
+        .map(LateFees::assess)
+        .filter(fee -> fee instanceof LateFees.NeedsApproval)
+        .map(fee -> ((LateFees.NeedsApproval) fee).latefee().customer().id().value())
+        .skip(3)
+        .findFirst()
+        .orElseThrow();
+    db.failWhenSaving(poisoned);
+
+    var service = new BatchedSaveLateFeeChargingService(
+        db.attach(world.service()), db, new WriteBehindSaver.Settings(100, Duration.ofMinutes(1)));
+    BatchWriteFailed failure = assertThrows(BatchWriteFailed.class, service::processLatefees);
+
+    assertEquals(100, failure.batch.size());
+    assertTrue(failure.batch.stream().anyMatch(w -> w.invoice().getCustomerId().equals(poisoned)));
+    assertEquals(1, db.rollbacks);
+    // Only whole batches ever make it to the database
+    assertEquals(db.commits * 100, world.savedInvoices.size());
+    assertTrue(world.savedInvoices.stream().noneMatch(invoice ->
+        failure.batch.stream().anyMatch(w -> w.invoice() == invoice)));
+  }
+
+  @Test
+  void partialBatchesAreFlushedOnAnInterval() throws InterruptedException {
+    FakeWorld world = new FakeWorld(3);
+    FakeDatabase db = new FakeDatabase(world.invoiceRepo(), world.customerRepo());
+    LateFeeChargingService service = world.service();
+
+    try (WriteBehindSaver saver = new WriteBehindSaver(
+        db.invoiceRepo(), db.customerRepo(), db, new WriteBehindSaver.Settings(1_000, Duration.ofMillis(20)))) {
+      service.loadInvoicingData().map(LateFees::assess).map(service::settle).forEach(saver::save);
+
+      // The batch never fills up, so only the interval can flush it. Under
+      // load that may happen between saves, and take more than one commit.
+      long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+      while (world.savedInvoices.size() < 3 && System.nanoTime() < deadline) {
+        Thread.sleep(5);
+      }
+      assertEquals(3, world.savedInvoices.size());
+      assertTrue(db.commits >= 1 && db.commits <= 3);
+    }
+  }
+
+  @Test
+  void aFeeSavedAfterABackgroundFailureIsStillWritten() throws InterruptedException {
+    FakeWorld world = new FakeWorld(100);
+    FakeDatabase db = new FakeDatabase(world.invoiceRepo(), world.customerRepo());
+    List<LateFee<? extends Lifecycle>> fees = settled(world);
+    LateFee<? extends Lifecycle> poisoned = needingApproval(fees);
+    LateFee<? extends Lifecycle> next = fees.stream().filter(fee -> fee != poisoned).findFirst().orElseThrow();
+
+    try (WriteBehindSaver saver = new WriteBehindSaver(
+        db.invoiceRepo(), db.customerRepo(), db, new WriteBehindSaver.Settings(1_000, Duration.ofMillis(10)))) {
+      db.failWhenSaving(poisoned.customer().id().value());
+      saver.save(poisoned);
+      long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+      while (saver.backgroundFailure.get() == null && System.nanoTime() < deadline) {
+        Thread.sleep(5);
+      }
+      db.failWhenSaving(null);
+
+      // The failure is the earlier batch's, and `next` isn't in it
+      BatchWriteFailed failure = assertThrows(BatchWriteFailed.class, () -> saver.save(next));
+      assertEquals(1, failure.batch.size());
+      assertEquals(poisoned.customer().id().value(), failure.batch.getFirst().invoice().getCustomerId());
+    }
+    assertEquals(1, world.savedInvoices.size());
+    assertEquals(next.customer().id().value(), world.savedInvoices.peek().getCustomerId());
+  }
+
+  @Test
+  void closingFlushesWhatIsLeftBeforeReportingABackgroundFailure() {
+    FakeWorld world = new FakeWorld(100);
+    FakeDatabase db = new FakeDatabase(world.invoiceRepo(), world.customerRepo());
+    List<LateFee<? extends Lifecycle>> fees = settled(world);
+    BatchWriteFailed background = new BatchWriteFailed(List.of(), new IllegalStateException("flusher"));
+    WriteBehindSaver.Settings settings = new WriteBehindSaver.Settings(1_000, Duration.ofHours(1));
+
+    // The flush on close works, so close() reports the background failure
+    WriteBehindSaver saver = new WriteBehindSaver(db.invoiceRepo(), db.customerRepo(), db, settings);
+    saver.save(fees.get(0));
+    saver.backgroundFailure.set(background);   // ◄── as if the flusher had just failed
+    assertEquals(background, assertThrows(BatchWriteFailed.class, saver::close));
+    assertEquals(1, world.savedInvoices.size());
+
+    // The flush on close fails too, so close() reports that, with the
+    // background failure attached
+    LateFee<? extends Lifecycle> poisoned = needingApproval(fees);
+    db.failWhenSaving(poisoned.customer().id().value());
+    WriteBehindSaver failing = new WriteBehindSaver(db.invoiceRepo(), db.customerRepo(), db, settings);
+    failing.save(poisoned);
+    failing.backgroundFailure.set(background);
+    BatchWriteFailed failure = assertThrows(BatchWriteFailed.class, failing::close);
+    assertEquals(1, failure.batch.size());
+    assertEquals(List.of(background), List.of(failure.getSuppressed()));
+    assertEquals(1, world.savedInvoices.size());
+  }
+
+  @Test
+  void refusesToSaveOnceClosed() {
+    FakeWorld world = new FakeWorld(10);
+    FakeDatabase db = new FakeDatabase(world.invoiceRepo(), world.customerRepo());
+    List<LateFee<? extends Lifecycle>> fees = settled(world);
+
+    WriteBehindSaver saver = new WriteBehindSaver(
+        db.invoiceRepo(), db.customerRepo(), db, new WriteBehindSaver.Settings(1_000, Duration.ofMinutes(1)));
+    saver.save(fees.get(0));
+    saver.close();
+    assertThrows(IllegalStateException.class, () -> saver.save(fees.get(1)));
+    saver.close();
+
+    assertEquals(1, world.savedInvoices.size());
+    assertEquals(1, db.commits);
+  }
+
+  private static List<LateFee<? extends Lifecycle>> settled(FakeWorld world) {
+    LateFeeChargingService service = world.service();
+    return service.loadInvoicingData()
+        .map(LateFees::assess)
+        .<LateFee<? extends Lifecycle>>map(service::settle)
+        .toList();
+  }
+
+  // A fee which also saves its customer, so FakeDatabase can fail it
+  private static LateFee<? extends Lifecycle> needingApproval(List<LateFee<? extends Lifecycle>> fees) {
+    return fees.stream()
+        .filter(fee -> PendingWrite.of(fee).customer().isPresent())
+        .findFirst()
+        .orElseThrow();
+  }
+
+  /**
+   * A pretend database. Writes made inside a transaction are
+   * staged, and only reach the underlying repos on commit.
+   */
+  static class FakeDatabase implements Transactions {
+    private final InvoiceRepo invoices;
+    private final CustomerRepo customers;
+    private List<Runnable> staged;
+    private volatile String failOnCustomerId;
+    volatile int commits;
+    volatile int rollbacks;
+
+    FakeDatabase(InvoiceRepo invoices, CustomerRepo customers) {
+      this.invoices = invoices;
+      this.customers = customers;
+    }
+
+    void failWhenSaving(String customerId) {
+      this.failOnCustomerId = customerId;
+    }
+
+    @Override
+    public synchronized void inTransaction(Runnable work) {
+      staged = new ArrayList<>();
+      try {
+        work.run();
+        staged.forEach(Runnable::run);
+        commits++;
+      } catch (RuntimeException e) {
+        rollbacks++;
+        throw e;
+      } finally {
+        staged = null;
+      }
+    }
+
+    InvoiceRepo invoiceRepo() {
+      return new InvoiceRepo() {
+        public void save(Invoice invoice) { stage(() -> invoices.save(invoice)); }
+        public List<Invoice> findInvoices(String customerId) { return invoices.findInvoices(customerId); }
+      };
+    }
+
+    CustomerRepo customerRepo() {
+      return new CustomerRepo() {
+        public List<Customer> findAll() { return customers.findAll(); }
+        public void save(Customer customer) {
+          if (customer.getId().equals(failOnCustomerId)) {
+            throw new IllegalStateException("constraint violation for " + customer.getId());
+          }
+          stage(() -> customers.save(customer));
+        }
+      };
+    }
+
+    LateFeeChargingService attach(LateFeeChargingService service) {
+      return new LateFeeChargingService(
+          service.approvalsApi, service.billingApi, customerRepo(), invoiceRepo(),
+          service.customerFacade, service.rulesRepo);
+    }
+
+    private void stage(Runnable write) {
+      if (staged == null) {
+        throw new IllegalStateException("Writes must happen inside a transaction");
+      }
+      staged.add(write);
+    }
+  }
+
+}
@@ -0,0 +1,358 @@
+package dop.chapter06;
+
+import dop.chapter05.the.existing.world.Entities.Customer;
+import dop.chapter05.the.existing.world.Services.ApprovalsAPI.Approval;
+import dop.chapter06.LateFees.Billable;
+import dop.chapter06.LateFees.BillingResponse;
+import dop.chapter06.LateFees.CreateApprovalRequest;
+import dop.chapter06.LateFees.CustomerId;
+import dop.chapter06.LateFees.Draft;
+import dop.chapter06.LateFees.FakeWorld;
+import dop.chapter06.LateFees.InvoiceId;
+import dop.chapter06.LateFees.LateFee;
+import dop.chapter06.LateFees.LateFeeChargingService;
+import dop.chapter06.LateFees.Lifecycle;
+import dop.chapter06.LateFees.NeedsApproval;
+import dop.chapter06.LateFees.NotBillable;
+import dop.chapter06.LateFees.Reason;
+import dop.chapter06.LateFees.ReviewedFee;
+import dop.chapter06.LateFees.SubmitInvoiceRequest;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class BulkBilling {
+
+  /**
+   * ───────────────────────────────────────────────────────
+   * Bulk billing and approvals
+   * ───────────────────────────────────────────────────────
+   * In Listing 6.60 every Billable costs one round trip to the
+   * billing service, and every NeedsApproval costs one round trip
+   * to the approvals service. These batch APIs take many requests
+   * in a single call and hand back one result per request, in the
+   * same order they were sent.
+   *
+   * A batch call can partly succeed. Individual items come back
+   * rejected (or failed), and those map to markNotBilled for just
+   * the affected fees. Everything else in the batch carries on as
+   * normal. If the call itself blows up, we let that propagate the
+   * same way a failed single call would in the original.
+   * ───────────────────────────────────────────────────────
+   */
+  interface BatchBillingAPI {
+    List<BillingResponse> submitAll(List<SubmitInvoiceRequest> requests);
+  }
+
+  interface BatchApprovalsAPI {
+    List<ApprovalResult> createAll(List<CreateApprovalRequest> requests);
+  }
+
+  sealed interface ApprovalResult {
+    record Created(Approval approval) implements ApprovalResult {}
+    record Failed(String error) implements ApprovalResult {}
+  }
+
+
+  /**
+   * ───────────────────────────────────────────────────────
+   * Grouping decisions into batches
+   * ───────────────────────────────────────────────────────
+   * Items are held until either the batch is full, or the oldest
+   * item in it has been waiting longer than maxDelay. Whoever is
+   * feeding the batcher must call flush() once they're done so the
+   * last partial batch isn't left behind.
+   *
+   * There's no timer. The age of a batch is only checked when the
+   * next item arrives, so a batch can sit for longer than maxDelay
+   * if nothing else comes along. That's fine for a run which feeds
+   * the batcher in a tight loop and flushes at the end, which is the
+   * only way it's used here. Anything trickling items in slowly would
+   * need to flush on a schedule of its own.
+   * ───────────────────────────────────────────────────────
+   */
+  static class Batcher<A> {
+    private final int maxSize;
+    private final long maxDelayNanos;
+    private final LongSupplier ticker;
+    private final Consumer<List<A>> sink;
+    private List<A> pending = new ArrayList<>();
+    private long oldest;
+
+    Batcher(int maxSize, Duration maxDelay, LongSupplier ticker, Consumer<List<A>> sink) {
+      if (maxSize < 1) {
+        throw new IllegalArgumentException("maxSize must be at least 1");
+      }
+      this.maxSize = maxSize;
+      this.maxDelayNanos = maxDelay.toNanos();
+      this.ticker = ticker;
+      this.sink = sink;
+    }
+
+    void add(A item) {
+      if (pending.isEmpty()) {
+        oldest = ticker.getAsLong();
+      }
+      pending.add(item);
+      if (pending.size() >= maxSize || ticker.getAsLong() - oldest >= maxDelayNanos) {
+        flush();
+      }
+    }
+
+    void flush() {
+      if (!pending.isEmpty()) {
+        List<A> batch = pending;
+        pending = new ArrayList<>();
+        sink.accept(batch);
+      }
+    }
+  }
+
+
+  /**
+   * ───────────────────────────────────────────────────────
+   * The service, with batched side effects
+   * ───────────────────────────────────────────────────────
+   */
+  static class BulkLateFeeChargingService {
+    private final LateFeeChargingService service;
+    private final BatchBillingAPI billingApi;
+    private final BatchApprovalsAPI approvalsApi;
+    private final int batchSize;
+    private final Duration maxDelay;
+    private final LongSupplier ticker;
+
+    BulkLateFeeChargingService(
+        LateFeeChargingService service,
+        BatchBillingAPI billingApi,
+        BatchApprovalsAPI approvalsApi,
+        int batchSize,
+        Duration maxDelay,
+        LongSupplier ticker) {
+      this.service = service;
+      this.billingApi = billingApi;
+      this.approvalsApi = approvalsApi;
+      this.batchSize = batchSize;
+      this.maxDelay = maxDelay;
+      this.ticker = ticker;
+    }
+
+    BulkLateFeeChargingService(
+        LateFeeChargingService service,
+        BatchBillingAPI billingApi,
+        BatchApprovalsAPI approvalsApi,
+        int batchSize,
+        Duration maxDelay) {
+      this(service, billingApi, approvalsApi, batchSize, maxDelay, System::nanoTime);
+    }
+
+    /**
+     * The batchers belong to this run alone. If it fails part way,
+     * whatever they're still holding is dropped along with them, the
+     * same as the customers the sequential loop never got to. Nothing
+     * carries over into the next run.
+     */
+    public void processLatefees() {
+      Batcher<Billable> billables = new Batcher<>(batchSize, maxDelay, ticker, this::submitBills);
+      Batcher<NeedsApproval> approvals = new Batcher<>(batchSize, maxDelay, ticker, this::startApprovals);
+      service.loadInvoicingData().map(LateFees::assess).forEach(reviewed -> charge(reviewed, billables, approvals));
+      billables.flush();
+      approvals.flush();
+    }
+
+    void charge(ReviewedFee reviewed, Batcher<Billable> billables, Batcher<NeedsApproval> approvals) {
+      switch (reviewed) {
+        case Billable b -> billables.add(b);
+        case NeedsApproval a -> approvals.add(a);
+        case NotBillable nb -> service.save(nb.latefee().markNotBilled(nb.reason()));
+      }
+    }
+
+    void submitBills(List<Billable> batch) {
+      List<BillingResponse> responses = billingApi.submitAll(
+          batch.stream().map(b -> SubmitInvoiceRequest.of(b.latefee())).toList());
+      requireOneResultPerItem(batch, responses);
+      for (int i = 0; i < batch.size(); i++) {
+        LateFee<Draft> latefee = batch.get(i).latefee();
+        BillingResponse response = responses.get(i);
+        service.save(switch (response.status()) {
+          case ACCEPTED -> latefee.markBilled(new InvoiceId(response.invoiceId()));
+          case REJECTED -> latefee.markNotBilled(new Reason(response.error()));
+        });
+      }
+    }
+
+    void startApprovals(List<NeedsApproval> batch) {
+      List<ApprovalResult> results = approvalsApi.createAll(
+          batch.stream().map(a -> CreateApprovalRequest.of(a.latefee())).toList());
+      requireOneResultPerItem(batch, results);
+      for (int i = 0; i < batch.size(); i++) {
+        LateFee<Draft> latefee = batch.get(i).latefee();
+        LateFee<? extends Lifecycle> outcome = switch (results.get(i)) {
+          case ApprovalResult.Created(var approval) -> latefee.markAsBeingReviewed(approval.id());
+          case ApprovalResult.Failed(var error) -> latefee.markNotBilled(new Reason(error));
+        };
+        service.save(outcome);
+      }
+    }
+
+    private static void requireOneResultPerItem(List<?> batch, List<?> results) {
+      if (batch.size() != results.size()) {
+        throw new IllegalStateException(
+            "Expected " + batch.size() + " results from the batch call, but got " + results.size());
+      }
+    }
+  }
+
+
+  /**
+   * ───────────────────────────────────────────────────────
+   * An in-process stand-in for the remote billing service
+   * ───────────────────────────────────────────────────────
+   * Answers each item exactly the way the single-item FakeWorld
+   * APIs do, while counting how many round trips it took.
+   * ───────────────────────────────────────────────────────
+   */
+  static class InProcessBillingService implements BatchBillingAPI, BatchApprovalsAPI {
+    private final FakeWorld world;
+    final LongAdder billingRoundTrips = new LongAdder();
+    final LongAdder approvalRoundTrips = new LongAdder();
+
+    InProcessBillingService(FakeWorld world) {
+      this.world = world;
+    }
+
+    @Override
+    public List<BillingResponse> submitAll(List<SubmitInvoiceRequest> requests) {
+      billingRoundTrips.increment();
+      return requests.stream().map(world::bill).toList();
+    }
+
+    @Override
+    public List<ApprovalResult> createAll(List<CreateApprovalRequest> requests) {
+      approvalRoundTrips.increment();
+      return requests.stream()
+          .<ApprovalResult>map(request -> new ApprovalResult.Created(world.approve(request)))
+          .toList();
+    }
+  }
+
+
+  @Test
+  void chargesTheSameFeesWithFarFewerRoundTrips() {
+    FakeWorld sequential = new FakeWorld(10_000);
+    sequential.service().processLatefees();
+
+    FakeWorld bulk = new FakeWorld(10_000);
+    InProcessBillingService remote = new InProcessBillingService(bulk);
+    new BulkLateFeeChargingService(bulk.service(), remote, remote, 500, Duration.ofSeconds(1))
+        .processLatefees();
+
+    assertEquals(sequential.outcomes(), bulk.outcomes());
+    assertEquals(sequential.savedCustomers.size(), bulk.savedCustomers.size());
+
+    long billed = sequential.billingCalls.sum();
+    long approvals = sequential.approvalCalls.sum();
+    assertEquals((billed + 499) / 500, remote.billingRoundTrips.sum());
+    assertEquals((approvals + 499) / 500, remote.approvalRoundTrips.sum());
+  }
+
+  @Test
+  void partialFailuresOnlyAffectTheFailedItems() {
+    FakeWorld sequential = new FakeWorld(2_000);
+    sequential.service().processLatefees();
+
+    FakeWorld world = new FakeWorld(2_000);
+    InProcessBillingService remote = new InProcessBillingService(world);
+    BatchApprovalsAPI flakyApprovals = requests -> requests.stream()
+        .<ApprovalResult>map(request -> FakeWorld.indexOf(request.customerId()) % 2 == 0
+            ? new ApprovalResult.Failed("approvals timed out")
+            : new ApprovalResult.Created(world.approve(request)))
+        .toList();
+    new BulkLateFeeChargingService(world.service(), remote, flakyApprovals, 100, Duration.ofSeconds(1))
+        .processLatefees();
+
+    Map<String, String> expected = new HashMap<>(sequential.outcomes());
+    sequential.savedCustomers.stream()
+        .map(Customer::getId)
+        .filter(id -> FakeWorld.indexOf(new CustomerId(id)) % 2 == 0)
+        .forEach(id -> expected.put(id, "unbilled:approvals timed out"));
+
+    assertEquals(expected, world.outcomes());
+    assertEquals(
+        sequential.savedCustomers.stream().map(Customer::getId)
+            .filter(id -> FakeWorld.indexOf(new CustomerId(id)) % 2 == 1).sorted().toList(),
+        world.savedCustomers.stream().map(Customer::getId).sorted().toList());
+  }
+
+  @Test
+  void aFailedRunLeavesNothingBehindForTheNextOne() {
+    FakeWorld sequential = new FakeWorld(1_000);
+    sequential.service().processLatefees();
+
+    FakeWorld world = new FakeWorld(1_000);
+    InProcessBillingService remote = new InProcessBillingService(world);
+    AtomicBoolean down = new AtomicBoolean(true);
+    BatchBillingAPI billing = requests -> {
+      if (down.getAndSet(false)) {
+        throw new IllegalStateException("billing is down");
+      }
+      return remote.submitAll(requests);
+    };
+    LongAdder approvalsRequested = new LongAdder();
+    BatchApprovalsAPI approvals = requests -> {
+      approvalsRequested.add(requests.size());
+      return remote.createAll(requests);
+    };
+    var service = new BulkLateFeeChargingService(world.service(), billing, approvals, 50, Duration.ofSeconds(1));
+
+    assertThrows(IllegalStateException.class, service::processLatefees);
+    world.savedInvoices.clear();
+    world.savedCustomers.clear();
+    approvalsRequested.reset();
+
+    service.processLatefees();
+    assertEquals(sequential.outcomes(), world.outcomes());
+    assertEquals(sequential.approvalCalls.sum(), approvalsRequested.sum());
+  }
+
+  @Test
+  void batchesAreFlushedWhenTheyGetTooOld() {
+    AtomicLong now = new AtomicLong();
+    List<List<Integer>> flushed = new ArrayList<>();
+    Batcher<Integer> batcher = new Batcher<>(100, Duration.ofMillis(50), now::get, flushed::add);
+
+    batcher.add(1);
+    now.addAndGet(Duration.ofMillis(10).toNanos());
+    batcher.add(2);
+    now.addAndGet(Duration.ofMillis(40).toNanos());
+    batcher.add(3);   // ◄── the batch is now 50ms old
+    batcher.add(4);
+    batcher.flush();
+
+    assertEquals(List.of(List.of(1, 2, 3), List.of(4)), flushed);
+  }
+
+  @Test
+  void batchCallsMustAnswerForEveryItem() {
+    FakeWorld world = new FakeWorld(100);
+    BatchBillingAPI lossy = requests -> List.of();
+    var service = new BulkLateFeeChargingService(
+        world.service(), lossy, new InProcessBillingService(world), 10, Duration.ofSeconds(1));
+
+    assertThrows(IllegalStateException.class, service::processLatefees);
+  }
+
+}
@@ -0,0 +1,247 @@
+package dop.chapter06;
+
+import dop.chapter05.the.existing.world.Entities.Invoice;
+import dop.chapter05.the.existing.world.Entities.LineItem;
+import dop.chapter06.LateFees.Draft;
+import dop.chapter06.LateFees.FakeWorld;
+import dop.chapter06.LateFees.LateFee;
+import dop.chapter06.LateFees.PastDue;
+import dop.chapter06.LateFees.Percent;
+import dop.chapter06.LateFees.Rules;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Currency;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class FixedPointMoney {
+
+  /**
+   * ───────────────────────────────────────────────────────
+   * A fixed-point USD
+   * ───────────────────────────────────────────────────────
+   * The USD(BigDecimal value) records used throughout the book
+   * allocate a fresh BigDecimal on every plus and minus. That's
+   * usually irrelevant. But assessDraft compares totals against the
+   * fee thresholds for every customer on every run, and that's a
+   * lot of garbage for what is really just comparing two numbers.
+   *
+   * This representation stores a whole number of cents in a long.
+   * Arithmetic never silently wraps around: anything that would
+   * overflow throws an ArithmeticException instead.
+   *
+   * BigDecimal is still what the rest of the world speaks, so we
+   * convert at the edges. Going in is exact, or it fails loudly.
+   * If a BigDecimal has fractions of a cent, you have to say how
+   * to round it. Coming back out is always lossless.
+   *
+   * This only replaces chapter 6's USD on the fee path. Chapter 5's
+   * USD records are stand-ins inside individual listings, with no
+   * arithmetic to speak of, and chapter 11's USD is built from doubles
+   * for its own examples. Neither is on assessDraft's hot path. Both
+   * wrap a BigDecimal, so either can still cross over with of().
+   * ───────────────────────────────────────────────────────
+   */
+  record USD(long cents) implements Comparable<USD> {
+    static final int SCALE = 2;
+    static final USD ZERO = new USD(0);
+
+    /**
+     * Exact conversion. Throws if the amount has fractions of a
+     * cent, or won't fit in a long.
+     */
+    static USD of(BigDecimal value) {
+      return new USD(value.movePointRight(SCALE).longValueExact());
+    }
+
+    static USD of(BigDecimal value, RoundingMode rounding) {
+      return of(value.setScale(SCALE, rounding));
+    }
+
+    BigDecimal toBigDecimal() {
+      return BigDecimal.valueOf(cents, SCALE);
+    }
+
+    USD plus(USD other) {
+      return new USD(Math.addExact(cents, other.cents));
+    }
+
+    USD minus(USD other) {
+      return new USD(Math.subtractExact(cents, other.cents));
+    }
+
+    USD times(long multiplier) {
+      return new USD(Math.multiplyExact(cents, multiplier));
+    }
+
+    /**
+     * Scaling by something like a percentage will usually land on
+     * fractions of a cent, so the caller has to pick the rounding.
+     */
+    USD times(BigDecimal multiplier, RoundingMode rounding) {
+      return of(toBigDecimal().multiply(multiplier), rounding);
+    }
+
+    boolean isLessThan(USD other) {
+      return cents < other.cents;
+    }
+
+    boolean isGreaterThan(USD other) {
+      return cents > other.cents;
+    }
+
+    @Override
+    public int compareTo(USD other) {
+      return Long.compare(cents, other.cents);
+    }
+
+    @Override
+    public String toString() {
+      return "USD[" + toBigDecimal().toPlainString() + "]";
+    }
+  }
+
+  /**
+   * Listing 6.50 computes the fee as total × percentage, and compares
+   * it with the thresholds fractions of a cent and all. But a fee can
+   * only ever be charged in whole cents. So here, the fee is rounded
+   * once, with FEE_ROUNDING, as it's computed, and everything after
+   * that works on exactly the amount that would be charged.
+   *
+   * That can change the answer right at a threshold. A 5% fee on
+   * $199.90 is $9.995: below a $10.00 minimum as a BigDecimal, but
+   * $10.00 once rounded, which is within it.
+   */
+  static final RoundingMode FEE_ROUNDING = RoundingMode.HALF_EVEN;
+
+  static USD computeFee(List<PastDue> pastDue, Percent percentage) {
+    USD total = USD.ZERO;
+    for (PastDue due : pastDue) {
+      for (LineItem item : due.invoice().getLineItems()) {
+        total = total.plus(USD.of(item.getCharges()));
+      }
+    }
+    return total.times(percentage.decimalValue(), FEE_ROUNDING);
+  }
+
+  /**
+   * The fee thresholds converted once, up front, so checking
+   * against them is just two long comparisons.
+   */
+  record FixedPointRules(USD minimumFeeThreshold, USD maximumFeeThreshold) {
+    static FixedPointRules of(Rules rules) {
+      return new FixedPointRules(
+          USD.of(rules.minimumFeeThreshold()),
+          USD.of(rules.maximumFeeThreshold()));
+    }
+  }
+
+  /**
+   * Listing 6.50's threshold checks on fixed-point totals. The
+   * approval branch is untouched, so this only answers the question
+   * the hot path actually asks: which side of the thresholds is it on?
+   */
+  enum Threshold {BELOW_MINIMUM, WITHIN, ABOVE_MAXIMUM}
+
+  static Threshold classify(FixedPointRules rules, USD total) {
+    if (total.isLessThan(rules.minimumFeeThreshold())) {
+      return Threshold.BELOW_MINIMUM;
+    } else if (total.isGreaterThan(rules.maximumFeeThreshold())) {
+      return Threshold.ABOVE_MAXIMUM;
+    } else {
+      return Threshold.WITHIN;
+    }
+  }
+
+  /**
+   * The BigDecimal version, rounding the fee the same way first.
+   */
+  static Threshold classifyRounded(Rules rules, LateFees.USD fee) {
+    return classify(rules, new LateFees.USD(fee.value().setScale(USD.SCALE, FEE_ROUNDING)));
+  }
+
+  static Threshold classify(Rules rules, LateFees.USD total) {
+    if (total.value().compareTo(rules.minimumFeeThreshold()) < 0) {
+      return Threshold.BELOW_MINIMUM;
+    } else if (total.value().compareTo(rules.maximumFeeThreshold()) > 0) {
+      return Threshold.ABOVE_MAXIMUM;
+    } else {
+      return Threshold.WITHIN;
+    }
+  }
+
+
+  @Test
+  void conversionsAtTheBoundaryAreLossless() {
+    for (String amount : List.of("0", "0.01", "-12.34", "1234567.89", "92233720368547758.07")) {
+      BigDecimal value = new BigDecimal(amount);
+      assertEquals(0, value.compareTo(USD.of(value).toBigDecimal()), amount);
+    }
+    assertEquals(new USD(1050), USD.of(new BigDecimal("10.5")));
+    assertThrows(ArithmeticException.class, () -> USD.of(new BigDecimal("0.001")));
+    assertThrows(ArithmeticException.class, () -> USD.of(new BigDecimal("92233720368547758.08")));
+    assertEquals(new USD(1), USD.of(new BigDecimal("0.005"), RoundingMode.HALF_EVEN).plus(new USD(1)));
+  }
+
+  @Test
+  void arithmeticNeverOverflowsSilently() {
+    USD max = new USD(Long.MAX_VALUE);
+    USD min = new USD(Long.MIN_VALUE);
+    assertThrows(ArithmeticException.class, () -> max.plus(new USD(1)));
+    assertThrows(ArithmeticException.class, () -> min.minus(new USD(1)));
+    assertThrows(ArithmeticException.class, () -> max.times(2));
+    assertEquals(new USD(125), new USD(2500).times(new BigDecimal("0.05"), RoundingMode.HALF_EVEN));
+  }
+
+  @Test
+  void agreesWithTheBigDecimalVersionOnEveryDraft() {
+    FakeWorld world = new FakeWorld(20_000);
+    FixedPointRules fixed = FixedPointRules.of(world.rules);
+    world.service().loadInvoicingData().forEach(data -> {
+      List<PastDue> pastDue = LateFees.collectPastDue(data.customer(), data.currentDate(), data.invoices());
+      LateFee<Draft> draft = LateFees.buildDraft(data.currentDate(), data.customer(), pastDue);
+      USD fee = computeFee(pastDue, data.customer().feePercentage());
+
+      assertEquals(draft.total().value().setScale(USD.SCALE, FEE_ROUNDING), fee.toBigDecimal());
+      assertEquals(classifyRounded(world.rules, draft.total()), classify(fixed, fee));
+    });
+  }
+
+  @Test
+  void roundsTheFeeOnceBeforeComparingItAtAThreshold() {
+    Rules rules = new Rules(new BigDecimal("10.00"), new BigDecimal("500.00"));
+    FixedPointRules fixed = FixedPointRules.of(rules);
+    Percent fivePercent = new Percent(new BigDecimal("0.05"));
+
+    //                  5% of this   is this       and rounds to
+    assertFee(rules, fixed, "199.90", "9.995",    "10.00", Threshold.WITHIN);
+    assertFee(rules, fixed, "199.70", "9.985",    "9.98", Threshold.BELOW_MINIMUM);
+    assertFee(rules, fixed, "10000.10", "500.005", "500.00", Threshold.WITHIN);
+    assertFee(rules, fixed, "10000.30", "500.015", "500.02", Threshold.ABOVE_MAXIMUM);
+
+    // Unrounded, Listing 6.50 would have put the first one below the minimum
+    assertEquals(Threshold.BELOW_MINIMUM, classify(rules, LateFees.computeFee(pastDue("199.90"), fivePercent)));
+  }
+
+  private static void assertFee(Rules rules, FixedPointRules fixed, String total, String exact, String rounded, Threshold expected) {
+    Percent fivePercent = new Percent(new BigDecimal("0.05"));
+    LateFees.USD bigDecimalFee = LateFees.computeFee(pastDue(total), fivePercent);
+    USD fee = computeFee(pastDue(total), fivePercent);
+
+    assertEquals(0, new BigDecimal(exact).compareTo(bigDecimalFee.value()), total);
+    assertEquals(USD.of(new BigDecimal(rounded)), fee, total);
+    assertEquals(expected, classify(fixed, fee), total);
+    assertEquals(expected, classifyRounded(rules, bigDecimalFee), total);
+  }
+
+  private static List<PastDue> pastDue(String charges) {
+    Invoice invoice = new Invoice();
+    invoice.setLineItems(List.of(new LineItem(null, "Widgets", new BigDecimal(charges), Currency.getInstance("USD"))));
+    return List.of(new PastDue(invoice));
+  }
+
+}
@@ -0,0 +1,470 @@
+package dop.chapter06;
+
+import dop.chapter05.the.existing.world.Entities.Address;
+import dop.chapter05.the.existing.world.Entities.AuditInfo;
+import dop.chapter05.the.existing.world.Entities.Customer;
+import dop.chapter05.the.existing.world.Entities.Invoice;
+import dop.chapter05.the.existing.world.Entities.InvoiceStatus;
+import dop.chapter05.the.existing.world.Entities.InvoiceType;
+import dop.chapter05.the.existing.world.Entities.LineItem;
+import dop.chapter05.the.existing.world.Repositories.CustomerRepo;
+import dop.chapter05.the.existing.world.Repositories.InvoiceRepo;
+import dop.chapter05.the.existing.world.Services.ApprovalsAPI.Approval;
+import dop.chapter05.the.existing.world.Services.ApprovalsAPI.ApprovalStatus;
+import dop.chapter05.the.existing.world.Services.ContractsAPI.PaymentTerms;
+import dop.chapter05.the.existing.world.Services.RatingsAPI.CustomerRating;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjuster;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Currency;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.time.temporal.ChronoUnit.DAYS;
+import static java.time.temporal.TemporalAdjusters.lastDayOfMonth;
+
+/**
+ * NOTE!
+ * The listings in this chapter each carry just enough of the model
+ * to make their point, and most of the bodies are shims that
+ * return null so the examples compile.
+ *
+ * This file stitches the finished pieces from Listings 6.34 through
+ * 6.60 back together into a version that actually runs. The
+ * follow-on examples in this package (streaming, parallel, batched
+ * side effects) are all built on top of it.
+ */
+public class LateFees {
+
+  /**
+   * ───────────────────────────────────────────────────────
+   * The deterministic core
+   * ───────────────────────────────────────────────────────
+   * collectPastDue → buildDraft → assessDraft. Everything here
+   * depends only on its inputs (see the notes in Listing 6.30).
+   * ───────────────────────────────────────────────────────
+   */
+  static List<PastDue> collectPastDue(
+      EnrichedCustomer customer,
+      LocalDate today,
+      List<Invoice> invoices) {
+    return invoices.stream()
+        .filter(invoice -> isPastDue(invoice, customer.rating(), today))
+        .map(PastDue::new)
+        .toList();
+  }
+
+  static boolean isPastDue(Invoice invoice, CustomerRating rating, LocalDate today) {
+    return invoice.getInvoiceType().equals(InvoiceType.STANDARD)
+        && invoice.getStatus().equals(InvoiceStatus.OPEN)
+        && today.isAfter(invoice.getDueDate().with(gracePeriod.get(rating)));
+  }
+
+  static Map<CustomerRating, TemporalAdjuster> gracePeriod = Map.of(
+      CustomerRating.GOOD, date -> date.plus(60, DAYS),
+      CustomerRating.ACCEPTABLE, date -> date.plus(30, DAYS),
+      CustomerRating.POOR, TemporalAdjusters.lastDayOfMonth()
+  );
+
+  static LateFee<Draft> buildDraft(
+      LocalDate today,
+      EnrichedCustomer customer,
+      List<PastDue> invoices) {
+    return new LateFee<>(
+        new Draft(),
+        customer,
+        computeFee(invoices, customer.feePercentage()),
+        today,
+        dueDate(today, customer.terms()),
+        invoices
+    );
+  }
+
+  static USD computeFee(List<PastDue> pastDue, Percent percentage) {
+    return computeTotal(pastDue).multiply(percentage.decimalValue());
+  }
+
+  static USD computeTotal(List<PastDue> invoices) {
+    return invoices.stream().map(PastDue::invoice)
+        .flatMap(x -> x.getLineItems().stream())
+        .map(LineItem::getCharges)
+        .map(USD::new)
+        .reduce(USD.zero(), USD::add);
+  }
+
+  static LocalDate dueDate(LocalDate today, PaymentTerms terms) {
+    return switch (terms) {
+      case NET_30 -> today.plusDays(30);
+      case NET_60 -> today.plusDays(60);
+      case DUE_ON_RECEIPT -> today;
+      case END_OF_MONTH -> today.with(lastDayOfMonth());
+    };
+  }
+
+  static ReviewedFee assessDraft(Rules rules, LateFee<Draft> draft) {
+    BigDecimal total = draft.total().value();
+    if (total.compareTo(rules.minimumFeeThreshold()) < 0) {
+      return new NotBillable(draft, new Reason("Below minimum fee threshold"));
+    } else if (total.compareTo(rules.maximumFeeThreshold()) > 0) {
+      return draft.customer().approval().isEmpty()
+          ? new NeedsApproval(draft)
+          : switch (draft.customer().approval().get().status()) {
+              case APPROVED -> new Billable(draft);
+              case PENDING -> new NotBillable(draft, new Reason("Approval pending"));
+              case DENIED -> new NotBillable(draft, new Reason("Approval denied"));
+            };
+    } else {
+      return new Billable(draft);
+    }
+  }
+
+  /**
+   * The whole deterministic core for one customer in a single call.
+   */
+  static ReviewedFee assess(InvoicingData data) {
+    LocalDate today = data.currentDate();
+    EnrichedCustomer customer = data.customer();
+    List<PastDue> pastDue = collectPastDue(customer, today, data.invoices());
+    LateFee<Draft> draft = buildDraft(today, customer, pastDue);
+    return assessDraft(data.rules(), draft);
+  }
+
+
+  /**
+   * ───────────────────────────────────────────────────────
+   * The non-deterministic shell
+   * ───────────────────────────────────────────────────────
+   * Listing 6.60 with the shims filled in.
+   * ───────────────────────────────────────────────────────
+   */
+  static class LateFeeChargingService {
+    final ApprovalsAPI approvalsApi;
+    final BillingAPI billingApi;
+    final CustomerRepo customerRepo;
+    final InvoiceRepo invoiceRepo;
+    final CustomerStorageFacade customerFacade;
+    final RulesRepo rulesRepo;
+
+    LateFeeChargingService(
+        ApprovalsAPI approvalsApi,
+        BillingAPI billingApi,
+        CustomerRepo customerRepo,
+        InvoiceRepo invoiceRepo,
+        CustomerStorageFacade customerFacade,
+        RulesRepo rulesRepo) {
+      this.approvalsApi = approvalsApi;
+      this.billingApi = billingApi;
+      this.customerRepo = customerRepo;
+      this.invoiceRepo = invoiceRepo;
+      this.customerFacade = customerFacade;
+      this.rulesRepo = rulesRepo;
+    }
+
+    public void processLatefees() {
+      loadInvoicingData().forEach(data -> this.charge(assess(data)));
+    }
+
+    /**
+     * Everything that happens after the deterministic core
+     * has made its decision.
+     */
+    LateFee<? extends Lifecycle> charge(ReviewedFee reviewed) {
+      LateFee<? extends Lifecycle> latefee = settle(reviewed);
+      this.save(latefee);
+      return latefee;
+    }
+
+    LateFee<? extends Lifecycle> settle(ReviewedFee reviewed) {
+      return switch (reviewed) {
+        case Billable b -> this.submitBill(b);
+        case NeedsApproval a -> this.startApproval(a);
+        case NotBillable nb -> nb.latefee().markNotBilled(nb.reason());
+      };
+    }
+
+    public LateFee<? extends Lifecycle> submitBill(Billable billable) {
+      BillingResponse response = this.billingApi.submit(SubmitInvoiceRequest.of(billable.latefee()));
+      return switch (response.status()) {
+        case ACCEPTED ->
+            billable.latefee().markBilled(new InvoiceId(response.invoiceId()));
+        case REJECTED ->
+            billable.latefee().markNotBilled(new Reason(response.error()));
+      };
+    }
+
+    public LateFee<InReview> startApproval(NeedsApproval needsApproval) {
+      Approval approval = this.approvalsApi.createApproval(CreateApprovalRequest.of(needsApproval.latefee()));
+      return needsApproval.latefee().markAsBeingReviewed(approval.id());
+    }
+
+    void save(LateFee<? extends Lifecycle> latefee) {
+      invoiceRepo.save(toInvoice(latefee));
+      approvalUpdate(latefee).ifPresent(customerRepo::save);
+    }
+
+    Stream<InvoicingData> loadInvoicingData() {
+      LocalDate today = LocalDate.now();
+      Rules rules = rulesRepo.loadDefaults();
+      return customerFacade.findAll().map(customer ->
+          new InvoicingData(
+              today,
+              customer,
+              invoiceRepo.findInvoices(customer.id().value()),
+              rules
+          )
+      );
+    }
+  }
+
+  /**
+   * Fees that went out for review get their approval tracked
+   * back on the customer entity.
+   */
+  static Optional<Customer> approvalUpdate(LateFee<? extends Lifecycle> latefee) {
+    return latefee.state() instanceof InReview(String approvalId)
+        ? Optional.of(new Customer(
+            latefee.customer().id().value(),
+            latefee.customer().address(),
+            approvalId))
+        : Optional.empty();
+  }
+
+  static Invoice toInvoice(LateFee<? extends Lifecycle> latefee) {
+    Invoice invoice = new Invoice();
+    invoice.setInvoiceId(switch (latefee.state()) {
+      case Billed(var id) -> id.value();
+      default -> Invoice.tempId();
+    });
+    invoice.setCustomerId(latefee.customer().id().value());
+    invoice.setLineItems(List.of(new LineItem(
+        null,
+        "Late Fee",
+        latefee.total().value(),
+        Currency.getInstance("USD")
+    )));
+    invoice.setStatus(InvoiceStatus.OPEN);
+    invoice.setInvoiceDate(latefee.invoiceDate());
+    invoice.setDueDate(latefee.dueDate());
+    invoice.setInvoiceType(InvoiceType.LATEFEE);
+    invoice.setAuditInfo(new AuditInfo(
+        null,
+        latefee.includedInFee().stream().map(PastDue::invoice).toList(),
+        switch (latefee.state()) {
+          case Rejected(var why) -> why.value();
+          default -> null;
+        }
+    ));
+    return invoice;
+  }
+
+
+  interface ApprovalsAPI { Approval createApproval(CreateApprovalRequest request); }
+  interface BillingAPI { BillingResponse submit(SubmitInvoiceRequest request); }
+  interface CustomerStorageFacade { Stream<EnrichedCustomer> findAll(); }
+  interface RulesRepo { Rules loadDefaults(); }
+
+  record CreateApprovalRequest(CustomerId customerId, USD total) {
+    static CreateApprovalRequest of(LateFee<Draft> latefee) {
+      return new CreateApprovalRequest(latefee.customer().id(), latefee.total());
+    }
+  }
+  record SubmitInvoiceRequest(CustomerId customerId, USD total, LocalDate dueDate) {
+    static SubmitInvoiceRequest of(LateFee<Draft> latefee) {
+      return new SubmitInvoiceRequest(latefee.customer().id(), latefee.total(), latefee.dueDate());
+    }
+  }
+  enum BillingStatus {ACCEPTED, REJECTED}
+  record BillingResponse(BillingStatus status, String invoiceId, String error) {}
+
+  record InvoicingData(LocalDate currentDate, EnrichedCustomer customer, List<Invoice> invoices, Rules rules) {}
+  record Rules(BigDecimal minimumFeeThreshold, BigDecimal maximumFeeThreshold) {}
+  record EnrichedCustomer(
+      CustomerId id,
+      Address address,
+      Percent feePercentage,
+      PaymentTerms terms,
+      CustomerRating rating,
+      Optional<Approval> approval
+  ) {}
+  record CustomerId(String value) {}
+  record InvoiceId(String value) {}
+  record Reason(String value) {}
+  record Percent(BigDecimal decimalValue) {}
+  record PastDue(Invoice invoice) {}
+
+  record USD(BigDecimal value) {
+    static USD zero() { return new USD(BigDecimal.ZERO); }
+    USD add(USD other) { return new USD(this.value.add(other.value)); }
+    USD multiply(BigDecimal multiplier) { return new USD(this.value.multiply(multiplier)); }
+  }
+
+  sealed interface Lifecycle {}
+  record Draft() implements Lifecycle {}
+  record Billed(InvoiceId id) implements Lifecycle {}
+  record Rejected(Reason reason) implements Lifecycle {}
+  record InReview(String id) implements Lifecycle {}
+
+  record LateFee<State extends Lifecycle>(
+      State state,
+      EnrichedCustomer customer,
+      USD total,
+      LocalDate invoiceDate,
+      LocalDate dueDate,
+      List<PastDue> includedInFee
+  ) {
+    LateFee<Billed> markBilled(InvoiceId id) {
+      return withState(new Billed(id));
+    }
+    LateFee<Rejected> markNotBilled(Reason reason) {
+      return withState(new Rejected(reason));
+    }
+    LateFee<InReview> markAsBeingReviewed(String approvalId) {
+      return withState(new InReview(approvalId));
+    }
+    private <S extends Lifecycle> LateFee<S> withState(S next) {
+      return new LateFee<>(next, customer, total, invoiceDate, dueDate, includedInFee);
+    }
+  }
+
+  sealed interface ReviewedFee {}
+  record Billable(LateFee<Draft> latefee) implements ReviewedFee {}
+  record NeedsApproval(LateFee<Draft> latefee) implements ReviewedFee {}
+  record NotBillable(LateFee<Draft> latefee, Reason reason) implements ReviewedFee {}
+
+
+
+
+
+
+
+
+  /**
+   * A small in-memory stand-in for the outside world. Customers
+   * are generated on demand from their index, so a "run" over a
+   * few million of them costs nothing to set up. Every remote
+   * call and write is counted so the examples can compare how
+   * many round trips each approach needs.
+   */
+  static class FakeWorld {
+    final int numCustomers;
+    final Rules rules = new Rules(new BigDecimal("10.00"), new BigDecimal("500.00"));
+    final LongAdder billingCalls = new LongAdder();
+    final LongAdder approvalCalls = new LongAdder();
+    final LongAdder invoiceLookups = new LongAdder();
+    final Queue<Invoice> savedInvoices = new ConcurrentLinkedQueue<>();
+    final Queue<Customer> savedCustomers = new ConcurrentLinkedQueue<>();
+
+    FakeWorld(int numCustomers) {
+      this.numCustomers = numCustomers;
+    }
+
+    static int indexOf(CustomerId id) {
+      return Integer.parseInt(id.value().substring("customer-".length()));
+    }
+
+    EnrichedCustomer customer(int i) {
+      return new EnrichedCustomer(
+          new CustomerId("customer-" + i),
+          new Address(),
+          new Percent(new BigDecimal("0.05")),
+          PaymentTerms.values()[i % PaymentTerms.values().length],
+          CustomerRating.values()[i % CustomerRating.values().length],
+          i % 7 == 0 ? Optional.of(new Approval("approval-" + i, ApprovalStatus.APPROVED))
+              : i % 11 == 0 ? Optional.of(new Approval("approval-" + i, ApprovalStatus.PENDING))
+              : Optional.empty()
+      );
+    }
+
+    List<Invoice> invoices(int i) {
+      return IntStream.range(0, 1 + i % 3).mapToObj(n -> {
+        Invoice invoice = new Invoice();
+        invoice.setInvoiceId("invoice-" + i + "-" + n);
+        invoice.setCustomerId("customer-" + i);
+        invoice.setInvoiceType(InvoiceType.STANDARD);
+        invoice.setStatus(InvoiceStatus.OPEN);
+        invoice.setInvoiceDate(LocalDate.of(2024, 1, 1));
+        invoice.setDueDate(LocalDate.of(2024, 2, 1));
+        invoice.setLineItems(List.of(new LineItem(
+            null, "Widgets", BigDecimal.valueOf(50L * (i % 250)), Currency.getInstance("USD"))));
+        return invoice;
+      }).toList();
+    }
+
+    BillingResponse bill(SubmitInvoiceRequest request) {
+      int i = indexOf(request.customerId());
+      return i % 13 == 0
+          ? new BillingResponse(BillingStatus.REJECTED, null, "Account on hold")
+          : new BillingResponse(BillingStatus.ACCEPTED, "billed-" + i, null);
+    }
+
+    Approval approve(CreateApprovalRequest request) {
+      return new Approval("approval-" + indexOf(request.customerId()), ApprovalStatus.PENDING);
+    }
+
+    ApprovalsAPI approvalsApi() {
+      return request -> {
+        approvalCalls.increment();
+        return approve(request);
+      };
+    }
+
+    BillingAPI billingApi() {
+      return request -> {
+        billingCalls.increment();
+        return bill(request);
+      };
+    }
+
+    CustomerRepo customerRepo() {
+      return new CustomerRepo() {
+        public List<Customer> findAll() { throw new UnsupportedOperationException(); }
+        public void save(Customer customer) { savedCustomers.add(customer); }
+      };
+    }
+
+    InvoiceRepo invoiceRepo() {
+      return new InvoiceRepo() {
+        public void save(Invoice invoice) { savedInvoices.add(invoice); }
+        public List<Invoice> findInvoices(String customerId) {
+          invoiceLookups.increment();
+          return invoices(indexOf(new CustomerId(customerId)));
+        }
+      };
+    }
+
+    CustomerStorageFacade customerFacade() {
+      return () -> IntStream.range(0, numCustomers).mapToObj(this::customer);
+    }
+
+    RulesRepo rulesRepo() {
+      return () -> rules;
+    }
+
+    LateFeeChargingService service() {
+      return new LateFeeChargingService(
+          approvalsApi(), billingApi(), customerRepo(), invoiceRepo(), customerFacade(), rulesRepo());
+    }
+
+    /**
+     * What got written, keyed by customer, so runs that write
+     * in different orders can still be compared.
+     */
+    Map<String, String> outcomes() {
+      return savedInvoices.stream().collect(Collectors.toMap(
+          Invoice::getCustomerId,
+          invoice -> Invoice.isTempId(invoice.getInvoiceId())
+              ? "unbilled:" + invoice.getAuditInfo().getReason()
+              : invoice.getInvoiceId()));
+    }
+  }
+
+}
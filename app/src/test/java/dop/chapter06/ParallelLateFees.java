@@ -0,0 +1,309 @@
+package dop.chapter06;
+
+import dop.chapter05.the.existing.world.Entities.Invoice;
+import dop.chapter06.LateFees.FakeWorld;
+import dop.chapter06.LateFees.InvoicingData;
+import dop.chapter06.LateFees.LateFee;
+import dop.chapter06.LateFees.LateFeeChargingService;
+import dop.chapter06.LateFees.Lifecycle;
+import dop.chapter06.LateFees.ReviewedFee;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ParallelLateFees {
+
+  /**
+   * ───────────────────────────────────────────────────────
+   * Running the deterministic core across every core
+   * ───────────────────────────────────────────────────────
+   * The notes in Listing 6.30 show that collectPastDue, buildDraft,
+   * and assessDraft depend on nothing but their inputs. That's
+   * exactly the property that makes them safe to run in parallel.
+   * There's no shared state to guard, and no ordering between
+   * customers that could change the answer.
+   *
+   * This mode pulls customers in windows, hands each window to a
+   * work-stealing ForkJoinPool which splits it down into small
+   * chunks, and writes each decision back into the slot matching
+   * its input. The side effects then walk that window in order.
+   * So, submitBill, startApproval, and save see customers in the
+   * exact same order as the sequential version no matter how the
+   * pool happened to schedule things.
+   *
+   *   load w0 ─► fork core(w0)
+   *   load w1 ─► fork core(w1) ─► join core(w0) ─► charge w0
+   *   load w2 ─► fork core(w2) ─► join core(w1) ─► charge w1
+   *   ...
+   *
+   * While one window is being charged, the next is already being
+   * assessed. At most two windows are ever held in memory.
+   *
+   * Each run ends by printing how many items went through each
+   * stage, and how fast, to the service's report stream.
+   * ───────────────────────────────────────────────────────
+   */
+  static class ParallelLateFeeChargingService {
+    private static final int LEAF_SIZE = 32;
+
+    private final LateFeeChargingService service;
+    private final ForkJoinPool pool;
+    private final int windowSize;
+    private final PrintStream report;
+
+    ParallelLateFeeChargingService(LateFeeChargingService service, ForkJoinPool pool, int windowSize) {
+      this(service, pool, windowSize, System.out);
+    }
+
+    ParallelLateFeeChargingService(LateFeeChargingService service, ForkJoinPool pool, int windowSize, PrintStream report) {
+      if (windowSize < 1) {
+        throw new IllegalArgumentException("windowSize must be at least 1");
+      }
+      this.service = service;
+      this.pool = pool;
+      this.windowSize = windowSize;
+      this.report = report;
+    }
+
+    public RunSummary processLatefees() {
+      Stage load = new Stage("load");
+      Stage core = new Stage("assess");
+      Stage charge = new Stage("charge");
+      long start = System.nanoTime();
+
+      Window previous = null;
+      Window next = null;
+      try (Stream<InvoicingData> data = service.loadInvoicingData()) {
+        Iterator<InvoicingData> it = data.iterator();
+        while (true) {
+          next = nextWindow(it, load, core);
+          if (previous != null) {
+            chargeInOrder(previous, charge);
+          }
+          if (next == null) {
+            break;
+          }
+          previous = next;
+        }
+      } catch (Throwable e) {
+        // Nothing is ever going to charge a window that's still being
+        // assessed, so don't leave the pool busy with it.
+        cancel(previous);
+        cancel(next);
+        throw e;
+      }
+
+      RunSummary summary = new RunSummary(
+          List.of(load.throughput(), core.throughput(), charge.throughput()),
+          Duration.ofNanos(System.nanoTime() - start),
+          pool.getParallelism());
+      report.print(summary);
+      return summary;
+    }
+
+    private static void cancel(Window window) {
+      if (window != null) {
+        window.assessed().cancel(true);
+      }
+    }
+
+    private Window nextWindow(Iterator<InvoicingData> it, Stage load, Stage core) {
+      long start = System.nanoTime();
+      List<InvoicingData> items = new ArrayList<>(windowSize);
+      while (items.size() < windowSize && it.hasNext()) {
+        items.add(it.next());
+      }
+      load.record(items.size(), System.nanoTime() - start);
+      if (items.isEmpty()) {
+        return null;
+      }
+      InvoicingData[] inputs = items.toArray(InvoicingData[]::new);
+      ReviewedFee[] outputs = new ReviewedFee[inputs.length];
+      //               ┌── fire and forget. We don't wait on it
+      //               ▼   until it's this window's turn to be charged.
+      return new Window(pool.submit(new Assess(inputs, outputs, 0, inputs.length, core)), outputs);
+    }
+
+    private void chargeInOrder(Window window, Stage charge) {
+      window.assessed().join();
+      long start = System.nanoTime();
+      for (ReviewedFee fee : window.decisions()) {
+        service.charge(fee);
+      }
+      charge.record(window.decisions().length, System.nanoTime() - start);
+    }
+  }
+
+  record Window(ForkJoinTask<Void> assessed, ReviewedFee[] decisions) {}
+
+  /**
+   * Splits a window in half until the pieces are small enough to be
+   * worth running directly. Every result lands at the same index as
+   * its input, which is what keeps the output order deterministic.
+   */
+  static class Assess extends RecursiveAction {
+    private final InvoicingData[] inputs;
+    private final ReviewedFee[] outputs;
+    private final int from;
+    private final int to;
+    private final Stage stage;
+
+    Assess(InvoicingData[] inputs, ReviewedFee[] outputs, int from, int to, Stage stage) {
+      this.inputs = inputs;
+      this.outputs = outputs;
+      this.from = from;
+      this.to = to;
+      this.stage = stage;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= ParallelLateFeeChargingService.LEAF_SIZE) {
+        long start = System.nanoTime();
+        for (int i = from; i < to; i++) {
+          outputs[i] = LateFees.assess(inputs[i]);
+        }
+        stage.record(to - from, System.nanoTime() - start);
+      } else {
+        int mid = (from + to) >>> 1;
+        invokeAll(
+            new Assess(inputs, outputs, from, mid, stage),
+            new Assess(inputs, outputs, mid, to, stage));
+      }
+    }
+  }
+
+  /**
+   * Tracks how many items went through a stage and how much
+   * time was spent doing it, summed across every thread that
+   * did the work.
+   */
+  static class Stage {
+    private final String name;
+    private final LongAdder items = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+
+    Stage(String name) {
+      this.name = name;
+    }
+
+    void record(long count, long nanos) {
+      items.add(count);
+      busyNanos.add(nanos);
+    }
+
+    StageThroughput throughput() {
+      return new StageThroughput(name, items.sum(), Duration.ofNanos(busyNanos.sum()));
+    }
+  }
+
+  record StageThroughput(String stage, long items, Duration busy) {
+    /** Items per second of time spent in this stage by a single thread. */
+    double perThreadPerSecond() {
+      return busy.isZero() ? 0 : items / (busy.toNanos() / 1e9);
+    }
+  }
+
+  record RunSummary(List<StageThroughput> stages, Duration wall, int parallelism) {
+    double overallPerSecond() {
+      long processed = stages.getLast().items();
+      return wall.isZero() ? 0 : processed / (wall.toNanos() / 1e9);
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder out = new StringBuilder(format(
+          "late fee run: %,d customers in %d ms on %d workers (%,.0f/s overall)%n",
+          stages.getLast().items(), wall.toMillis(), parallelism, overallPerSecond()));
+      for (StageThroughput stage : stages) {
+        out.append(format("  %-7s %,12d items  %,10d ms busy  %,14.0f items/s per thread%n",
+            stage.stage(), stage.items(), stage.busy().toMillis(), stage.perThreadPerSecond()));
+      }
+      return out.toString();
+    }
+  }
+
+
+  @Test
+  void sideEffectsHappenInTheSameOrderAsTheSequentialVersion() {
+    FakeWorld sequential = new FakeWorld(20_000);
+    sequential.service().processLatefees();
+
+    FakeWorld parallel = new FakeWorld(20_000);
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      new ParallelLateFeeChargingService(parallel.service(), pool, 1_000, quiet()).processLatefees();
+    } finally {
+      pool.shutdown();
+    }
+
+    assertEquals(
+        sequential.savedInvoices.stream().map(Invoice::getCustomerId).toList(),
+        parallel.savedInvoices.stream().map(Invoice::getCustomerId).toList());
+    assertEquals(sequential.outcomes(), parallel.outcomes());
+  }
+
+  @Test
+  void reportsThroughputForEveryStage() {
+    FakeWorld world = new FakeWorld(5_000);
+    ByteArrayOutputStream printed = new ByteArrayOutputStream();
+    RunSummary summary = new ParallelLateFeeChargingService(
+        world.service(), ForkJoinPool.commonPool(), 256, new PrintStream(printed, true, UTF_8)
+    ).processLatefees();
+
+    assertEquals(List.of("load", "assess", "charge"),
+        summary.stages().stream().map(StageThroughput::stage).toList());
+    summary.stages().forEach(stage -> assertEquals(5_000, stage.items()));
+
+    List<String> lines = printed.toString(UTF_8).lines().toList();
+    assertEquals(summary.toString().lines().toList(), lines);
+    assertEquals(4, lines.size());
+    assertTrue(lines.get(0).matches(
+        "late fee run: 5.000 customers in \\d+ ms on \\d+ workers \\(.+/s overall\\)"), lines.get(0));
+    for (int i = 1; i < lines.size(); i++) {
+      assertTrue(lines.get(i).matches(
+          "  (load|assess|charge) +5.000 items +.+ ms busy +.+ items/s per thread"), lines.get(i));
+    }
+  }
+
+  @Test
+  void aFailedChargeEndsTheRun() {
+    FakeWorld world = new FakeWorld(5_000);
+    LateFeeChargingService real = world.service();
+    LateFeeChargingService failing = new LateFeeChargingService(
+        real.approvalsApi, real.billingApi, real.customerRepo, real.invoiceRepo, real.customerFacade, real.rulesRepo) {
+      @Override
+      LateFee<? extends Lifecycle> charge(ReviewedFee reviewed) {
+        throw new IllegalStateException("Billing is down");
+      }
+    };
+    ByteArrayOutputStream printed = new ByteArrayOutputStream();
+
+    assertThrows(IllegalStateException.class, () -> new ParallelLateFeeChargingService(
+        failing, ForkJoinPool.commonPool(), 256, new PrintStream(printed, true, UTF_8)).processLatefees());
+    assertEquals(0, world.savedInvoices.size());
+    assertEquals("", printed.toString(UTF_8));
+  }
+
+  private static PrintStream quiet() {
+    return new PrintStream(OutputStream.nullOutputStream());
+  }
+
+}
@@ -0,0 +1,266 @@
+package dop.chapter06;
+
+import dop.chapter05.the.existing.world.Entities.Invoice;
+import dop.chapter05.the.existing.world.Repositories.InvoiceRepo;
+import dop.chapter06.LateFees.FakeWorld;
+import dop.chapter06.LateFees.InvoicingData;
+import dop.chapter06.LateFees.LateFeeChargingService;
+import dop.chapter06.LateFees.ReviewedFee;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StreamingLateFees {
+
+  /**
+   * ───────────────────────────────────────────────────────
+   * A streaming, backpressured late fee pipeline
+   * ───────────────────────────────────────────────────────
+   * Listing 6.54 draws processLatefees as three layers: load the
+   * data, run it through the deterministic core, then perform the
+   * side effects. Those layers make natural pipeline stages.
+   *
+   *   [load] ──► buffer ──► [core × N] ──► buffer ──► [side effects]
+   *
+   * Each buffer is bounded. When a downstream stage falls behind,
+   * the upstream one blocks rather than piling up work in memory.
+   * At most `loadBuffer + chargeBuffer + coreWorkers` customers
+   * are in flight at once, so peak heap stays the same whether the
+   * run covers ten customers or ten million.
+   *
+   * Only the core runs on many threads. It's deterministic and
+   * depends only on its inputs (Listing 6.30), so it is free to
+   * run anywhere. The side effects stay on a single thread, just
+   * like they did in the original. Note that this means fees are
+   * charged in whatever order the core workers finish them.
+   * ───────────────────────────────────────────────────────
+   */
+  static class StreamingLateFeeChargingService {
+    private final LateFeeChargingService service;
+    private final Settings settings;
+
+    StreamingLateFeeChargingService(LateFeeChargingService service, Settings settings) {
+      this.service = service;
+      this.settings = settings;
+    }
+
+    record Settings(int loadBuffer, int chargeBuffer, int coreWorkers) {
+      Settings {
+        if (loadBuffer < 1 || chargeBuffer < 1 || coreWorkers < 1) {
+          throw new IllegalArgumentException("Buffers and workers must all be at least 1");
+        }
+      }
+      static Settings defaults() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return new Settings(cores * 64, cores * 64, cores);
+      }
+    }
+
+    public void processLatefees() {
+      BlockingQueue<Signal<InvoicingData>> loaded = new ArrayBlockingQueue<>(settings.loadBuffer());
+      BlockingQueue<Signal<ReviewedFee>> reviewed = new ArrayBlockingQueue<>(settings.chargeBuffer());
+      ExecutorService executor = Executors.newFixedThreadPool(settings.coreWorkers() + 1);
+      try {
+        executor.submit(() -> load(loaded));
+        for (int i = 0; i < settings.coreWorkers(); i++) {
+          executor.submit(() -> assess(loaded, reviewed));
+        }
+        charge(reviewed);
+      } finally {
+        // On the happy path everyone has already finished. On a failure,
+        // this interrupts whichever stages are still blocked on a buffer.
+        executor.shutdownNow();
+      }
+    }
+
+    // ┌──────────────────────── stage 1: load ────────────────────────┐
+    private void load(BlockingQueue<Signal<InvoicingData>> out) {
+      forwarding(out, () -> {
+        try (Stream<InvoicingData> data = service.loadInvoicingData()) {
+          Iterator<InvoicingData> it = data.iterator();
+          while (it.hasNext()) {
+            out.put(new Signal.Next<>(it.next()));
+          }
+        }
+        for (int i = 0; i < settings.coreWorkers(); i++) {
+          out.put(new Signal.Done<>());  // ◄── one for each core worker
+        }
+      });
+    }
+
+    // ┌──────────────────── stage 2: the pure core ───────────────────┐
+    private void assess(BlockingQueue<Signal<InvoicingData>> in, BlockingQueue<Signal<ReviewedFee>> out) {
+      forwarding(out, () -> {
+        while (true) {
+          switch (in.take()) {
+            case Signal.Next<InvoicingData>(var data) -> out.put(new Signal.Next<>(LateFees.assess(data)));
+            case Signal.Done<InvoicingData> done -> {
+              out.put(new Signal.Done<>());
+              return;
+            }
+            case Signal.Failed<InvoicingData>(var error) -> {
+              out.put(new Signal.Failed<>(error));
+              return;
+            }
+          }
+        }
+      });
+    }
+
+    // ┌─────────────────── stage 3: side effects ─────────────────────┐
+    private void charge(BlockingQueue<Signal<ReviewedFee>> in) {
+      int running = settings.coreWorkers();
+      while (running > 0) {
+        switch (take(in)) {
+          case Signal.Next<ReviewedFee>(var fee) -> service.charge(fee);
+          case Signal.Done<ReviewedFee> done -> running--;
+          case Signal.Failed<ReviewedFee>(var error) -> throw rethrow(error);
+        }
+      }
+    }
+
+    /**
+     * Runs a stage, and if it blows up (with anything at all, Errors
+     * included), hands the failure to the next stage rather than
+     * leaving it waiting on a buffer that will never be filled.
+     */
+    private static <A> void forwarding(BlockingQueue<Signal<A>> out, Stage stage) {
+      try {
+        stage.run();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (Throwable e) {
+        try {
+          out.put(new Signal.Failed<>(e));
+        } catch (InterruptedException interrupted) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+
+    private static RuntimeException rethrow(Throwable error) {
+      if (error instanceof Error e) throw e;
+      if (error instanceof RuntimeException e) return e;
+      return new IllegalStateException(error);
+    }
+
+    private static <A> Signal<A> take(BlockingQueue<Signal<A>> in) {
+      try {
+        return in.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting on the pipeline", e);
+      }
+    }
+  }
+
+  interface Stage {
+    void run() throws InterruptedException;
+  }
+
+  /**
+   * What flows through the buffers between stages.
+   */
+  sealed interface Signal<A> {
+    record Next<A>(A value) implements Signal<A> {}
+    record Done<A>() implements Signal<A> {}
+    record Failed<A>(Throwable error) implements Signal<A> {}
+  }
+
+
+  @Test
+  void chargesTheSameFeesAsTheSequentialService() {
+    FakeWorld sequential = new FakeWorld(5_000);
+    sequential.service().processLatefees();
+
+    FakeWorld streaming = new FakeWorld(5_000);
+    new StreamingLateFeeChargingService(streaming.service(), new StreamingLateFeeChargingService.Settings(16, 16, 4))
+        .processLatefees();
+
+    assertEquals(5_000, streaming.savedInvoices.size());
+    assertEquals(sequential.outcomes(), streaming.outcomes());
+    assertEquals(sequential.savedCustomers.size(), streaming.savedCustomers.size());
+  }
+
+  @Test
+  void theNumberOfCustomersInFlightIsBoundedByTheBuffers() {
+    // We count customers as they're pulled from storage and again
+    // as they're written back out. The difference is everything
+    // the pipeline is holding in memory at that moment.
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger peak = new AtomicInteger();
+    FakeWorld world = new FakeWorld(50_000);
+    LateFeeChargingService service = new LateFeeChargingService(
+        world.approvalsApi(),
+        world.billingApi(),
+        world.customerRepo(),
+        new InvoiceRepo() {
+          public void save(Invoice invoice) {
+            world.invoiceRepo().save(invoice);
+            inFlight.decrementAndGet();
+          }
+          public List<Invoice> findInvoices(String customerId) {
+            return world.invoiceRepo().findInvoices(customerId);
+          }
+        },
+        () -> world.customerFacade().findAll()
+            .peek(__ -> peak.accumulateAndGet(inFlight.incrementAndGet(), Math::max)),
+        world.rulesRepo());
+
+    var settings = new StreamingLateFeeChargingService.Settings(8, 8, 4);
+    new StreamingLateFeeChargingService(service, settings).processLatefees();
+
+    assertEquals(50_000, world.savedInvoices.size());
+    // buffers + one item held by each worker + one each in the loader and the charger
+    int bound = settings.loadBuffer() + settings.chargeBuffer() + settings.coreWorkers() + 2;
+    assertTrue(peak.get() <= bound, "peak in flight was " + peak.get() + ", bound is " + bound);
+  }
+
+  @Test
+  void failuresInAnyStageStopThePipeline() {
+    FakeWorld world = new FakeWorld(10_000);
+    IllegalStateException boom = new IllegalStateException("billing is down");
+    LateFeeChargingService service = new LateFeeChargingService(
+        world.approvalsApi(),
+        request -> { throw boom; },
+        world.customerRepo(),
+        world.invoiceRepo(),
+        world.customerFacade(),
+        world.rulesRepo());
+
+    var pipeline = new StreamingLateFeeChargingService(service, new StreamingLateFeeChargingService.Settings(4, 4, 2));
+    assertSame(boom, assertThrows(IllegalStateException.class, pipeline::processLatefees));
+  }
+
+  @Test
+  void errorsAreForwardedToo() {
+    FakeWorld world = new FakeWorld(10_000);
+    Error boom = new Error("the loader fell over");
+    LateFeeChargingService service = new LateFeeChargingService(
+        world.approvalsApi(),
+        world.billingApi(),
+        world.customerRepo(),
+        world.invoiceRepo(),
+        () -> world.customerFacade().findAll().peek(customer -> { throw boom; }),
+        world.rulesRepo());
+
+    var pipeline = new StreamingLateFeeChargingService(service, new StreamingLateFeeChargingService.Settings(4, 4, 2));
+    assertSame(boom, assertTimeoutPreemptively(Duration.ofSeconds(30),
+        () -> assertThrows(Error.class, pipeline::processLatefees)));
+  }
+
+}
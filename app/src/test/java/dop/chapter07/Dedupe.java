@@ -0,0 +1,155 @@
+package dop.chapter07;
+
+import dop.chapter07.Listing7_61.AuditFinding;
+import dop.chapter07.Listing7_61.CustomerImpact;
+import dop.chapter07.Listing7_61.Policy;
+import dop.chapter07.Listing7_61.RawData;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.BinaryOperator;
+
+import static java.util.Comparator.comparing;
+import static java.util.function.BinaryOperator.maxBy;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * ───────────────────────────────────────────────────────
+ * A runnable version of Listing 7.61
+ * ───────────────────────────────────────────────────────
+ * Listing 7.61 shows the whole thing, but it leans on stubs
+ * (withOptional, toMap, the impact functions) so that it compiles
+ * on its own. This wires it up to the real implementations from
+ * earlier in the chapter so that there's something we can actually
+ * run, test, and measure.
+ *
+ *   impacts      ◄── Listing 7.01
+ *   lift         ◄── Listing 7.57
+ *   withOptional ◄── Listing 7.60
+ *   toMap        ◄── Listing 7.17
+ * ───────────────────────────────────────────────────────
+ */
+public class Dedupe {
+
+  static CustomerImpact policyImpact(Policy policy) {
+    return switch (policy) {
+      case GRACE_PERIOD, FLEXIBLE -> CustomerImpact.FAVORS;
+      default -> CustomerImpact.HARMS;
+    };
+  }
+
+  static CustomerImpact findingsImpact(AuditFinding finding) {
+    return switch (finding) {
+      case NO_ISSUE, INACCURATE -> CustomerImpact.FAVORS;
+      default -> CustomerImpact.HARMS;
+    };
+  }
+
+  static <A> BinaryOperator<Optional<A>> withOptional(BinaryOperator<A> operator) {
+    return (opt1, opt2) -> Listing7_57.lift(operator).apply(opt1, opt2)
+        .or(() -> opt1.isPresent() ? opt1 : opt2);
+  }
+
+  static final Comparator<Policy> policyOrder =
+      comparing(Dedupe::policyImpact).thenComparing(Policy::name);
+
+  static final Comparator<AuditFinding> findingOrder =
+      comparing(Dedupe::findingsImpact).thenComparing(AuditFinding::name);
+
+  static final BinaryOperator<Optional<Policy>> addPolicies =
+      withOptional(maxBy(policyOrder));
+
+  static final BinaryOperator<Optional<AuditFinding>> addFindings =
+      withOptional(maxBy(findingOrder));
+
+  static final BinaryOperator<Optional<Boolean>> addStatuses =
+      withOptional(Boolean::logicalOr);
+
+  static RawData merge(RawData x, RawData y) {
+    if (!x.id().equals(y.id())) {
+      throw new IllegalArgumentException(
+          "Only rows with the same id can be merged, but got " + x.id() + " and " + y.id());
+    }
+    return new RawData(
+        x.id(),
+        addPolicies.apply(x.policy(), y.policy()),
+        addFindings.apply(x.findings(), y.findings()),
+        addStatuses.apply(x.isPremium(), y.isPremium())
+    );
+  }
+
+  static List<RawData> cleanDuplicates(List<RawData> rows) {
+    return List.copyOf(Listing7_17.toMap(rows, RawData::id, Dedupe::merge).values());
+  }
+
+  /**
+   * Listing 7.26's every possible state, for Listing 7.61's RawData.
+   */
+  static Set<RawData> everyPossibleRow() {
+    Set<RawData> output = new HashSet<>();
+    for (var policy : Listing7_26.everyOptionalValue(Policy.values())) {
+      for (var finding : Listing7_26.everyOptionalValue(AuditFinding.values())) {
+        for (var premium : Listing7_26.everyOptionalValue(true, false)) {
+          output.add(new RawData("FixedCustomerId", policy, finding, premium));
+        }
+      }
+    }
+    return output;
+  }
+
+  /**
+   * Rows shaped like the audit exports in the chapter: every id shows
+   * up `duplicates` times on average, and each field is independently
+   * missing about a third of the time.
+   */
+  static List<RawData> randomRows(Random random, int rows, int duplicates) {
+    int ids = Math.max(1, rows / duplicates);
+    List<RawData> data = new ArrayList<>(rows);
+    for (int i = 0; i < rows; i++) {
+      data.add(new RawData(
+          "customer-" + random.nextInt(ids),
+          maybe(random, Policy.values()[random.nextInt(Policy.values().length)]),
+          maybe(random, AuditFinding.values()[random.nextInt(AuditFinding.values().length)]),
+          maybe(random, random.nextBoolean())));
+    }
+    return data;
+  }
+
+  private static <A> Optional<A> maybe(Random random, A value) {
+    return random.nextInt(3) == 0 ? Optional.empty() : Optional.of(value);
+  }
+
+
+  @Test
+  void mergeKeepsWhateverIsMostFavorableToTheCustomer() {
+    RawData a = new RawData("1", Optional.of(Policy.STRICT), Optional.empty(), Optional.of(false));
+    RawData b = new RawData("1", Optional.of(Policy.GRACE_PERIOD), Optional.of(AuditFinding.BILLING_ERROR), Optional.empty());
+    RawData expected = new RawData("1", Optional.of(Policy.GRACE_PERIOD), Optional.of(AuditFinding.BILLING_ERROR), Optional.of(false));
+
+    assertEquals(expected, merge(a, b));
+    assertEquals(expected, merge(b, a));
+    assertThrows(IllegalArgumentException.class, () -> merge(a, new RawData("2", Optional.empty(), Optional.empty(), Optional.empty())));
+  }
+
+  @Test
+  void cleanDuplicatesLeavesOneRowPerId() {
+    List<RawData> rows = List.of(
+        new RawData("1", Optional.of(Policy.STRICT), Optional.empty(), Optional.empty()),
+        new RawData("2", Optional.empty(), Optional.of(AuditFinding.NO_ISSUE), Optional.empty()),
+        new RawData("1", Optional.of(Policy.FLEXIBLE), Optional.empty(), Optional.of(true)));
+
+    assertEquals(
+        List.of(
+            new RawData("1", Optional.of(Policy.FLEXIBLE), Optional.empty(), Optional.of(true)),
+            new RawData("2", Optional.empty(), Optional.of(AuditFinding.NO_ISSUE), Optional.empty())),
+        cleanDuplicates(rows).stream().sorted(comparing(RawData::id)).toList());
+  }
+
+}
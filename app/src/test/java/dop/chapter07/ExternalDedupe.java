@@ -0,0 +1,412 @@
+package dop.chapter07;
+
+import dop.chapter07.Listing7_61.AuditFinding;
+import dop.chapter07.Listing7_61.Policy;
+import dop.chapter07.Listing7_61.RawData;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * ───────────────────────────────────────────────────────
+ * Cleaning duplicates bigger than memory
+ * ───────────────────────────────────────────────────────
+ * Dedupe and ParallelDedupe both keep a map with every id in it.
+ * When the extract doesn't fit in memory, we can sort it instead.
+ * Once the rows are sorted by id, all the duplicates sit next to
+ * each other, and merging them only ever needs the current group.
+ *
+ *   1. Read up to `maxRowsInMemory` rows, sort them by id, merge
+ *      neighbours with equal ids, and spill the result to a file
+ *      (a "run"). Repeat until the input is used up.
+ *
+ *   2. Merge the runs k at a time. Each run is already sorted, so
+ *      we only need its next row in memory. A priority queue picks
+ *      the smallest id across all of them, and rows with the same id
+ *      get merged as they come out. If there are more than k runs,
+ *      the merged output becomes a new, longer run, and we go again.
+ *
+ * So memory is set by the budget, not by the input. The budget is
+ * counted in rows, plus the file buffers, which it doesn't include:
+ *
+ *   reading   maxRowsInMemory rows, and one BUFFER_BYTES write buffer
+ *   merging   fanIn × (one row + one BUFFER_BYTES read buffer),
+ *             and one BUFFER_BYTES write buffer
+ *
+ * With the defaults that's 64 × 8 KB, about half a megabyte, for the
+ * merge buffers, on top of whatever `maxRowsInMemory` rows take.
+ *
+ * The sort is stable and, for equal ids, the queue always prefers the
+ * run which came from earlier in the input. So each id's rows are
+ * merged in exactly the order they appeared, the same as the one
+ * pass in ParallelDedupe.sequential. Only the order of the output
+ * differs: it comes out sorted by id.
+ * ───────────────────────────────────────────────────────
+ */
+public class ExternalDedupe {
+
+  static final int DEFAULT_FAN_IN = 64;
+  static final int BUFFER_BYTES = 8 * 1024;
+
+  static void cleanDuplicates(Iterator<RawData> rows, Consumer<RawData> out, int maxRowsInMemory, Path workDir) throws IOException {
+    cleanDuplicates(rows, out, maxRowsInMemory, DEFAULT_FAN_IN, workDir);
+  }
+
+  static void cleanDuplicates(Iterator<RawData> rows, Consumer<RawData> out, int maxRowsInMemory, int fanIn, Path workDir) throws IOException {
+    if (maxRowsInMemory < 1 || fanIn < 2) {
+      throw new IllegalArgumentException("Need room for at least one row, and to merge at least two runs at once");
+    }
+    List<Path> created = new ArrayList<>();   // ◄── every file we make, so none outlive a failure
+    try {
+      List<Path> runs = new ArrayList<>();
+      List<RawData> buffer = new ArrayList<>(maxRowsInMemory);
+      while (rows.hasNext()) {
+        buffer.add(rows.next());
+        if (buffer.size() == maxRowsInMemory || !rows.hasNext()) {
+          Path run = newRun(workDir, created);
+          spill(buffer, run);
+          runs.add(run);
+          buffer.clear();
+        }
+      }
+      while (runs.size() > fanIn) {
+        List<Path> merged = new ArrayList<>();
+        for (int i = 0; i < runs.size(); i += fanIn) {
+          List<Path> group = runs.subList(i, Math.min(runs.size(), i + fanIn));
+          Path run = newRun(workDir, created);
+          try (RunWriter writer = new RunWriter(run)) {
+            mergeRuns(group, writer::write);
+          }
+          deleteAll(group);
+          merged.add(run);
+        }
+        runs = merged;
+      }
+      mergeRuns(runs, out);
+    } catch (Throwable e) {
+      // The real failure is the one worth reporting, even if cleaning
+      // up after it fails too.
+      try {
+        deleteAll(created);
+      } catch (IOException cleanup) {
+        e.addSuppressed(cleanup);
+      }
+      throw e;
+    }
+    deleteAll(created);
+  }
+
+  /**
+   * Reads rows from one file and writes the clean rows to another,
+   * both in the run format below.
+   */
+  static void cleanDuplicates(Path input, Path output, int maxRowsInMemory, Path workDir) throws IOException {
+    try (RunReader reader = new RunReader(input, 0); RunWriter writer = new RunWriter(output)) {
+      cleanDuplicates(reader, writer::write, maxRowsInMemory, workDir);
+    }
+  }
+
+  private static Path newRun(Path workDir, List<Path> created) throws IOException {
+    Path run = Files.createTempFile(workDir, "run", ".bin");
+    created.add(run);
+    return run;
+  }
+
+  private static void spill(List<RawData> buffer, Path run) throws IOException {
+    buffer.sort(Comparator.comparing(RawData::id));   // ◄── stable, so equal ids keep their input order
+    try (RunWriter writer = new RunWriter(run)) {
+      RawData pending = null;
+      for (RawData row : buffer) {
+        if (pending != null && pending.id().equals(row.id())) {
+          pending = Dedupe.merge(pending, row);
+        } else {
+          if (pending != null) writer.write(pending);
+          pending = row;
+        }
+      }
+      if (pending != null) writer.write(pending);
+    }
+  }
+
+  private static void mergeRuns(List<Path> runs, Consumer<RawData> out) throws IOException {
+    PriorityQueue<RunReader> queue = new PriorityQueue<>(
+        Comparator.comparing((RunReader reader) -> reader.peek().id()).thenComparingInt(reader -> reader.order));
+    List<RunReader> readers = new ArrayList<>();
+    try {
+      for (int i = 0; i < runs.size(); i++) {
+        RunReader reader = new RunReader(runs.get(i), i);
+        readers.add(reader);
+        if (reader.hasNext()) queue.add(reader);
+      }
+      RawData pending = null;
+      while (!queue.isEmpty()) {
+        RunReader reader = queue.poll();
+        RawData row = reader.next();
+        if (reader.hasNext()) queue.add(reader);
+
+        if (pending != null && pending.id().equals(row.id())) {
+          pending = Dedupe.merge(pending, row);
+        } else {
+          if (pending != null) out.accept(pending);
+          pending = row;
+        }
+      }
+      if (pending != null) out.accept(pending);
+    } finally {
+      for (RunReader reader : readers) reader.close();
+    }
+  }
+
+  /**
+   * Tries every file, even when one of them can't be deleted.
+   */
+  private static void deleteAll(List<Path> files) throws IOException {
+    IOException failure = null;
+    for (Path file : files) {
+      try {
+        Files.deleteIfExists(file);
+      } catch (IOException e) {
+        if (failure == null) failure = e;
+        else failure.addSuppressed(e);
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+
+  /**
+   * ───────────────────────────────────────────────────────
+   * The run format
+   * ───────────────────────────────────────────────────────
+   * Each row is a marker byte (1), the id as UTF, and then one byte
+   * per optional field: 0 when it's missing, otherwise the enum's
+   * ordinal + 1 (or 1/2 for false/true). A 0 marker ends the file.
+   * ───────────────────────────────────────────────────────
+   */
+  static class RunWriter implements Closeable {
+    private final DataOutputStream out;
+
+    RunWriter(Path file) throws IOException {
+      this(Files.newOutputStream(file));
+    }
+
+    /**
+     * Writes the run from wherever `out` is now. Closing the writer
+     * closes `out`.
+     */
+    RunWriter(OutputStream out) {
+      this.out = new DataOutputStream(new BufferedOutputStream(out, BUFFER_BYTES));
+    }
+
+    void write(RawData row) {
+      try {
+        out.writeByte(1);
+        out.writeUTF(row.id());
+        out.writeByte(row.policy().map(policy -> policy.ordinal() + 1).orElse(0));
+        out.writeByte(row.findings().map(finding -> finding.ordinal() + 1).orElse(0));
+        out.writeByte(row.isPremium().map(premium -> premium ? 2 : 1).orElse(0));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        out.writeByte(0);
+      } finally {
+        out.close();
+      }
+    }
+  }
+
+  static class RunReader implements Iterator<RawData>, Closeable {
+    private static final Policy[] POLICIES = Policy.values();
+    private static final AuditFinding[] FINDINGS = AuditFinding.values();
+
+    private final DataInputStream in;
+    private final int order;
+    private RawData next;
+
+    RunReader(Path file, int order) throws IOException {
+      this(Files.newInputStream(file), order);
+    }
+
+    /**
+     * Reads the run from wherever `in` is now. Closing the reader
+     * closes `in`.
+     */
+    RunReader(InputStream in, int order) throws IOException {
+      this.in = new DataInputStream(new BufferedInputStream(in, BUFFER_BYTES));
+      this.order = order;
+      this.next = read();
+    }
+
+    private RawData read() throws IOException {
+      if (in.readByte() == 0) {
+        return null;
+      }
+      String id = in.readUTF();
+      int policy = in.readUnsignedByte();
+      int finding = in.readUnsignedByte();
+      int premium = in.readUnsignedByte();
+      return new RawData(
+          id,
+          policy == 0 ? Optional.empty() : Optional.of(POLICIES[policy - 1]),
+          finding == 0 ? Optional.empty() : Optional.of(FINDINGS[finding - 1]),
+          premium == 0 ? Optional.empty() : Optional.of(premium == 2));
+    }
+
+    RawData peek() {
+      return next;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public RawData next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      RawData row = next;
+      try {
+        next = read();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return row;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+
+  @Test
+  void mergesEachIdJustLikeTheInMemoryVersion(@TempDir Path workDir) throws IOException {
+    List<RawData> rows = Dedupe.randomRows(new Random(7_61), 50_000, 5);
+    List<RawData> expected = ParallelDedupe.sequential(rows).stream()
+        .sorted(Comparator.comparing(RawData::id))
+        .toList();
+
+    //                 one run   many runs   many merge passes
+    for (int budget : new int[]{100_000,  5_000,      100}) {
+      List<RawData> actual = new ArrayList<>();
+      cleanDuplicates(rows.iterator(), actual::add, budget, 4, workDir);
+      assertEquals(expected, actual);
+      try (Stream<Path> leftovers = Files.list(workDir)) {
+        assertEquals(0, leftovers.count());
+      }
+    }
+  }
+
+  @Test
+  void streamsFromFileToFile(@TempDir Path workDir) throws IOException {
+    List<RawData> rows = Dedupe.randomRows(new Random(42), 20_000, 3);
+    Path input = workDir.resolve("extract.bin");
+    Path output = workDir.resolve("clean.bin");
+    try (RunWriter writer = new RunWriter(input)) {
+      rows.forEach(writer::write);
+    }
+
+    cleanDuplicates(input, output, 1_000, Files.createDirectory(workDir.resolve("work")));
+
+    List<RawData> clean = new ArrayList<>();
+    try (RunReader reader = new RunReader(output, 0)) {
+      reader.forEachRemaining(clean::add);
+    }
+    assertEquals(
+        Dedupe.cleanDuplicates(rows).stream().sorted(Comparator.comparing(RawData::id)).toList(),
+        clean);
+  }
+
+  @Test
+  void leavesNoFilesBehindWhenItFails(@TempDir Path workDir) throws IOException {
+    List<RawData> rows = Dedupe.randomRows(new Random(7_62), 5_000, 5);
+
+    // Fails in the final merge, after several merge passes
+    RuntimeException downstream = new RuntimeException("Downstream failed");
+    assertThrows(RuntimeException.class, () -> cleanDuplicates(rows.iterator(), row -> {
+      throw downstream;
+    }, 100, 4, workDir));
+    assertEquals(List.of(), list(workDir));
+
+    // Fails while spilling a run, once the file for it exists:
+    // writeUTF can't take an id over 64KB
+    List<RawData> unwritable = new ArrayList<>(rows);
+    unwritable.add(2_050, new RawData("x".repeat(70_000), Optional.empty(), Optional.empty(), Optional.empty()));
+    assertThrows(UncheckedIOException.class,
+        () -> cleanDuplicates(unwritable.iterator(), row -> {}, 100, 4, workDir));
+    assertEquals(List.of(), list(workDir));
+  }
+
+  @Test
+  void aFailedCleanupDoesntHideWhatWentWrong(@TempDir Path workDir) {
+    List<RawData> rows = Dedupe.randomRows(new Random(7_63), 5_000, 5);
+    RuntimeException downstream = new RuntimeException("Downstream failed");
+
+    RuntimeException failure = assertThrows(RuntimeException.class, () -> cleanDuplicates(rows.iterator(), row -> {
+      // Swap a run for a directory with something in it, which can't be deleted
+      try {
+        Path run = list(workDir).getFirst();
+        Files.delete(run);
+        Files.createFile(Files.createDirectory(run).resolve("in-the-way"));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      throw downstream;
+    }, 100, 4, workDir));
+
+    assertEquals(downstream, failure);
+    assertEquals(1, failure.getSuppressed().length);
+    assertInstanceOf(DirectoryNotEmptyException.class, failure.getSuppressed()[0]);
+  }
+
+  private static List<Path> list(Path dir) throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.toList();
+    }
+  }
+
+  @Test
+  void needsSomeRoomToWork(@TempDir Path workDir) {
+    assertThrows(IllegalArgumentException.class,
+        () -> cleanDuplicates(List.<RawData>of().iterator(), row -> {}, 0, workDir));
+    assertThrows(IllegalArgumentException.class,
+        () -> cleanDuplicates(List.<RawData>of().iterator(), row -> {}, 10, 1, workDir));
+  }
+
+}
@@ -0,0 +1,326 @@
+package dop.chapter07;
+
+import dop.chapter07.Listing7_61.AuditFinding;
+import dop.chapter07.Listing7_61.Policy;
+import dop.chapter07.Listing7_61.RawData;
+import dop.chapter07.ExternalDedupe.RunReader;
+import dop.chapter07.ExternalDedupe.RunWriter;
+import dop.chapter07.PersistentMaps.PersistentMap;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * ───────────────────────────────────────────────────────
+ * Keeping the clean rows up to date as data arrives
+ * ───────────────────────────────────────────────────────
+ * withOptional (Listing 7.60) makes Optional.empty() the identity
+ * for each field's merge, so merge has an identity, too: a row
+ * where nothing is known yet. Together with associativity, that
+ * makes merge a monoid, and a monoid can be folded one row at a
+ * time:
+ *
+ *   clean(rows ++ [row])  =  clean(rows) + row
+ *
+ * So we never need to run cleanDuplicates again. Each new row is
+ * merged into whatever we have for its id, and that's it.
+ *
+ * The merged rows live in a PersistentMap, so reading them never
+ * gets in the way of writing them. A snapshot is just the map as
+ * it stood at that moment, and taking one costs nothing. Anything
+ * downstream that wants to keep up can take one snapshot, and then
+ * ask for deltas: the rows whose merged value changed since the
+ * snapshot it already has, each as it stands now.
+ *
+ *   snapshot(v0).apply(delta(v0 → v1)).apply(delta(v1 → v2))  =  snapshot(v2)
+ *
+ * Each delta is addressed by the snapshot it starts from, so any
+ * number of consumers can keep up at their own pace without the
+ * aggregator tracking any of them. The snapshot and the latest map
+ * share everything that hasn't changed since, which is exactly the
+ * part the delta gets to skip.
+ *
+ * Rows which don't change anything (say, a policy we already knew
+ * about) don't show up in the delta at all.
+ * ───────────────────────────────────────────────────────
+ */
+public class IncrementalAggregation {
+
+  record Snapshot(long version, PersistentMap<String, RawData> rows) {
+    Optional<RawData> get(String id) {
+      return rows.get(id);
+    }
+
+    Snapshot apply(Delta delta) {
+      if (delta.from() != version) {
+        throw new IllegalArgumentException(
+            "This delta goes from version " + delta.from() + ", but the snapshot is at version " + version);
+      }
+      return new Snapshot(delta.to(), PersistentMaps.add(rows, delta.rows(), (old, updated) -> updated));
+    }
+  }
+
+  record Delta(long from, long to, PersistentMap<String, RawData> rows) {}
+
+
+  /**
+   * ───────────────────────────────────────────────────────
+   * Handing snapshots and deltas to another process
+   * ───────────────────────────────────────────────────────
+   * The nightly jobs downstream run on their own, so snapshots and
+   * deltas go to them as files: the two versions as longs, followed
+   * by the rows in ExternalDedupe's run format.
+   *
+   *   from  to  │ 1 id policy finding premium │ 1 ... │ 0
+   *
+   * A snapshot is written as the delta that takes an empty snapshot
+   * (version 0) to it.
+   * ───────────────────────────────────────────────────────
+   */
+  static void write(Snapshot snapshot, Path file) throws IOException {
+    write(new Delta(0, snapshot.version(), snapshot.rows()), file);
+  }
+
+  static void write(Delta delta, Path file) throws IOException {
+    OutputStream out = Files.newOutputStream(file);
+    try (RunWriter writer = new RunWriter(out)) {
+      DataOutputStream header = new DataOutputStream(out);
+      header.writeLong(delta.from());
+      header.writeLong(delta.to());
+      for (Map.Entry<String, RawData> row : delta.rows()) {
+        writer.write(row.getValue());
+      }
+    }
+  }
+
+  static Snapshot readSnapshot(Path file) throws IOException {
+    Delta delta = readDelta(file);
+    if (delta.from() != 0) {
+      throw new IOException(file + " holds a delta from version " + delta.from() + ", not a snapshot");
+    }
+    return new Snapshot(0, PersistentMap.empty()).apply(delta);
+  }
+
+  static Delta readDelta(Path file) throws IOException {
+    InputStream in = Files.newInputStream(file);
+    try {
+      DataInputStream header = new DataInputStream(in);
+      long from = header.readLong();
+      long to = header.readLong();
+      if (from < 0 || to < from) {
+        throw new IOException(file + " doesn't start with a delta's versions: " + from + " to " + to);
+      }
+      PersistentMap<String, RawData> rows = PersistentMap.empty();
+      try (RunReader reader = new RunReader(in, 0)) {
+        while (reader.hasNext()) {
+          RawData row = reader.next();
+          rows = rows.put(row.id(), row);
+        }
+      }
+      return new Delta(from, to, rows);
+    } finally {
+      in.close();
+    }
+  }
+
+  static class Aggregator {
+    private volatile Snapshot current = new Snapshot(0, PersistentMap.empty());
+
+    synchronized void accept(RawData row) {
+      Snapshot before = current;
+      Optional<RawData> old = before.get(row.id());
+      RawData merged = old.map(existing -> Dedupe.merge(existing, row)).orElse(row);
+      PersistentMap<String, RawData> rows = before.rows();
+      if (old.isEmpty() || !old.get().equals(merged)) {
+        rows = rows.put(row.id(), merged);
+      }
+      current = new Snapshot(before.version() + 1, rows);
+    }
+
+    void acceptAll(Iterable<RawData> rows) {
+      rows.forEach(this::accept);
+    }
+
+    /**
+     * The merged row for `id`, as of now. Never blocks.
+     */
+    Optional<RawData> get(String id) {
+      return current.get(id);
+    }
+
+    /**
+     * Everything, as of now. Never blocks, and never changes afterward.
+     */
+    Snapshot snapshot() {
+      return current;
+    }
+
+    /**
+     * Every row that changed since `since`, as of now. Never blocks.
+     */
+    Delta delta(Snapshot since) {
+      Snapshot now = current;
+      if (since.version() > now.version()) {
+        throw new IllegalArgumentException(
+            "Version " + since.version() + " is newer than this aggregator's version " + now.version());
+      }
+      return new Delta(since.version(), now.version(), now.rows().changesSince(since.rows()));
+    }
+  }
+
+
+  @Test
+  void alwaysMatchesCleaningFromScratch() {
+    List<RawData> rows = Dedupe.randomRows(new Random(7_60), 40_000, 4);
+    Aggregator aggregator = new Aggregator();
+
+    for (int end = 5_000; end <= rows.size(); end += 5_000) {
+      aggregator.acceptAll(rows.subList(end - 5_000, end));
+      List<RawData> expected = ParallelDedupe.sequential(rows.subList(0, end));
+
+      assertEquals(new HashSet<>(expected), new HashSet<>(aggregator.snapshot().rows().toMap().values()));
+      assertEquals(expected.size(), aggregator.snapshot().rows().size());
+      assertEquals(Optional.of(expected.getFirst()), aggregator.get(expected.getFirst().id()));
+    }
+  }
+
+  @Test
+  void snapshotsAndDeltasAddUp() {
+    List<RawData> rows = Dedupe.randomRows(new Random(7_61), 20_000, 4);
+    Aggregator aggregator = new Aggregator();
+    aggregator.acceptAll(rows.subList(0, 1_000));
+    Snapshot downstream = aggregator.snapshot();
+    Snapshot frozen = aggregator.snapshot();
+    var frozenRows = frozen.rows().toMap();
+
+    for (int start = 1_000; start < rows.size(); start += 1_000) {
+      aggregator.acceptAll(rows.subList(start, start + 1_000));
+      Delta delta = aggregator.delta(downstream);
+      assertTrue(delta.rows().size() < 1_000);   // ◄── rows that changed nothing aren't sent
+      downstream = downstream.apply(delta);
+      assertEquals(aggregator.snapshot().version(), downstream.version());
+      assertEquals(aggregator.snapshot().rows().toMap(), downstream.rows().toMap());
+    }
+    assertEquals(frozenRows, frozen.rows().toMap());
+    assertThrows(IllegalArgumentException.class, () -> frozen.apply(aggregator.delta(aggregator.snapshot())));
+    assertThrows(IllegalArgumentException.class, () -> new Aggregator().delta(frozen));
+  }
+
+  @Test
+  void everyConsumerKeepsUpAtItsOwnPace() {
+    List<RawData> rows = Dedupe.randomRows(new Random(7_63), 20_000, 4);
+    Aggregator aggregator = new Aggregator();
+    Snapshot eager = aggregator.snapshot();
+    Snapshot late = null;
+
+    for (int batch = 0; batch < 20; batch++) {
+      aggregator.acceptAll(rows.subList(batch * 1_000, (batch + 1) * 1_000));
+      eager = eager.apply(aggregator.delta(eager));
+      if (batch == 4) {
+        late = aggregator.snapshot();   // ◄── joins halfway, in between the eager one's deltas
+      } else if (late != null && batch % 3 == 0) {
+        late = late.apply(aggregator.delta(late));
+      }
+      assertEquals(aggregator.snapshot().rows().toMap(), eager.rows().toMap());
+    }
+    late = late.apply(aggregator.delta(late));
+    assertEquals(aggregator.snapshot().rows().toMap(), late.rows().toMap());
+    assertEquals(aggregator.snapshot().version(), late.version());
+  }
+
+  @Test
+  void keepsUpWithConcurrentWriters() throws Exception {
+    List<RawData> rows = Dedupe.randomRows(new Random(7_64), 40_000, 4);
+    int writers = 4;
+    // Each id goes to one writer, so its rows are still merged in order
+    List<List<RawData>> slices = new ArrayList<>();
+    for (int i = 0; i < writers; i++) {
+      slices.add(new ArrayList<>());
+    }
+    rows.forEach(row -> slices.get(Math.floorMod(row.id().hashCode(), writers)).add(row));
+
+    Aggregator aggregator = new Aggregator();
+    Snapshot downstream = aggregator.snapshot();
+    try (ExecutorService executor = Executors.newFixedThreadPool(writers)) {
+      List<Future<?>> writing = slices.stream()
+          .<Future<?>>map(slice -> executor.submit(() -> aggregator.acceptAll(slice)))
+          .toList();
+      while (!writing.stream().allMatch(Future::isDone)) {
+        Snapshot next = downstream.apply(aggregator.delta(downstream));
+        assertTrue(next.version() >= downstream.version());
+        downstream = next;
+      }
+      for (Future<?> future : writing) {
+        future.get();
+      }
+    }
+    downstream = downstream.apply(aggregator.delta(downstream));
+
+    assertEquals(rows.size(), downstream.version());
+    assertEquals(aggregator.snapshot().rows().toMap(), downstream.rows().toMap());
+    assertEquals(new HashSet<>(ParallelDedupe.sequential(rows)), new HashSet<>(downstream.rows().toMap().values()));
+  }
+
+  @Test
+  void snapshotsAndDeltasSurviveATripThroughFiles(@TempDir Path dir) throws IOException {
+    List<RawData> rows = Dedupe.randomRows(new Random(7_65), 10_000, 4);
+    Aggregator aggregator = new Aggregator();
+    aggregator.acceptAll(rows.subList(0, 4_000));
+    Snapshot start = aggregator.snapshot();
+    write(start, dir.resolve("snapshot.bin"));
+    aggregator.acceptAll(rows.subList(4_000, 7_000));
+    Snapshot middle = aggregator.snapshot();
+    write(aggregator.delta(start), dir.resolve("delta-1.bin"));
+    aggregator.acceptAll(rows.subList(7_000, 10_000));
+    write(aggregator.delta(middle), dir.resolve("delta-2.bin"));
+
+    // Meanwhile, in some other process
+    Snapshot downstream = readSnapshot(dir.resolve("snapshot.bin"));
+    assertEquals(start.version(), downstream.version());
+    assertEquals(start.rows().toMap(), downstream.rows().toMap());
+    Delta second = readDelta(dir.resolve("delta-2.bin"));
+    Snapshot partway = downstream;
+    assertThrows(IllegalArgumentException.class, () -> partway.apply(second));   // ◄── out of order
+    downstream = downstream.apply(readDelta(dir.resolve("delta-1.bin"))).apply(second);
+
+    assertEquals(aggregator.snapshot().version(), downstream.version());
+    assertEquals(aggregator.snapshot().rows().toMap(), downstream.rows().toMap());
+    assertThrows(IOException.class, () -> readSnapshot(dir.resolve("delta-2.bin")));
+  }
+
+  @Test
+  void rowsThatTellUsNothingNewAreNotChanges() {
+    Aggregator aggregator = new Aggregator();
+    aggregator.accept(new RawData("1", Optional.of(Policy.GRACE_PERIOD), Optional.of(AuditFinding.NO_ISSUE), Optional.of(true)));
+    Snapshot downstream = aggregator.snapshot();
+
+    aggregator.accept(new RawData("1", Optional.of(Policy.STRICT), Optional.empty(), Optional.of(false)));
+    aggregator.accept(new RawData("1", Optional.empty(), Optional.empty(), Optional.empty()));
+
+    Delta delta = aggregator.delta(downstream);
+    assertEquals(0, delta.rows().size());
+    assertEquals(1, delta.from());
+    assertEquals(3, delta.to());
+  }
+
+}
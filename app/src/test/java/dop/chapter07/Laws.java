@@ -0,0 +1,185 @@
+package dop.chapter07;
+
+import dop.chapter07.Listing7_61.AuditFinding;
+import dop.chapter07.Listing7_61.Policy;
+import dop.chapter07.Listing7_61.RawData;
+import dop.chapter07.Listing7_62.Associative;
+import dop.chapter07.Listing7_62.Monotonic;
+import dop.chapter07.Listing7_62.Reflexive;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.BinaryOperator;
+import java.util.function.Predicate;
+import java.util.stream.LongStream;
+
+import static java.util.Comparator.comparing;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * ───────────────────────────────────────────────────────
+ * Checking laws, everywhere at once
+ * ───────────────────────────────────────────────────────
+ * Listings 7.41 and 7.44 check laws with nested loops: one loop per
+ * variable, over every value the type can take. With n values and
+ * k variables, that's n^k cases, all on one thread.
+ *
+ * Those n^k cases are just the numbers 0 to n^k - 1, written in
+ * base n, with one digit per variable:
+ *
+ *   n = 4, k = 3:    27  =  1·4² + 2·4 + 3  ═►  (values[1], values[2], values[3])
+ *
+ * So a parallel LongStream over that range can be split up across
+ * every core, and each number turned back into its tuple as it's
+ * checked. findFirst stops everything as soon as it has its answer,
+ * and because it's *first*, that's always the same tuple the nested
+ * loops would have tripped over.
+ *
+ * The laws are the ones from Listing 7.48. check() plugs into the
+ * marker interfaces from Listing 7.62: it checks whichever laws an
+ * operator says it obeys.
+ * ───────────────────────────────────────────────────────
+ */
+public class Laws {
+
+  record Counterexample(String law, List<?> values) {
+    @Override
+    public String toString() {
+      return law + " fails for " + values;
+    }
+  }
+
+  static <A> Optional<Counterexample> forAll(String law, List<A> domain, int arity, Predicate<List<A>> holds) {
+    int n = domain.size();
+    long cases = 1;
+    for (int i = 0; i < arity; i++) {
+      cases = Math.multiplyExact(cases, n);
+    }
+    return LongStream.range(0, cases).parallel()
+        .mapToObj(index -> tuple(domain, arity, index))
+        .filter(Predicate.not(holds))
+        .findFirst()
+        .map(values -> new Counterexample(law, values));
+  }
+
+  private static <A> List<A> tuple(List<A> domain, int arity, long index) {
+    Object[] values = new Object[arity];
+    for (int i = arity - 1; i >= 0; i--) {
+      values[i] = domain.get((int) (index % domain.size()));
+      index /= domain.size();
+    }
+    @SuppressWarnings("unchecked")
+    List<A> tuple = (List<A>) Arrays.asList(values);
+    return tuple;
+  }
+
+  // a + (b + c) = (a + b) + c
+  static <A> Optional<Counterexample> associative(BinaryOperator<A> add, List<A> domain) {
+    return forAll("Associativity", domain, 3, t ->
+        add.apply(t.get(0), add.apply(t.get(1), t.get(2)))
+            .equals(add.apply(add.apply(t.get(0), t.get(1)), t.get(2))));
+  }
+
+  // a ≤ c AND b ≤ d THEN a + b ≤ c + d
+  static <A> Optional<Counterexample> monotonic(BinaryOperator<A> add, Comparator<A> order, List<A> domain) {
+    return forAll("Monotonicity", domain, 4, t ->
+        !(order.compare(t.get(0), t.get(2)) <= 0 && order.compare(t.get(1), t.get(3)) <= 0)
+            || order.compare(add.apply(t.get(0), t.get(1)), add.apply(t.get(2), t.get(3))) <= 0);
+  }
+
+  // a ≤ a
+  static <A> Optional<Counterexample> reflexive(Comparator<A> order, List<A> domain) {
+    return forAll("Reflexivity", domain, 1, t -> order.compare(t.get(0), t.get(0)) <= 0);
+  }
+
+  // IF a ≤ b AND b ≤ a THEN a = b
+  static <A> Optional<Counterexample> antisymmetric(Comparator<A> order, List<A> domain) {
+    return forAll("Antisymmetry", domain, 2, t ->
+        !(order.compare(t.get(0), t.get(1)) <= 0 && order.compare(t.get(1), t.get(0)) <= 0)
+            || t.get(0).equals(t.get(1)));
+  }
+
+  // IF a ≤ b AND b ≤ c THEN a ≤ c
+  static <A> Optional<Counterexample> transitive(Comparator<A> order, List<A> domain) {
+    return forAll("Transitivity", domain, 3, t ->
+        !(order.compare(t.get(0), t.get(1)) <= 0 && order.compare(t.get(1), t.get(2)) <= 0)
+            || order.compare(t.get(0), t.get(2)) <= 0);
+  }
+
+  /**
+   * All three of the "Ordered" laws from Listing 7.48.
+   */
+  static <A> Optional<Counterexample> ordered(Comparator<A> order, List<A> domain) {
+    return reflexive(order, domain)
+        .or(() -> antisymmetric(order, domain))
+        .or(() -> transitive(order, domain));
+  }
+
+  /**
+   * Checks the laws `add` claims through Listing 7.62's marker
+   * interfaces. Listing 7.62 leaves Reflexive's meaning open, so here
+   * it claims the order that `add` is monotonic over is a proper one.
+   */
+  static <A> Optional<Counterexample> check(BinaryOperator<A> add, Comparator<A> order, List<A> domain) {
+    if (!(add instanceof Associative<?> || add instanceof Monotonic<?> || add instanceof Reflexive<?>)) {
+      throw new IllegalArgumentException("The operator doesn't claim any laws to check");
+    }
+    return Optional.<Counterexample>empty()
+        .or(() -> add instanceof Reflexive<?> ? ordered(order, domain) : Optional.empty())
+        .or(() -> add instanceof Associative<?> ? associative(add, domain) : Optional.empty())
+        .or(() -> add instanceof Monotonic<?> ? monotonic(add, order, domain) : Optional.empty());
+  }
+
+
+  interface Lawful<A> extends Associative<A>, Monotonic<A>, Reflexive<A> {}
+
+  static final Comparator<Optional<Policy>> policyOrder =
+      comparing((Optional<Policy> policy) -> policy.isPresent()).thenComparing(
+          policy -> policy.orElse(null), Comparator.nullsFirst(Dedupe.policyOrder));
+
+  static final Comparator<Optional<AuditFinding>> findingOrder =
+      comparing((Optional<AuditFinding> finding) -> finding.isPresent()).thenComparing(
+          finding -> finding.orElse(null), Comparator.nullsFirst(Dedupe.findingOrder));
+
+  static <A> List<Optional<A>> optionally(A[] values) {
+    return List.copyOf(Listing7_26.everyOptionalValue(values));
+  }
+
+  @Test
+  void theChapterOperatorsObeyTheirLaws() {
+    Lawful<Optional<Policy>> addPolicies = Dedupe.addPolicies::apply;
+    Lawful<Optional<AuditFinding>> addFindings = Dedupe.addFindings::apply;
+
+    assertEquals(Optional.empty(), check(addPolicies, policyOrder, optionally(Policy.values())));
+    assertEquals(Optional.empty(), check(addFindings, findingOrder, optionally(AuditFinding.values())));
+  }
+
+  @Test
+  void mergeIsAssociativeOverEveryPossibleRow() {
+    Associative<RawData> merge = Dedupe::merge;
+    assertEquals(Optional.empty(), check(merge, null, List.copyOf(Dedupe.everyPossibleRow())));
+  }
+
+  @Test
+  void reportsTheFirstTupleThatBreaksALaw() {
+    BinaryOperator<Integer> minus = (a, b) -> a - b;
+    assertEquals(
+        Optional.of(new Counterexample("Associativity", List.of(0, 0, 1))),
+        associative(minus, List.of(0, 1, 2, 3)));
+
+    // Listing 7.41's note: ordering by impact alone looked fine, but
+    // antisymmetry says it can't tell two different findings apart.
+    Comparator<AuditFinding> byImpactOnly = comparing(Dedupe::findingsImpact);
+    assertEquals(
+        Optional.of(new Counterexample("Antisymmetry", List.of(AuditFinding.BILLING_ERROR, AuditFinding.OUT_OF_COMPLIANCE))),
+        ordered(byImpactOnly, List.of(AuditFinding.values())));
+    assertEquals(Optional.empty(), ordered(Dedupe.findingOrder, List.of(AuditFinding.values())));
+
+    assertThrows(IllegalArgumentException.class, () -> check(minus, Comparator.naturalOrder(), List.of(0)));
+  }
+
+}
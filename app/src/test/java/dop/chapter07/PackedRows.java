@@ -0,0 +1,230 @@
+package dop.chapter07;
+
+import dop.chapter07.Listing7_61.AuditFinding;
+import dop.chapter07.Listing7_61.Policy;
+import dop.chapter07.Listing7_61.RawData;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * ───────────────────────────────────────────────────────
+ * RawData in one byte
+ * ───────────────────────────────────────────────────────
+ * Listing 7.26 counts every state a RawData can be in, once the id
+ * is set aside: 6 policies (5, or none) × 5 findings (4, or none)
+ * × 3 premium flags (true, false, or none) = 90. That fits in a
+ * byte with room to spare:
+ *
+ *   code = policy × 15 + finding × 3 + premium     (0 means "none")
+ *
+ * The same counting works for merge. It only ever sees two of those
+ * 90 states, so it has 90 × 90 possible inputs, and we can simply
+ * work out every answer in advance. Merging two rows then becomes
+ * a single array lookup, with no Optionals and no branches.
+ *
+ * Code 0 (nothing known at all) is merge's identity, so folding a
+ * group can start from 0 without looking at its first row.
+ *
+ * Ids get the same treatment: each distinct id is given a number
+ * the first time it shows up, and rows hold that number. A row is
+ * then an int and a byte, which is five bytes, instead of a record,
+ * its Strings, and up to three Optionals.
+ *
+ * The ids themselves don't go away, though. Each distinct id still
+ * costs its String, a map entry, and a boxed Integer, just once
+ * rather than once per row. So how much this saves depends on how
+ * many rows share an id: with four rows to an id, it comes to under
+ * a third of what the records take (see bytes()).
+ * ───────────────────────────────────────────────────────
+ */
+public class PackedRows {
+
+  static final int STATES = 6 * 5 * 3;
+  private static final Policy[] POLICIES = Policy.values();
+  private static final AuditFinding[] FINDINGS = AuditFinding.values();
+
+  static int encode(RawData row) {
+    int policy = row.policy().map(p -> p.ordinal() + 1).orElse(0);
+    int finding = row.findings().map(f -> f.ordinal() + 1).orElse(0);
+    int premium = row.isPremium().map(p -> p ? 2 : 1).orElse(0);
+    return policy * 15 + finding * 3 + premium;
+  }
+
+  static RawData decode(String id, int code) {
+    int policy = code / 15;
+    int finding = code / 3 % 5;
+    int premium = code % 3;
+    return new RawData(
+        id,
+        policy == 0 ? Optional.empty() : Optional.of(POLICIES[policy - 1]),
+        finding == 0 ? Optional.empty() : Optional.of(FINDINGS[finding - 1]),
+        premium == 0 ? Optional.empty() : Optional.of(premium == 2));
+  }
+
+  /**
+   * MERGE[x * STATES + y] is the code of merge(x, y), worked out by
+   * asking Dedupe.merge itself.
+   */
+  static final byte[] MERGE = new byte[STATES * STATES];
+  static {
+    for (int x = 0; x < STATES; x++) {
+      for (int y = 0; y < STATES; y++) {
+        MERGE[x * STATES + y] = (byte) encode(Dedupe.merge(decode("", x), decode("", y)));
+      }
+    }
+  }
+
+  static int merge(int x, int y) {
+    return MERGE[x * STATES + y];
+  }
+
+
+  // Per distinct id, with compressed references: its String (24) and
+  // the String's byte[] (16, plus a byte a character), a HashMap node
+  // (32) and table slot (4), a boxed Integer (16), and a slot in
+  // `dictionary` (4).
+  private static final int BYTES_PER_ID = 24 + 16 + 32 + 4 + 16 + 4;
+
+  private final Map<String, Integer> codes = new HashMap<>();
+  private final List<String> dictionary = new ArrayList<>();
+  private int[] ids = new int[1024];
+  private byte[] states = new byte[1024];
+  private int size;
+
+  static PackedRows of(Iterable<RawData> rows) {
+    PackedRows packed = new PackedRows();
+    rows.forEach(packed::add);
+    return packed;
+  }
+
+  void add(RawData row) {
+    Integer id = codes.get(row.id());
+    if (id == null) {
+      id = dictionary.size();
+      codes.put(row.id(), id);
+      dictionary.add(row.id());
+    }
+    if (size == ids.length) {
+      ids = Arrays.copyOf(ids, size * 2);
+      states = Arrays.copyOf(states, size * 2);
+    }
+    ids[size] = id;
+    states[size] = (byte) encode(row);
+    size++;
+  }
+
+  int size() {
+    return size;
+  }
+
+  RawData get(int row) {
+    return decode(dictionary.get(ids[row]), states[row]);
+  }
+
+  /**
+   * Roughly what this holds on to: the two row arrays, as allocated,
+   * and everything kept for each distinct id. An estimate for
+   * comparing layouts, not a measurement.
+   */
+  long bytes() {
+    long bytes = (long) ids.length * Integer.BYTES + states.length;
+    for (String id : dictionary) {
+      bytes += BYTES_PER_ID + id.length();
+    }
+    return bytes;
+  }
+
+  /**
+   * One merged state per id, in the order the ids first showed up.
+   * That's the same order (and the same rows) as
+   * ParallelDedupe.sequential.
+   */
+  byte[] mergedStates() {
+    byte[] merged = new byte[dictionary.size()];   // ◄── all 0, merge's identity
+    for (int row = 0; row < size; row++) {
+      merged[ids[row]] = MERGE[merged[ids[row]] * STATES + states[row]];
+    }
+    return merged;
+  }
+
+  List<RawData> cleanDuplicates() {
+    byte[] merged = mergedStates();
+    List<RawData> rows = new ArrayList<>(merged.length);
+    for (int id = 0; id < merged.length; id++) {
+      rows.add(decode(dictionary.get(id), merged[id]));
+    }
+    return rows;
+  }
+
+
+  @Test
+  void everyStateSurvivesTheRoundTrip() {
+    for (RawData row : Dedupe.everyPossibleRow()) {
+      assertEquals(row, decode(row.id(), encode(row)));
+    }
+    assertEquals(STATES, Dedupe.everyPossibleRow().size());
+  }
+
+  @Test
+  void theTableIsMerge() {
+    for (RawData x : Dedupe.everyPossibleRow()) {
+      for (RawData y : Dedupe.everyPossibleRow()) {
+        assertEquals(Dedupe.merge(x, y), decode(x.id(), merge(encode(x), encode(y))));
+      }
+    }
+    // ...so it keeps merge's laws, including the identity we start from
+    for (int x = 0; x < STATES; x++) {
+      assertEquals(x, merge(0, x));
+      assertEquals(x, merge(x, 0));
+      for (int y = 0; y < STATES; y++) {
+        for (int z = 0; z < STATES; z++) {
+          assertEquals(merge(merge(x, y), z), merge(x, merge(y, z)));
+        }
+      }
+    }
+  }
+
+  @Test
+  void cleansDuplicatesJustLikeTheRecords() {
+    List<RawData> rows = Dedupe.randomRows(new Random(7_26), 50_000, 4);
+    PackedRows packed = PackedRows.of(rows);
+
+    for (int i = 0; i < rows.size(); i++) {
+      assertEquals(rows.get(i), packed.get(i));
+    }
+    assertEquals(ParallelDedupe.sequential(rows), packed.cleanDuplicates());
+  }
+
+  @Test
+  void rowsCostFiveBytesAndEachIdIsPaidForOnce() {
+    List<RawData> rows = Dedupe.randomRows(new Random(7_27), 100_000, 4);
+    PackedRows packed = PackedRows.of(rows);
+    PackedRows twice = PackedRows.of(rows);
+    rows.forEach(twice::add);
+
+    // Same ids again: only the row arrays grow
+    assertEquals(
+        (long) (twice.ids.length - packed.ids.length) * (Integer.BYTES + 1),
+        twice.bytes() - packed.bytes());
+
+    // The same estimate for the records: a RawData (32), its id
+    // String (24 + 16 + a byte a character), and an Optional (16) for
+    // each field that's there
+    long records = rows.stream()
+        .mapToLong(row -> 32 + 24 + 16 + row.id().length()
+            + 16 * (row.policy().stream().count() + row.findings().stream().count() + row.isPremium().stream().count()))
+        .sum();
+    assertTrue(packed.bytes() * 3 < records, () -> packed.bytes() + " bytes packed, against " + records);
+  }
+
+}
@@ -0,0 +1,144 @@
+package dop.chapter07;
+
+import dop.chapter07.Listing7_61.RawData;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * ───────────────────────────────────────────────────────
+ * Cleaning duplicates on every core
+ * ───────────────────────────────────────────────────────
+ * Listing 7.48 is why this works. merge is associative, so it
+ * doesn't matter how we group the rows before merging them, as long
+ * as we keep them in order. That means we can cut the input into
+ * chunks, merge each chunk on its own thread, and then merge the
+ * chunks' answers together, and we'll get exactly what one thread
+ * going row by row would have got.
+ *
+ *    rows    [ ─── chunk 0 ─── | ─── chunk 1 ─── | ─── chunk 2 ─── ]
+ *                   │                  │                  │
+ *              merge by id        merge by id        merge by id     ◄── in parallel,
+ *              into partitions    into partitions    into partitions     one per chunk
+ *                   │                  │                  │
+ *    partition 0    ●──────────────────●──────────────────●          ◄── in parallel,
+ *    partition 1    ●──────────────────●──────────────────●              one per partition,
+ *    ...                                                                 in chunk order
+ *
+ * Each chunk also splits its ids into partitions by hash, so that
+ * combining the chunks can be shared out, too. Every row for a given
+ * id lands in the same partition, so partitions never need to be
+ * combined with each other.
+ *
+ * The output lists each id once, at the position where it first
+ * showed up in the input. That doesn't depend on how many chunks or
+ * partitions we used, so every way of running this gives back the
+ * very same List as running it on one thread.
+ * ───────────────────────────────────────────────────────
+ */
+public class ParallelDedupe {
+
+  private record Slot(int first, RawData row) {}
+
+  private static Slot combine(Slot earlier, Slot later) {
+    return new Slot(earlier.first(), Dedupe.merge(earlier.row(), later.row()));
+  }
+
+  static List<RawData> cleanDuplicates(List<RawData> rows) {
+    int parallelism = ForkJoinPool.getCommonPoolParallelism();
+    return cleanDuplicates(rows, parallelism * 4, parallelism * 4);
+  }
+
+  /**
+   * The one-thread version: one chunk and one partition. Everything
+   * else must produce exactly this.
+   */
+  static List<RawData> sequential(List<RawData> rows) {
+    return cleanDuplicates(rows, 1, 1);
+  }
+
+  static List<RawData> cleanDuplicates(List<RawData> rows, int chunks, int partitions) {
+    if (chunks < 1 || partitions < 1) {
+      throw new IllegalArgumentException("Need at least one chunk and one partition");
+    }
+    int chunkSize = Math.max(1, (rows.size() + chunks - 1) / chunks);
+    int chunkCount = (rows.size() + chunkSize - 1) / chunkSize;
+
+    // Each chunk: partition → (id → merged row)
+    List<List<Map<String, Slot>>> byChunk = IntStream.range(0, chunkCount).parallel()
+        .mapToObj(chunk -> mergeChunk(rows, chunk * chunkSize, Math.min(rows.size(), (chunk + 1) * chunkSize), partitions))
+        .toList();
+
+    // Each partition: fold the chunks together, left to right
+    List<Map<String, Slot>> byPartition = IntStream.range(0, partitions).parallel()
+        .mapToObj(partition -> {
+          Map<String, Slot> combined = new HashMap<>();
+          for (List<Map<String, Slot>> chunk : byChunk) {
+            chunk.get(partition).forEach((id, slot) -> combined.merge(id, slot, ParallelDedupe::combine));
+          }
+          return combined;
+        })
+        .toList();
+
+    Slot[] slots = byPartition.stream()
+        .flatMap(partition -> partition.values().stream())
+        .toArray(Slot[]::new);
+    Arrays.parallelSort(slots, Comparator.comparingInt(Slot::first));
+    return Arrays.stream(slots).map(Slot::row).toList();
+  }
+
+  private static List<Map<String, Slot>> mergeChunk(List<RawData> rows, int from, int to, int partitions) {
+    List<Map<String, Slot>> maps = new ArrayList<>(partitions);
+    for (int p = 0; p < partitions; p++) {
+      maps.add(new HashMap<>());
+    }
+    for (int i = from; i < to; i++) {
+      RawData row = rows.get(i);
+      maps.get(partition(row.id(), partitions)).merge(row.id(), new Slot(i, row), ParallelDedupe::combine);
+    }
+    return maps;
+  }
+
+  private static int partition(String id, int partitions) {
+    int hash = id.hashCode();
+    return Math.floorMod(hash ^ (hash >>> 16), partitions);
+  }
+
+
+  @Test
+  void givesTheSameListNoMatterHowItIsSplit() {
+    List<RawData> rows = Dedupe.randomRows(new Random(7_48), 20_000, 4);
+    List<RawData> expected = sequential(rows);
+
+    for (int chunks : new int[]{1, 2, 3, 8, 64, 20_000, 50_000}) {
+      for (int partitions : new int[]{1, 2, 7, 256}) {
+        assertEquals(expected, cleanDuplicates(rows, chunks, partitions));
+      }
+    }
+    assertEquals(expected, cleanDuplicates(rows));
+    assertEquals(List.of(), cleanDuplicates(List.of()));
+    assertThrows(IllegalArgumentException.class, () -> cleanDuplicates(rows, 0, 1));
+  }
+
+  @Test
+  void agreesWithListing7_61() {
+    List<RawData> rows = Dedupe.randomRows(new Random(7_61), 2_000, 3);
+    // Listing 7.61 hands back the rows in whatever order its HashMap
+    // keeps them, so only the rows themselves can be compared.
+    assertEquals(new HashSet<>(Dedupe.cleanDuplicates(rows)), new HashSet<>(cleanDuplicates(rows)));
+    assertEquals(Dedupe.cleanDuplicates(rows).size(), cleanDuplicates(rows).size());
+  }
+
+}
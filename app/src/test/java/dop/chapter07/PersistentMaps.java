@@ -0,0 +1,512 @@
+package dop.chapter07;
+
+import dop.chapter07.Listing7_61.RawData;
+import org.junit.jupiter.api.Test;
+
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PersistentMaps {
+
+  /**
+   * ───────────────────────────────────────────────────────
+   * Adding maps without copying them
+   * ───────────────────────────────────────────────────────
+   * Both of Listing 7.10's add()s start by copying one whole map.
+   * Fold a few thousand small maps together that way (as Listing
+   * 7.17 does) and we copy the growing total every single time.
+   *
+   * A persistent map never changes once it's built. "Changing" one
+   * gives you a new map that shares almost everything with the old.
+   * This one is a hash trie: the key's hash is read 5 bits at a
+   * time, and each 5 bits picks one of up to 32 branches.
+   *
+   *   hash(k) = 01101 00010 11100 ...
+   *               │     │     │
+   *             root ──► ● ──► ● ──► k=v
+   *
+   * Nodes only store the branches they actually use, and a bitmap
+   * says which ones those are. Putting a key copies the handful of
+   * nodes on the path down to it (at most 7, and usually 3 or 4 for
+   * maps with millions of keys). Everything else is shared, with
+   * the old map and with every other map built from it.
+   *
+   * So, adding two maps only has to put the smaller one's entries
+   * into the bigger one. Both inputs stay exactly as they were.
+   * ───────────────────────────────────────────────────────
+   */
+  static final class PersistentMap<K, V> implements Iterable<Map.Entry<K, V>> {
+    private static final int BITS = 5, MASK = (1 << BITS) - 1;
+    private static final PersistentMap<?, ?> EMPTY = new PersistentMap<>(new Bitmap(0, new Object[0]), 0);
+
+    private record Entry(Object key, Object value, int hash) {}
+    private record Bitmap(int bitmap, Object[] slots) {}           // slots hold Entry, Bitmap, or Collision
+    private record Collision(int hash, Entry[] entries) {}         // keys whose whole hash is the same
+
+    private final Object root;
+    private final int size;
+
+    private PersistentMap(Object root, int size) {
+      this.root = root;
+      this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentMap<K, V> empty() {
+      return (PersistentMap<K, V>) EMPTY;
+    }
+
+    static <K, V> PersistentMap<K, V> of(Map<K, V> map) {
+      PersistentMap<K, V> result = empty();
+      for (var entry : map.entrySet()) {
+        result = result.put(entry.getKey(), entry.getValue());
+      }
+      return result;
+    }
+
+    int size() {
+      return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    Optional<V> get(K key) {
+      int hash = hash(key);
+      Object node = root;
+      for (int shift = 0; ; shift += BITS) {
+        switch (node) {
+          case Bitmap(int bitmap, Object[] slots) -> {
+            int bit = 1 << fragment(hash, shift);
+            if ((bitmap & bit) == 0) return Optional.empty();
+            node = slots[Integer.bitCount(bitmap & (bit - 1))];
+          }
+          case Entry entry -> {
+            return entry.hash() == hash && Objects.equals(entry.key(), key)
+                ? Optional.ofNullable((V) entry.value())
+                : Optional.empty();
+          }
+          case Collision collision -> {
+            for (Entry entry : collision.entries()) {
+              if (Objects.equals(entry.key(), key)) return Optional.ofNullable((V) entry.value());
+            }
+            return Optional.empty();
+          }
+          default -> throw new IllegalStateException();
+        }
+      }
+    }
+
+    PersistentMap<K, V> put(K key, V value) {
+      return merge(key, value, (existing, given) -> given);
+    }
+
+    /**
+     * Puts `value` under `key`, or, if the key is already there,
+     * `remapping(existing, value)`.
+     */
+    PersistentMap<K, V> merge(K key, V value, BinaryOperator<V> remapping) {
+      int[] added = {0};
+      Object newRoot = put(root, new Entry(key, value, hash(key)), 0, remapping, added);
+      return newRoot == root ? this : new PersistentMap<>(newRoot, size + added[0]);
+    }
+
+    @SuppressWarnings("unchecked")
+    void forEach(BiConsumer<? super K, ? super V> action) {
+      forEach(root, (BiConsumer<Object, Object>) action);
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, V>> iterator() {
+      return new Entries<>(root);
+    }
+
+    Map<K, V> toMap() {
+      Map<K, V> map = new HashMap<>();
+      forEach(map::put);
+      return map;
+    }
+
+    /**
+     * The entries which are new since `older`, or have a different
+     * value than they had there. When this map was built from `older`,
+     * the nodes they still share are skipped without looking inside,
+     * so this costs about as much as what changed, not the whole map.
+     */
+    @SuppressWarnings("unchecked")
+    PersistentMap<K, V> changesSince(PersistentMap<K, V> older) {
+      Map<Object, Object> changed = new HashMap<>();
+      diff(older.root, root, changed);
+      return PersistentMap.of((Map<K, V>) changed);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> Object put(Object node, Entry entry, int shift, BinaryOperator<V> remapping, int[] added) {
+      return switch (node) {
+        case Bitmap(int bitmap, Object[] slots) -> {
+          int bit = 1 << fragment(entry.hash(), shift);
+          int index = Integer.bitCount(bitmap & (bit - 1));
+          if ((bitmap & bit) == 0) {
+            added[0]++;
+            Object[] copy = new Object[slots.length + 1];
+            System.arraycopy(slots, 0, copy, 0, index);
+            copy[index] = entry;
+            System.arraycopy(slots, index, copy, index + 1, slots.length - index);
+            yield new Bitmap(bitmap | bit, copy);
+          }
+          Object slot = slots[index];
+          Object replacement = switch (slot) {
+            case Entry existing when existing.hash() == entry.hash() && Objects.equals(existing.key(), entry.key()) -> {
+              V merged = remapping.apply((V) existing.value(), (V) entry.value());
+              yield merged == existing.value() ? existing : new Entry(existing.key(), merged, existing.hash());
+            }
+            case Entry existing -> {
+              added[0]++;
+              yield pair(existing, entry, shift + BITS);
+            }
+            default -> put(slot, entry, shift + BITS, remapping, added);
+          };
+          if (replacement == slot) {
+            yield node;   // ◄── nothing changed, so share the whole node
+          }
+          Object[] copy = slots.clone();
+          copy[index] = replacement;
+          yield new Bitmap(bitmap, copy);
+        }
+        case Collision collision when collision.hash() != entry.hash() -> {
+          Bitmap wrapper = new Bitmap(1 << fragment(collision.hash(), shift), new Object[]{collision});
+          yield put(wrapper, entry, shift, remapping, added);
+        }
+        case Collision(int hash, Entry[] entries) -> {
+          for (int i = 0; i < entries.length; i++) {
+            if (Objects.equals(entries[i].key(), entry.key())) {
+              V merged = remapping.apply((V) entries[i].value(), (V) entry.value());
+              if (merged == entries[i].value()) yield node;
+              Entry[] copy = entries.clone();
+              copy[i] = new Entry(entry.key(), merged, hash);
+              yield new Collision(hash, copy);
+            }
+          }
+          added[0]++;
+          Entry[] copy = Arrays.copyOf(entries, entries.length + 1);
+          copy[entries.length] = entry;
+          yield new Collision(hash, copy);
+        }
+        default -> throw new IllegalStateException();
+      };
+    }
+
+    private static Object pair(Entry a, Entry b, int shift) {
+      if (a.hash() == b.hash()) {
+        return new Collision(a.hash(), new Entry[]{a, b});
+      }
+      int fa = fragment(a.hash(), shift), fb = fragment(b.hash(), shift);
+      if (fa == fb) {
+        return new Bitmap(1 << fa, new Object[]{pair(a, b, shift + BITS)});
+      }
+      return new Bitmap((1 << fa) | (1 << fb), fa < fb ? new Object[]{a, b} : new Object[]{b, a});
+    }
+
+    private static void diff(Object old, Object node, Map<Object, Object> changed) {
+      if (old == node) {
+        return;   // ◄── shared, so nothing in here changed
+      }
+      if (old instanceof Bitmap(int oldBitmap, Object[] oldSlots) && node instanceof Bitmap(int bitmap, Object[] slots)) {
+        for (int index = 0, remaining = bitmap; remaining != 0; index++, remaining &= remaining - 1) {
+          int bit = Integer.lowestOneBit(remaining);
+          if ((oldBitmap & bit) == 0) {
+            forEach(slots[index], changed::put);
+          } else {
+            diff(oldSlots[Integer.bitCount(oldBitmap & (bit - 1))], slots[index], changed);
+          }
+        }
+        return;
+      }
+      // An entry or a collision on one side: small enough to compare directly
+      Map<Object, Object> before = new HashMap<>();
+      forEach(old, before::put);
+      forEach(node, (key, value) -> {
+        if (!before.containsKey(key) || !Objects.equals(before.get(key), value)) {
+          changed.put(key, value);
+        }
+      });
+    }
+
+    private static void forEach(Object node, BiConsumer<Object, Object> action) {
+      switch (node) {
+        case Entry entry -> action.accept(entry.key(), entry.value());
+        case Bitmap bitmap -> {
+          for (Object slot : bitmap.slots()) forEach(slot, action);
+        }
+        case Collision collision -> {
+          for (Entry entry : collision.entries()) action.accept(entry.key(), entry.value());
+        }
+        default -> throw new IllegalStateException();
+      }
+    }
+
+    /**
+     * Walks the trie with its own stack of the slots still to visit
+     * at each level.
+     */
+    private static final class Entries<K, V> implements Iterator<Map.Entry<K, V>> {
+      private final Deque<Iterator<?>> pending = new ArrayDeque<>();
+      private Entry next;
+
+      Entries(Object root) {
+        pending.push(List.of(root).iterator());
+        advance();
+      }
+
+      private void advance() {
+        next = null;
+        while (next == null && !pending.isEmpty()) {
+          Iterator<?> slots = pending.peek();
+          if (!slots.hasNext()) {
+            pending.pop();
+            continue;
+          }
+          switch (slots.next()) {
+            case Entry entry -> next = entry;
+            case Bitmap bitmap -> pending.push(Arrays.asList(bitmap.slots()).iterator());
+            case Collision collision -> pending.push(Arrays.asList(collision.entries()).iterator());
+            default -> throw new IllegalStateException();
+          }
+        }
+      }
+
+      @Override
+      public boolean hasNext() {
+        return next != null;
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public Map.Entry<K, V> next() {
+        if (next == null) {
+          throw new NoSuchElementException();
+        }
+        Entry entry = next;
+        advance();
+        return new AbstractMap.SimpleImmutableEntry<>((K) entry.key(), (V) entry.value());
+      }
+    }
+
+    private static int hash(Object key) {
+      int h = Objects.hashCode(key);
+      return h ^ (h >>> 16);
+    }
+
+    private static int fragment(int hash, int shift) {
+      return (hash >>> shift) & MASK;
+    }
+  }
+
+
+  /**
+   * ───────────────────────────────────────────────────────
+   * Map addition
+   * ───────────────────────────────────────────────────────
+   * Whichever map is smaller gets put into the bigger one, but the
+   * operator always sees the left value first and the right value
+   * second. So the bias (or the merging) is the same either way.
+   * ───────────────────────────────────────────────────────
+   */
+  static <K, V> PersistentMap<K, V> add(PersistentMap<K, V> left, PersistentMap<K, V> right, BinaryOperator<V> binop) {
+    if (left.size() >= right.size()) {
+      PersistentMap<K, V> result = left;
+      for (Map.Entry<K, V> entry : right) {
+        result = result.merge(entry.getKey(), entry.getValue(), binop);
+      }
+      return result;
+    } else {
+      BinaryOperator<V> flipped = (r, l) -> binop.apply(l, r);
+      PersistentMap<K, V> result = right;
+      for (Map.Entry<K, V> entry : left) {
+        result = result.merge(entry.getKey(), entry.getValue(), flipped);
+      }
+      return result;
+    }
+  }
+
+  // Listing 7.10's Example1: on conflicts, left wins
+  static <K, V> PersistentMap<K, List<V>> addLeftBiased(PersistentMap<K, List<V>> left, PersistentMap<K, List<V>> right) {
+    return add(left, right, (l, r) -> l);
+  }
+
+  // Listing 7.10's Example2: on conflicts, right wins
+  static <K, V> PersistentMap<K, List<V>> addRightBiased(PersistentMap<K, List<V>> left, PersistentMap<K, List<V>> right) {
+    return add(left, right, (l, r) -> r);
+  }
+
+  /**
+   * Listing 7.17's toMap, with the same reduce over single-entry
+   * maps, but each step now only costs one put.
+   */
+  static <K, V> PersistentMap<K, V> toMap(List<V> items, Function<V, K> classifier, BinaryOperator<V> binop) {
+    return items.stream()
+        .map(item -> PersistentMap.<K, V>empty().put(classifier.apply(item), item))
+        .reduce(PersistentMap.empty(), (m1, m2) -> add(m1, m2, binop));
+  }
+
+
+  private static Map<String, List<Integer>> randomMap(Random random, int size, int keys) {
+    Map<String, List<Integer>> map = new HashMap<>();
+    for (int i = 0; i < size; i++) {
+      map.put("key-" + random.nextInt(keys), List.of(random.nextInt(100)));
+    }
+    return map;
+  }
+
+  @Test
+  void addsLikeListing7_10WithoutChangingEitherSide() {
+    Random random = new Random(7_10);
+    for (int n = 0; n < 200; n++) {
+      Map<String, List<Integer>> left = randomMap(random, random.nextInt(300), 400);
+      Map<String, List<Integer>> right = randomMap(random, random.nextInt(300), 400);
+      PersistentMap<String, List<Integer>> l = PersistentMap.of(left);
+      PersistentMap<String, List<Integer>> r = PersistentMap.of(right);
+
+      assertEquals(Listing7_10.Example1.add(left, right), addLeftBiased(l, r).toMap());
+      assertEquals(Listing7_10.Example2.add(left, right), addRightBiased(l, r).toMap());
+      assertEquals(Listing7_17.add(left, right, (a, b) -> Stream.concat(a.stream(), b.stream()).toList()),
+          add(l, r, (a, b) -> Stream.concat(a.stream(), b.stream()).toList()).toMap());
+      assertEquals(left, l.toMap());
+      assertEquals(right, r.toMap());
+      assertEquals(addLeftBiased(l, r).toMap().size(), addLeftBiased(l, r).size());
+    }
+  }
+
+  @Test
+  void behavesLikeAHashMapEvenWhenHashesCollide() {
+    Random random = new Random(42);
+    // "Aa" and "BB" have the same hashCode, and so does every string
+    // built by gluing them together in any order
+    List<String> colliding = new ArrayList<>();
+    for (String a : List.of("Aa", "BB")) for (String b : List.of("Aa", "BB")) for (String c : List.of("Aa", "BB")) {
+      colliding.add(a + b + c);
+    }
+
+    Map<String, Integer> expected = new HashMap<>();
+    PersistentMap<String, Integer> actual = PersistentMap.empty();
+    List<PersistentMap<String, Integer>> history = new ArrayList<>();
+    List<Map<String, Integer>> expectedHistory = new ArrayList<>();
+    for (int i = 0; i < 20_000; i++) {
+      String key = random.nextInt(4) == 0 ? colliding.get(random.nextInt(colliding.size())) : "k" + random.nextInt(5_000);
+      int value = random.nextInt(10);
+      expected.merge(key, value, Integer::sum);
+      actual = actual.merge(key, value, Integer::sum);
+      if (i % 1_000 == 0) {
+        history.add(actual);
+        expectedHistory.add(new HashMap<>(expected));
+      }
+      assertEquals(Optional.ofNullable(expected.get(key)), actual.get(key));
+    }
+    assertEquals(expected, actual.toMap());
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < history.size(); i++) {
+      assertEquals(expectedHistory.get(i), history.get(i).toMap());   // ◄── old versions never change
+    }
+  }
+
+  @Test
+  void iteratesOverEveryEntry() {
+    Random random = new Random(7_11);
+    for (int n = 0; n < 50; n++) {
+      Map<String, List<Integer>> expected = randomMap(random, random.nextInt(2_000), 3_000);
+      expected.put("AaAa", List.of(1));   // ◄── these two collide
+      expected.put("BBBB", List.of(2));
+      Map<String, List<Integer>> actual = new HashMap<>();
+      for (Map.Entry<String, List<Integer>> entry : PersistentMap.of(expected)) {
+        assertEquals(null, actual.put(entry.getKey(), entry.getValue()));
+      }
+      assertEquals(expected, actual);
+    }
+    assertFalse(PersistentMap.empty().iterator().hasNext());
+  }
+
+  @Test
+  void findsTheChangesBetweenTwoVersions() {
+    Random random = new Random(7_12);
+    for (int n = 0; n < 50; n++) {
+      Map<String, Integer> expected = new HashMap<>();
+      PersistentMap<String, Integer> older = PersistentMap.of(Map.of("AaAa", 1, "BBBB", 2));
+      int puts = random.nextInt(3_000);
+      for (int i = 0; i < puts; i++) {
+        older = older.put("k" + random.nextInt(5_000), random.nextInt(10));
+      }
+      PersistentMap<String, Integer> newer = older;
+      int changes = random.nextInt(100);
+      for (int i = 0; i < changes; i++) {
+        String key = random.nextInt(10) == 0 ? "BBBB" : "k" + random.nextInt(6_000);
+        int value = random.nextInt(10);
+        newer = newer.put(key, value);
+        if (!older.get(key).equals(Optional.of(value))) {
+          expected.put(key, value);
+        } else {
+          expected.remove(key);   // ◄── back to how it was
+        }
+      }
+      assertEquals(expected, newer.changesSince(older).toMap());
+      assertEquals(expected, newer.changesSince(PersistentMap.of(older.toMap())).toMap());
+      assertEquals(0, newer.changesSince(newer).size());
+    }
+  }
+
+  @Test
+  void foldsThousandsOfRowsWithoutCopying() {
+    List<RawData> rows = Dedupe.randomRows(new Random(7_17), 100_000, 4);
+    PersistentMap<String, RawData> merged = toMap(rows, RawData::id, Dedupe::merge);
+    assertEquals(new HashSet<>(ParallelDedupe.sequential(rows)), new HashSet<>(merged.toMap().values()));
+
+    // Folding in one more row only makes new nodes on the path down
+    // to it: a Bitmap per level (7 at most, for a 32-bit hash read 5
+    // bits at a time), the entry itself, and a Collision if its whole
+    // hash is taken. Everything else is the old map's.
+    Map<String, RawData> before = merged.toMap();
+    Set<Object> shared = nodes(merged);
+    for (RawData row : Dedupe.randomRows(new Random(7_18), 200, 1)) {
+      PersistentMap<String, RawData> next = merged.merge(row.id(), row, Dedupe::merge);
+      long copied = nodes(next).stream().filter(node -> !shared.contains(node)).count();
+      assertTrue(copied <= 9, () -> copied + " new nodes for " + row);
+    }
+    assertEquals(before, merged.toMap());
+  }
+
+  private static Set<Object> nodes(PersistentMap<?, ?> map) {
+    Set<Object> nodes = Collections.newSetFromMap(new IdentityHashMap<>());
+    Deque<Object> pending = new ArrayDeque<>(List.of(map.root));
+    while (!pending.isEmpty()) {
+      Object node = pending.pop();
+      nodes.add(node);
+      switch (node) {
+        case PersistentMap.Bitmap bitmap -> pending.addAll(Arrays.asList(bitmap.slots()));
+        case PersistentMap.Collision collision -> pending.addAll(Arrays.asList(collision.entries()));
+        default -> {}
+      }
+    }
+    return nodes;
+  }
+
+}
@@ -0,0 +1,305 @@
+package dop.chapter08;
+
+import dop.chapter08.Listing8_50.Account;
+import dop.chapter08.Listing8_50.Attr;
+import dop.chapter08.Listing8_50.Attribute;
+import dop.chapter08.Listing8_50.CountryCode;
+import dop.chapter08.Listing8_50.Region;
+import dop.chapter08.Listing8_50.Rule;
+import dop.chapter08.Listing8_50.SalesChannel;
+import dop.chapter08.Listing8_50.Sector;
+import dop.chapter08.Listing8_50.Segment;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ColumnarAccounts {
+
+  /**
+   * ───────────────────────────────────────────────────────
+   * A columnar store for accounts
+   * ───────────────────────────────────────────────────────
+   * Listing 8.50 answers "does this account match?" one account
+   * at a time. The question we usually have in bulk is the other
+   * way around: "which accounts does this rule match?"
+   *
+   * So, we turn the accounts on their side. Every attribute gets
+   * its own column. Each distinct value in a column is given a small
+   * int code (dictionary encoding), and for every value we keep a
+   * bitmap with one bit per account, set wherever the account has
+   * that value.
+   *
+   *   row      0  1  2  3  4
+   *   REGION   NA EU NA NA EU     codes: NA=0, EU=1
+   *
+   *   NA      [1  0  1  1  0]
+   *   EU      [0  1  0  0  1]
+   *
+   * Then the rule algebra maps straight onto bitmap operations.
+   * Each one chews through 64 accounts per instruction:
+   *
+   *   Equals(a, v)  the bitmap for v
+   *   And(x, y)     x AND y
+   *   Or(x, y)      x OR y
+   *   Not(x)        NOT x
+   *
+   * A bitmap per value costs one bit per account for *every* value,
+   * though, so it only pays for columns with a handful of values.
+   * Open-ended ones (a few thousand sectors, say) would need thousands
+   * of bits per account. So each column keeps bitmaps only while it
+   * has at most MAX_BITMAPS distinct values. Past that, it drops them,
+   * and Equals scans the column's codes instead, which is still one
+   * int compare per account.
+   *
+   * A row costs one int per attribute, plus at most MAX_BITMAPS bits.
+   * That's at most 6 bytes per attribute however big the domain gets,
+   * instead of a record with five references on the heap. Each
+   * distinct value also costs a dictionary entry, but only once, not
+   * once per account.
+   * ───────────────────────────────────────────────────────
+   */
+  static final Map<Attribute, Attr<?>> ATTRIBUTES = new EnumMap<>(Map.of(
+      Attribute.REGION, Listing8_50.region,
+      Attribute.COUNTRY, Listing8_50.country,
+      Attribute.SECTOR, Listing8_50.sector,
+      Attribute.SEGMENT, Listing8_50.segment,
+      Attribute.CHANNEL, Listing8_50.channel));
+
+  static class Column {
+    static final int MAX_BITMAPS = 16;
+
+    // Per distinct value, with compressed references: a slot in
+    // `dictionary` (4), a HashMap node (32) and table slot (4), and a
+    // boxed Integer (16). The values themselves are the caller's, so
+    // they aren't counted.
+    private static final int BYTES_PER_VALUE = 4 + 32 + 4 + 16;
+
+    private final List<Object> dictionary = new ArrayList<>();
+    private final Map<Object, Integer> codes = new HashMap<>();
+    private List<BitSet> bitmaps = new ArrayList<>();   // ◄── null once there are too many values
+    private int[] values = new int[1024];
+    private int size;
+
+    void set(int row, Object value) {
+      Integer code = codes.get(value);
+      if (code == null) {
+        code = dictionary.size();
+        codes.put(value, code);
+        dictionary.add(value);
+        if (bitmaps != null) {
+          if (dictionary.size() > MAX_BITMAPS) {
+            bitmaps = null;
+          } else {
+            bitmaps.add(new BitSet());
+          }
+        }
+      }
+      if (row >= values.length) {
+        values = Arrays.copyOf(values, Math.max(row + 1, values.length * 2));
+      }
+      values[row] = code;
+      size = Math.max(size, row + 1);
+      if (bitmaps != null) {
+        bitmaps.get(code).set(row);
+      }
+    }
+
+    Object get(int row) {
+      return dictionary.get(values[row]);
+    }
+
+    boolean hasBitmaps() {
+      return bitmaps != null;
+    }
+
+    /**
+     * The rows holding `value`, as a fresh bitmap that belongs to
+     * the caller.
+     */
+    BitSet rowsWith(Object value) {
+      Integer code = codes.get(value);
+      if (code == null) {
+        return new BitSet();
+      }
+      if (bitmaps != null) {
+        return (BitSet) bitmaps.get(code).clone();
+      }
+      int wanted = code;
+      BitSet rows = new BitSet(size);
+      for (int row = 0; row < size; row++) {
+        if (values[row] == wanted) {
+          rows.set(row);
+        }
+      }
+      return rows;
+    }
+
+    /**
+     * Roughly what this column holds on to: its codes, its bitmaps,
+     * and its dictionary both ways round. An estimate, not a
+     * measurement.
+     */
+    long bytes() {
+      return (long) values.length * Integer.BYTES
+          + (bitmaps == null ? 0 : bitmaps.stream().mapToLong(bits -> bits.size() / 8).sum())
+          + (long) dictionary.size() * BYTES_PER_VALUE;
+    }
+  }
+
+  static class AccountColumns {
+    private final Map<Attribute, Column> columns = new EnumMap<>(Attribute.class);
+    private int size;
+
+    AccountColumns() {
+      for (Attribute attribute : Attribute.values()) {
+        columns.put(attribute, new Column());
+      }
+    }
+
+    static AccountColumns of(Iterable<Account> accounts) {
+      AccountColumns store = new AccountColumns();
+      accounts.forEach(store::add);
+      return store;
+    }
+
+    void add(Account account) {
+      int row = size++;
+      ATTRIBUTES.forEach((attribute, attr) ->
+          columns.get(attribute).set(row, attr.getter().apply(account)));
+    }
+
+    int size() {
+      return size;
+    }
+
+    Account get(int row) {
+      return new Account(
+          (Region) columns.get(Attribute.REGION).get(row),
+          (CountryCode) columns.get(Attribute.COUNTRY).get(row),
+          (Sector) columns.get(Attribute.SECTOR).get(row),
+          (Segment) columns.get(Attribute.SEGMENT).get(row),
+          (SalesChannel) columns.get(Attribute.CHANNEL).get(row));
+    }
+
+    /**
+     * The rows of every account the rule matches. The result is
+     * always a fresh bitmap that belongs to the caller.
+     */
+    BitSet matching(Rule rule) {
+      return switch (rule) {
+        case Rule.Equals(var attr, var value) -> columns.get(attr.attribute()).rowsWith(value);
+        case Rule.And(Rule a, Rule b) -> {
+          BitSet rows = matching(a);
+          rows.and(matching(b));
+          yield rows;
+        }
+        case Rule.Or(Rule a, Rule b) -> {
+          BitSet rows = matching(a);
+          rows.or(matching(b));
+          yield rows;
+        }
+        case Rule.Not(Rule r) -> {
+          BitSet rows = matching(r);
+          rows.flip(0, size);
+          yield rows;
+        }
+      };
+    }
+
+    long bytes() {
+      return columns.values().stream().mapToLong(Column::bytes).sum();
+    }
+  }
+
+
+  @Test
+  void matchesTheSameAccountsAsTheInterpreter() {
+    Random random = new Random(8_13);
+    Account[] accounts = Generators.randomAccounts(random, 5_000);
+    AccountColumns store = AccountColumns.of(Arrays.asList(accounts));
+
+    for (int i = 0; i < accounts.length; i++) {
+      assertEquals(accounts[i], store.get(i));
+    }
+    for (int depth = 1; depth <= 6; depth++) {
+      for (int n = 0; n < 20; n++) {
+        Rule rule = Generators.randomRule(random, depth);
+        BitSet expected = new BitSet();
+        for (int i = 0; i < accounts.length; i++) {
+          if (CompiledRules.compile(rule).matches(accounts[i])) {
+            expected.set(i);
+          }
+        }
+        assertEquals(expected, store.matching(rule), rule::toString);
+      }
+    }
+  }
+
+  @Test
+  void staysSmallWhenAColumnHasThousandsOfValues() {
+    // Sectors are open-ended, so give them a realistic spread: a few
+    // common ones, and a long tail of thousands of rare ones.
+    Random random = new Random(8_50);
+    List<Sector> sectors = new ArrayList<>();
+    for (int i = 0; i < 5_000; i++) {
+      sectors.add(new Sector("sector-" + i));
+    }
+    Account[] accounts = new Account[100_000];
+    for (int i = 0; i < accounts.length; i++) {
+      Sector sector = sectors.get(random.nextBoolean() ? random.nextInt(10) : random.nextInt(sectors.size()));
+      accounts[i] = new Account(
+          Generators.pick(random, Region.values()),
+          Generators.pick(random, CountryCode.values()),
+          sector,
+          Generators.pick(random, Segment.values()),
+          Generators.pick(random, SalesChannel.values()));
+    }
+    AccountColumns store = AccountColumns.of(Arrays.asList(accounts));
+
+    assertTrue(store.columns.get(Attribute.REGION).hasBitmaps());
+    assertFalse(store.columns.get(Attribute.SECTOR).hasBitmaps());
+    // 6 bytes for each of five attributes, plus the dictionaries. The
+    // 5,000 sectors' entries come to about 3 bytes an account here.
+    assertTrue(store.bytes() / store.size() < 36, () -> store.bytes() / store.size() + " bytes per account");
+
+    for (int n = 0; n < 50; n++) {
+      Rule rule = new Rule.Equals<>(Listing8_50.sector, sectors.get(random.nextInt(sectors.size())))
+          .or(new Rule.Equals<>(Listing8_50.sector, sectors.get(random.nextInt(10))))
+          .and(Generators.randomRule(random, 2));
+      BitSet expected = new BitSet();
+      for (int i = 0; i < accounts.length; i++) {
+        if (CompiledRules.compile(rule).matches(accounts[i])) {
+          expected.set(i);
+        }
+      }
+      assertEquals(expected, store.matching(rule), rule::toString);
+    }
+  }
+
+  @Test
+  void rowsAddedBeforeAColumnDropsItsBitmapsStillMatch() {
+    Column column = new Column();
+    for (int row = 0; row < 1_000; row++) {
+      column.set(row, "value-" + row % (Column.MAX_BITMAPS + 1));
+      assertEquals(row < Column.MAX_BITMAPS, column.hasBitmaps());
+    }
+    BitSet expected = new BitSet();
+    for (int row = 0; row < 1_000; row += Column.MAX_BITMAPS + 1) {
+      expected.set(row);
+    }
+    assertEquals(expected, column.rowsWith("value-0"));
+    assertEquals(new BitSet(), column.rowsWith("never seen"));
+  }
+
+}
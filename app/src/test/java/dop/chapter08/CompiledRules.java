@@ -0,0 +1,96 @@
+package dop.chapter08;
+
+import dop.chapter08.Listing8_50.Account;
+import dop.chapter08.Listing8_50.Result;
+import dop.chapter08.Listing8_50.Rule;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class CompiledRules {
+
+  /**
+   * ───────────────────────────────────────────────────────
+   * Compiling a Rule
+   * ───────────────────────────────────────────────────────
+   * The interpreter in Listing 8.50 does two jobs at once. It
+   * decides whether the rule matched, and it builds up a human
+   * readable explanation of why. The explanation is what makes
+   * the rules debuggable, but it costs two String.format calls
+   * for every Equals node, every time, for every account. When
+   * routing, all anyone looks at is `matched`.
+   *
+   * So, we split the two jobs apart. compile() walks the tree
+   * exactly once and turns it into a chain of plain Java
+   * predicates. Evaluating one of those allocates nothing and
+   * short-circuits And/Or the way Java's && and || do. If someone
+   * wants to know *why*, explain() hands the rule to the original
+   * interpreter, which gives back exactly the same Result it
+   * always did.
+   * ───────────────────────────────────────────────────────
+   */
+  record CompiledRule(Rule rule, Predicate<Account> matcher) {
+    boolean matches(Account account) {
+      return matcher.test(account);
+    }
+
+    Result explain(Account account) {
+      return Listing8_50.interpret(account, rule);
+    }
+  }
+
+  static CompiledRule compile(Rule rule) {
+    return new CompiledRule(rule, toPredicate(rule));
+  }
+
+  static Predicate<Account> toPredicate(Rule rule) {
+    return switch (rule) {
+      case Rule.Equals<?> equals -> equalTo(equals);
+      case Rule.Not(Rule r) -> {
+        Predicate<Account> inner = toPredicate(r);
+        yield account -> !inner.test(account);
+      }
+      case Rule.Or(Rule rule1, Rule rule2) -> {
+        Predicate<Account> a = toPredicate(rule1);
+        Predicate<Account> b = toPredicate(rule2);
+        yield account -> a.test(account) || b.test(account);
+      }
+      case Rule.And(Rule rule1, Rule rule2) -> {
+        Predicate<Account> a = toPredicate(rule1);
+        Predicate<Account> b = toPredicate(rule2);
+        yield account -> a.test(account) && b.test(account);
+      }
+    };
+  }
+
+  // Pulled out into its own method so the type parameter
+  // has a name we can hang on to.
+  private static <A> Predicate<Account> equalTo(Rule.Equals<A> equals) {
+    Function<Account, A> getter = equals.field().getter();
+    A value = equals.value();
+    return account -> getter.apply(account).equals(value);
+  }
+
+
+  @Test
+  void compiledRulesAgreeWithTheInterpreter() {
+    Random random = new Random(8_50);
+    Account[] accounts = Generators.randomAccounts(random, 200);
+    for (int depth = 1; depth <= 6; depth++) {
+      for (int i = 0; i < 100; i++) {
+        Rule rule = Generators.randomRule(random, depth);
+        CompiledRule compiled = compile(rule);
+        for (Account account : accounts) {
+          Result expected = Listing8_50.interpret(account, rule);
+          assertEquals(expected.matched(), compiled.matches(account), rule::toString);
+          assertEquals(expected, compiled.explain(account));
+        }
+      }
+    }
+  }
+
+}
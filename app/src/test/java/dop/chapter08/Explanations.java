@@ -0,0 +1,318 @@
+package dop.chapter08;
+
+import dop.chapter08.Listing8_50.Account;
+import dop.chapter08.Listing8_50.Attribute;
+import dop.chapter08.Listing8_50.CountryCode;
+import dop.chapter08.Listing8_50.Region;
+import dop.chapter08.Listing8_50.Result;
+import dop.chapter08.Listing8_50.Rule;
+import dop.chapter08.Listing8_50.SalesChannel;
+import dop.chapter08.Listing8_50.Sector;
+import dop.chapter08.Listing8_50.Segment;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class Explanations {
+
+  /**
+   * ───────────────────────────────────────────────────────
+   * Explaining a match without building strings
+   * ───────────────────────────────────────────────────────
+   * The interpreter in Listing 8.50 formats `expected` and `found`
+   * at every node. Each parent then copies its children's strings
+   * into a bigger one. A rule nested d levels deep copies its leaves
+   * d times over, and all that text gets built whether or not anyone
+   * ever reads it.
+   *
+   * Instead, the explanation can just be data: a tree that mirrors
+   * the rule, holding what was expected and what was found at each
+   * leaf. Turning it into text is a separate step, done in one pass
+   * into one StringBuilder, and only when someone asks.
+   *
+   * Being data also makes room for a short-circuit mode. Once the
+   * left side of an And is false (or the left side of an Or is true),
+   * the right side can't change the outcome, so we don't evaluate it.
+   * The explanation still says so explicitly:
+   *
+   *   expected=(REGION=NA AND COUNTRY=US)
+   *      found=(REGION=EMEA AND …)        ◄── never looked at
+   * ───────────────────────────────────────────────────────
+   */
+  sealed interface Explanation {
+
+    /**
+     * Every node except a Skipped one, which was never evaluated and
+     * so can't say whether it matched.
+     */
+    sealed interface Evaluated extends Explanation {
+      boolean matched();
+
+      /**
+       * The same Result the interpreter in Listing 8.50 would have
+       * produced (with any skipped branches shown as `…`).
+       */
+      default Result toResult() {
+        return new Result(matched(), expected(), found());
+      }
+    }
+
+    record Check(Attribute attribute, Object value, Object actual, boolean matched) implements Evaluated {}
+
+    // ┌── Like Check, each of these works out `matched` once, when
+    // ▼   it's built, so asking again never walks the subtree. Their
+    //     canonical constructors refuse a `matched` that disagrees
+    //     with the children.
+    record Negated(Evaluated inner, boolean matched) implements Evaluated {
+      public Negated {
+        if (matched == inner.matched()) {
+          throw new IllegalArgumentException("not(" + inner.matched() + ") can't be " + matched);
+        }
+      }
+
+      public Negated(Evaluated inner) {
+        this(inner, !inner.matched());
+      }
+    }
+
+    /**
+     * `b` may be Skipped only when `a` is false, since that's the only
+     * time it can't change the outcome.
+     */
+    record Both(Evaluated a, Explanation b, boolean matched) implements Evaluated {
+      public Both {
+        if (matched != both(a, b)) {
+          throw new IllegalArgumentException("(" + a.matched() + " AND …) can't be " + matched);
+        }
+      }
+
+      public Both(Evaluated a, Explanation b) {
+        this(a, b, both(a, b));
+      }
+
+      private static boolean both(Evaluated a, Explanation b) {
+        return a.matched() && evaluated(b).matched();
+      }
+    }
+
+    /**
+     * `b` may be Skipped only when `a` is true.
+     */
+    record Either(Evaluated a, Explanation b, boolean matched) implements Evaluated {
+      public Either {
+        if (matched != either(a, b)) {
+          throw new IllegalArgumentException("(" + a.matched() + " OR …) can't be " + matched);
+        }
+      }
+
+      public Either(Evaluated a, Explanation b) {
+        this(a, b, either(a, b));
+      }
+
+      private static boolean either(Evaluated a, Explanation b) {
+        return a.matched() || evaluated(b).matched();
+      }
+    }
+
+    /**
+     * A branch that short-circuiting never evaluated. It has no
+     * `matched`, since nobody ever found out.
+     */
+    record Skipped(Rule rule) implements Explanation {}
+
+    private static Evaluated evaluated(Explanation side) {
+      return switch (side) {
+        case Evaluated evaluated -> evaluated;
+        case Skipped skipped -> throw new IllegalArgumentException(
+            "This side decides the outcome, so it can't be skipped: " + skipped.rule());
+      };
+    }
+
+    default String expected() {
+      StringBuilder out = new StringBuilder();
+      renderExpected(this, out);
+      return out.toString();
+    }
+
+    default String found() {
+      StringBuilder out = new StringBuilder();
+      renderFound(this, out);
+      return out.toString();
+    }
+  }
+
+  /**
+   * Evaluates every branch, just like Listing 8.50.
+   */
+  static Explanation.Evaluated explain(Account account, Rule rule) {
+    return switch (rule) {
+      case Rule.Equals(var attr, var value) -> {
+        var found = attr.getter().apply(account);
+        yield new Explanation.Check(attr.attribute(), value, found, found.equals(value));
+      }
+      case Rule.Not(Rule r) -> new Explanation.Negated(explain(account, r));
+      case Rule.And(Rule a, Rule b) -> new Explanation.Both(explain(account, a), explain(account, b));
+      case Rule.Or(Rule a, Rule b) -> new Explanation.Either(explain(account, a), explain(account, b));
+    };
+  }
+
+  /**
+   * Stops evaluating an And or Or as soon as its left side decides
+   * the outcome, and marks the right side as skipped.
+   */
+  static Explanation.Evaluated explainShortCircuit(Account account, Rule rule) {
+    return switch (rule) {
+      case Rule.Equals(var attr, var value) -> {
+        var found = attr.getter().apply(account);
+        yield new Explanation.Check(attr.attribute(), value, found, found.equals(value));
+      }
+      case Rule.Not(Rule r) -> new Explanation.Negated(explainShortCircuit(account, r));
+      case Rule.And(Rule a, Rule b) -> {
+        Explanation.Evaluated left = explainShortCircuit(account, a);
+        yield new Explanation.Both(left, left.matched()
+            ? explainShortCircuit(account, b)
+            : new Explanation.Skipped(b));
+      }
+      case Rule.Or(Rule a, Rule b) -> {
+        Explanation.Evaluated left = explainShortCircuit(account, a);
+        yield new Explanation.Either(left, left.matched()
+            ? new Explanation.Skipped(b)
+            : explainShortCircuit(account, b));
+      }
+    };
+  }
+
+  private static void renderExpected(Explanation explanation, StringBuilder out) {
+    switch (explanation) {
+      case Explanation.Check c -> out.append(c.attribute()).append('=').append(c.value());
+      case Explanation.Negated(var inner, var __) -> {
+        out.append("not(");
+        renderExpected(inner, out);
+        out.append(')');
+      }
+      case Explanation.Both(var a, var b, var __) -> pair(a, " AND ", b, out, Explanations::renderExpected);
+      case Explanation.Either(var a, var b, var __) -> pair(a, " OR ", b, out, Explanations::renderExpected);
+      case Explanation.Skipped(var rule) -> renderRule(rule, out);
+    }
+  }
+
+  private static void renderFound(Explanation explanation, StringBuilder out) {
+    switch (explanation) {
+      case Explanation.Check c -> out.append(c.attribute()).append('=').append(c.actual());
+      //  ┌── matches the interpreter, which reports what
+      //  ▼   was found beneath a not() without wrapping it.
+      case Explanation.Negated(var inner, var __) -> renderFound(inner, out);
+      case Explanation.Both(var a, var b, var __) -> pair(a, " AND ", b, out, Explanations::renderFound);
+      case Explanation.Either(var a, var b, var __) -> pair(a, " OR ", b, out, Explanations::renderFound);
+      case Explanation.Skipped __ -> out.append('…');
+    }
+  }
+
+  private static void renderRule(Rule rule, StringBuilder out) {
+    switch (rule) {
+      case Rule.Equals(var attr, var value) -> out.append(attr.attribute()).append('=').append(value);
+      case Rule.Not(Rule r) -> {
+        out.append("not(");
+        renderRule(r, out);
+        out.append(')');
+      }
+      case Rule.And(Rule a, Rule b) -> {
+        out.append('(');
+        renderRule(a, out);
+        out.append(" AND ");
+        renderRule(b, out);
+        out.append(')');
+      }
+      case Rule.Or(Rule a, Rule b) -> {
+        out.append('(');
+        renderRule(a, out);
+        out.append(" OR ");
+        renderRule(b, out);
+        out.append(')');
+      }
+    }
+  }
+
+  private interface Renderer {
+    void render(Explanation explanation, StringBuilder out);
+  }
+
+  private static void pair(Explanation a, String op, Explanation b, StringBuilder out, Renderer renderer) {
+    out.append('(');
+    renderer.render(a, out);
+    out.append(op);
+    renderer.render(b, out);
+    out.append(')');
+  }
+
+
+  @Test
+  void rendersExactlyWhatTheInterpreterWould() {
+    Random random = new Random(8_36);
+    Account[] accounts = Generators.randomAccounts(random, 50);
+    for (int depth = 1; depth <= 7; depth++) {
+      for (int n = 0; n < 50; n++) {
+        Rule rule = Generators.randomRule(random, depth);
+        for (Account account : accounts) {
+          assertEquals(Listing8_50.interpret(account, rule), explain(account, rule).toResult());
+        }
+      }
+    }
+  }
+
+  @Test
+  void shortCircuitingReachesTheSameVerdict() {
+    Random random = new Random(8_50);
+    Account[] accounts = Generators.randomAccounts(random, 50);
+    for (int depth = 1; depth <= 7; depth++) {
+      for (int n = 0; n < 50; n++) {
+        Rule rule = Generators.randomRule(random, depth);
+        for (Account account : accounts) {
+          Explanation.Evaluated shortCircuit = explainShortCircuit(account, rule);
+          assertEquals(Listing8_50.interpret(account, rule).matched(), shortCircuit.matched());
+          assertEquals(Listing8_50.interpret(account, rule).expected(), shortCircuit.expected());
+        }
+      }
+    }
+  }
+
+  @Test
+  void skippedBranchesAreMarkedInTheExplanation() {
+    Account account = new Account(Region.EMEA, CountryCode.BE, new Sector("Retail"), Segment.Strategic, SalesChannel.Reseller);
+    Rule rule = new Rule.Equals<>(Listing8_50.region, Region.NA)
+        .and(new Rule.Equals<>(Listing8_50.country, CountryCode.US))
+        .or(new Rule.Equals<>(Listing8_50.segment, Segment.Strategic));
+
+    Explanation.Evaluated explanation = explainShortCircuit(account, rule);
+
+    assertEquals(new Result(
+        true,
+        "((REGION=NA AND COUNTRY=US) OR SEGMENT=Strategic)",
+        "((REGION=EMEA AND …) OR SEGMENT=Strategic)"),
+        explanation.toResult());
+    Explanation.Both and = assertInstanceOf(Explanation.Both.class, ((Explanation.Either) explanation).a());
+    assertInstanceOf(Explanation.Skipped.class, and.b());
+  }
+
+  @Test
+  void explanationsCantContradictThemselves() {
+    var yes = new Explanation.Check(Attribute.REGION, Region.NA, Region.NA, true);
+    var no = new Explanation.Check(Attribute.REGION, Region.NA, Region.EMEA, false);
+    var skipped = new Explanation.Skipped(new Rule.Equals<>(Listing8_50.region, Region.NA));
+
+    assertThrows(IllegalArgumentException.class, () -> new Explanation.Negated(yes, true));
+    assertThrows(IllegalArgumentException.class, () -> new Explanation.Both(yes, no, true));
+    assertThrows(IllegalArgumentException.class, () -> new Explanation.Either(no, yes, false));
+
+    // Only a side that can't change the outcome can be skipped
+    assertEquals(false, new Explanation.Both(no, skipped).matched());
+    assertEquals(true, new Explanation.Either(yes, skipped).matched());
+    assertThrows(IllegalArgumentException.class, () -> new Explanation.Both(yes, skipped));
+    assertThrows(IllegalArgumentException.class, () -> new Explanation.Either(no, skipped));
+  }
+
+}
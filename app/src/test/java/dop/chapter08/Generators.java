@@ -0,0 +1,116 @@
+package dop.chapter08;
+
+import dop.chapter08.Listing8_50.Account;
+import dop.chapter08.Listing8_50.Attribute;
+import dop.chapter08.Listing8_50.CountryCode;
+import dop.chapter08.Listing8_50.Region;
+import dop.chapter08.Listing8_50.Rule;
+import dop.chapter08.Listing8_50.SalesChannel;
+import dop.chapter08.Listing8_50.Sector;
+import dop.chapter08.Listing8_50.Segment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+// A note on difference between the book and this repo:
+// Random accounts and rules over Listing 8.50's data model. These
+// get shared by the tests and the benchmarks so that both are
+// exercising the same shapes of data.
+public class Generators {
+  static final int SECTORS = 8;
+
+  public static Account randomAccount(Random random) {
+    return new Account(
+        pick(random, Region.values()),
+        pick(random, CountryCode.values()),
+        new Sector("sector-" + random.nextInt(SECTORS)),
+        pick(random, Segment.values()),
+        pick(random, SalesChannel.values()));
+  }
+
+  public static Account[] randomAccounts(Random random, int count) {
+    Account[] accounts = new Account[count];
+    for (int i = 0; i < count; i++) {
+      accounts[i] = randomAccount(random);
+    }
+    return accounts;
+  }
+
+  public static Rule randomEquals(Random random) {
+    return switch (random.nextInt(5)) {
+      case 0 -> new Rule.Equals<>(Listing8_50.region, pick(random, Region.values()));
+      case 1 -> new Rule.Equals<>(Listing8_50.country, pick(random, CountryCode.values()));
+      case 2 -> new Rule.Equals<>(Listing8_50.sector, new Sector("sector-" + random.nextInt(SECTORS)));
+      case 3 -> new Rule.Equals<>(Listing8_50.segment, pick(random, Segment.values()));
+      default -> new Rule.Equals<>(Listing8_50.channel, pick(random, SalesChannel.values()));
+    };
+  }
+
+  /**
+   * A rule with `depth` levels of And/Or/Not above the Equals leaves.
+   */
+  public static Rule randomRule(Random random, int depth) {
+    if (depth <= 1) {
+      return randomEquals(random);
+    }
+    return switch (random.nextInt(5)) {
+      case 0, 1 -> new Rule.And(randomRule(random, depth - 1), randomRule(random, depth - 1));
+      case 2, 3 -> new Rule.Or(randomRule(random, depth - 1), randomRule(random, depth - 1));
+      default -> new Rule.Not(randomRule(random, depth - 1));
+    };
+  }
+
+  /**
+   * The shape most real routing rules take: a handful of Equals on
+   * different attributes, ANDed together.
+   */
+  public static Rule randomConjunction(Random random, int terms) {
+    List<Rule> equalities = new ArrayList<>();
+    Set<Attribute> used = EnumSet.noneOf(Attribute.class);
+    while (equalities.size() < Math.min(terms, Attribute.values().length)) {
+      Rule.Equals<?> equals = (Rule.Equals<?>) randomEquals(random);
+      if (used.add(equals.field().attribute())) {
+        equalities.add(equals);
+      }
+    }
+    return equalities.stream().reduce(Rule::and).orElseThrow();
+  }
+
+  /**
+   * Rules that follow the properties in Listing 8.5: each one pins
+   * down a different combination of every attribute, so no two of
+   * them can ever match the same account. There are only so many
+   * combinations to hand out, so `count` tops out at a couple thousand.
+   */
+  public static List<Rule> disjointRules(Random random, int count) {
+    List<Rule> rules = new ArrayList<>();
+    for (Region region : Region.values()) {
+      for (CountryCode country : CountryCode.values()) {
+        for (Segment segment : Segment.values()) {
+          for (SalesChannel channel : SalesChannel.values()) {
+            for (int sector = 0; sector < SECTORS; sector++) {
+              rules.add(new Rule.Equals<>(Listing8_50.region, region)
+                  .and(new Rule.Equals<>(Listing8_50.country, country))
+                  .and(new Rule.Equals<>(Listing8_50.segment, segment))
+                  .and(new Rule.Equals<>(Listing8_50.channel, channel))
+                  .and(new Rule.Equals<>(Listing8_50.sector, new Sector("sector-" + sector))));
+            }
+          }
+        }
+      }
+    }
+    if (count > rules.size()) {
+      throw new IllegalArgumentException("Can only make " + rules.size() + " disjoint rules, not " + count);
+    }
+    Collections.shuffle(rules, random);
+    return List.copyOf(rules.subList(0, count));
+  }
+
+  public static <A> A pick(Random random, A[] values) {
+    return values[random.nextInt(values.length)];
+  }
+}
@@ -0,0 +1,319 @@
+package dop.chapter08;
+
+import dop.chapter08.ColumnarAccounts.Column;
+import dop.chapter08.CompiledRules.CompiledRule;
+import dop.chapter08.IndexedRouting.Assignment;
+import dop.chapter08.IndexedRouting.RuleIndex;
+import dop.chapter08.IndexedRouting.SalesOrgId;
+import dop.chapter08.Listing8_50.Account;
+import dop.chapter08.Listing8_50.Attribute;
+import dop.chapter08.Listing8_50.Rule;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IncrementalRouting {
+
+  /**
+   * ───────────────────────────────────────────────────────
+   * Keeping assignments up to date as rules change
+   * ───────────────────────────────────────────────────────
+   * Listing 8.3 says what a rule set *means*: a function from
+   * Account to Optional<SalesOrgId>. The store below keeps that
+   * function's answer for every account, and its one promise is that
+   * the answer always equals IndexedRouting.bruteForce over the
+   * current rules.
+   *
+   * When a rule changes, the function changes only in a few places,
+   * and we can work out which places without trying every account:
+   *
+   *   add R (last)    Only accounts nobody has claimed can move,
+   *                   and only those R could match.
+   *   remove R        Only accounts assigned to R can move. They go
+   *                   to the first later rule which matches.
+   *   edit R to R'    Accounts assigned to R, plus any that R' could
+   *                   match which currently sit with a later rule
+   *                   (or with nobody).
+   *
+   * "Could match" comes from column bitmaps (as in ColumnarAccounts)
+   * and the values a rule allows (IndexedRouting.allowedValues).
+   * Only those accounts get re-evaluated, and each change hands back
+   * the accounts whose assignment actually moved.
+   * ───────────────────────────────────────────────────────
+   */
+  record Reassignment(int account, Optional<SalesOrgId> from, Optional<SalesOrgId> to) {}
+
+  static class AssignmentStore {
+    private final Account[] accounts;
+    private final Map<Attribute, Column> columns = new EnumMap<>(Attribute.class);
+    private final List<Assignment> rules = new ArrayList<>();
+    private final List<CompiledRule> compiled = new ArrayList<>();
+    private final Map<SalesOrgId, Integer> positions = new HashMap<>();
+    private final Map<SalesOrgId, BitSet> assignedTo = new HashMap<>();
+    private final SalesOrgId[] current;
+    private final BitSet unassigned = new BitSet();
+    long examined;   // accounts re-evaluated so far, to show how few it takes
+
+    AssignmentStore(List<Account> accounts, List<Assignment> assignments) {
+      this.accounts = accounts.toArray(Account[]::new);
+      this.current = new SalesOrgId[this.accounts.length];
+      ColumnarAccounts.ATTRIBUTES.forEach((attribute, attr) -> {
+        Column column = new Column();
+        for (int row = 0; row < this.accounts.length; row++) {
+          column.set(row, attr.getter().apply(this.accounts[row]));
+        }
+        columns.put(attribute, column);
+      });
+      for (Assignment assignment : assignments) {
+        append(assignment);
+      }
+      RuleIndex index = new RuleIndex(assignments);
+      for (int row = 0; row < this.accounts.length; row++) {
+        assign(row, index.route(this.accounts[row]).orElse(null));
+      }
+    }
+
+    Optional<SalesOrgId> assignment(int account) {
+      return Optional.ofNullable(current[account]);
+    }
+
+    List<Assignment> rules() {
+      return List.copyOf(rules);
+    }
+
+    /**
+     * Adds a rule after all the others, so it only picks up accounts
+     * that no other rule matches.
+     */
+    List<Reassignment> add(Assignment assignment) {
+      if (positions.containsKey(assignment.org())) {
+        throw new IllegalArgumentException(assignment.org() + " already has a rule");
+      }
+      append(assignment);
+      CompiledRule rule = compiled.getLast();
+      BitSet affected = couldMatch(assignment.rule());
+      affected.and(unassigned);
+
+      List<Reassignment> diff = new ArrayList<>();
+      affected.stream().forEach(row -> {
+        examined++;
+        if (rule.matches(accounts[row])) {
+          diff.add(move(row, assignment.org()));
+        }
+      });
+      return diff;
+    }
+
+    List<Reassignment> remove(SalesOrgId org) {
+      int position = positionOf(org);
+      BitSet affected = (BitSet) assignedTo.get(org).clone();
+      rules.remove(position);
+      compiled.remove(position);
+      positions.remove(org);
+      for (int i = position; i < rules.size(); i++) {
+        positions.put(rules.get(i).org(), i);
+      }
+
+      List<Reassignment> diff = new ArrayList<>();
+      affected.stream().forEach(row -> diff.add(move(row, routeFrom(position, accounts[row]))));
+      assignedTo.remove(org);
+      return diff;
+    }
+
+    /**
+     * Swaps the rule an org owns for a new one, keeping its place in
+     * the order.
+     */
+    List<Reassignment> edit(SalesOrgId org, Rule rule) {
+      int position = positionOf(org);
+      rules.set(position, new Assignment(rule, org));
+      compiled.set(position, CompiledRules.compile(rule));
+
+      BitSet losing = (BitSet) assignedTo.get(org).clone();
+      BitSet gaining = couldMatch(rule);
+      gaining.andNot(losing);
+
+      List<Reassignment> diff = new ArrayList<>();
+      losing.stream().forEach(row -> {
+        SalesOrgId to = routeFrom(position, accounts[row]);
+        if (!org.equals(to)) {
+          diff.add(move(row, to));
+        }
+      });
+      gaining.stream()
+          .filter(row -> current[row] == null || positions.get(current[row]) > position)
+          .forEach(row -> {
+            examined++;
+            if (compiled.get(position).matches(accounts[row])) {
+              diff.add(move(row, org));
+            }
+          });
+      diff.sort((a, b) -> Integer.compare(a.account(), b.account()));
+      return diff;
+    }
+
+    private void append(Assignment assignment) {
+      positions.put(assignment.org(), rules.size());
+      rules.add(assignment);
+      compiled.add(CompiledRules.compile(assignment.rule()));
+      assignedTo.put(assignment.org(), new BitSet());
+    }
+
+    private int positionOf(SalesOrgId org) {
+      Integer position = positions.get(org);
+      if (position == null) {
+        throw new IllegalArgumentException(org + " has no rule");
+      }
+      return position;
+    }
+
+    /**
+     * The first rule at or after `position` which matches. Every rule
+     * before it has already been ruled out for the accounts we ask about.
+     */
+    private SalesOrgId routeFrom(int position, Account account) {
+      examined++;
+      for (int i = position; i < compiled.size(); i++) {
+        if (compiled.get(i).matches(account)) {
+          return rules.get(i).org();
+        }
+      }
+      return null;
+    }
+
+    private Reassignment move(int row, SalesOrgId to) {
+      SalesOrgId from = current[row];
+      if (from != null) {
+        assignedTo.get(from).clear(row);
+      }
+      assign(row, to);
+      return new Reassignment(row, Optional.ofNullable(from), Optional.ofNullable(to));
+    }
+
+    private void assign(int row, SalesOrgId org) {
+      current[row] = org;
+      if (org == null) {
+        unassigned.set(row);
+      } else {
+        unassigned.clear(row);
+        assignedTo.get(org).set(row);
+      }
+    }
+
+    /**
+     * Every account whose values fall inside what the rule allows.
+     * Like the rule index, this is an over-estimate, never an answer.
+     */
+    private BitSet couldMatch(Rule rule) {
+      BitSet rows = new BitSet(accounts.length);
+      rows.set(0, accounts.length);
+      for (var entry : RuleIndex.allowedValues(rule).entrySet()) {
+        rows.and(rowsWithAny(columns.get(entry.getKey()), entry.getValue()));
+      }
+      return rows;
+    }
+
+    private static BitSet rowsWithAny(Column column, Set<Object> values) {
+      BitSet rows = new BitSet();
+      for (Object value : values) {
+        rows.or(column.rowsWith(value));
+      }
+      return rows;
+    }
+  }
+
+
+  private static List<Assignment> assignments(List<Rule> rules, int from) {
+    List<Assignment> assignments = new ArrayList<>();
+    for (int i = 0; i < rules.size(); i++) {
+      assignments.add(new Assignment(rules.get(i), new SalesOrgId("org-" + (from + i))));
+    }
+    return assignments;
+  }
+
+  private static Rule randomRule(Random random) {
+    return random.nextInt(4) == 0
+        ? Generators.randomRule(random, 1 + random.nextInt(4))
+        : Generators.randomConjunction(random, 1 + random.nextInt(3));
+  }
+
+  @Test
+  void staysInStepWithRoutingFromScratch() {
+    Random random = new Random(8_03);
+    List<Account> accounts = Arrays.asList(Generators.randomAccounts(random, 2_000));
+    List<Assignment> initial = new ArrayList<>();
+    for (int i = 0; i < 40; i++) {
+      initial.add(new Assignment(randomRule(random), new SalesOrgId("org-" + i)));
+    }
+    AssignmentStore store = new AssignmentStore(accounts, initial);
+
+    for (int step = 0; step < 150; step++) {
+      List<Optional<SalesOrgId>> before = new ArrayList<>();
+      for (int row = 0; row < accounts.size(); row++) {
+        before.add(store.assignment(row));
+      }
+      List<Assignment> rules = store.rules();
+      SalesOrgId someone = rules.get(random.nextInt(rules.size())).org();
+      List<Reassignment> diff = switch (random.nextInt(3)) {
+        case 0 -> store.add(new Assignment(randomRule(random), new SalesOrgId("new-" + step)));
+        case 1 -> rules.size() > 5 ? store.remove(someone) : List.of();
+        default -> store.edit(someone, randomRule(random));
+      };
+
+      List<Reassignment> expected = new ArrayList<>();
+      for (int row = 0; row < accounts.size(); row++) {
+        Optional<SalesOrgId> after = IndexedRouting.bruteForce(store.rules(), accounts.get(row));
+        assertEquals(after, store.assignment(row));
+        if (!after.equals(before.get(row))) {
+          expected.add(new Reassignment(row, before.get(row), after));
+        }
+      }
+      assertEquals(expected, diff);
+    }
+  }
+
+  @Test
+  void onlyLooksAtAccountsTheChangeCouldReach() {
+    Random random = new Random(42);
+    List<Account> accounts = Arrays.asList(Generators.randomAccounts(random, 50_000));
+    List<Rule> rules = Generators.disjointRules(random, 1_000);
+    AssignmentStore store = new AssignmentStore(accounts, assignments(rules.subList(0, 900), 0));
+
+    store.examined = 0;
+    int moved = 0;
+    for (Assignment added : assignments(rules.subList(900, 1_000), 900)) {
+      moved += store.add(added).size();
+    }
+    for (int i = 0; i < 100; i++) {
+      moved += store.edit(new SalesOrgId("org-" + i), rules.get(999 - i)).size();
+    }
+    long everything = 200L * accounts.size();
+    assertTrue(moved > 0);
+    assertTrue(store.examined * 100 < everything);
+  }
+
+  @Test
+  void refusesChangesToRulesItDoesNotHave() {
+    AssignmentStore store = new AssignmentStore(List.of(), List.of());
+    Rule rule = Generators.randomConjunction(new Random(1), 2);
+    store.add(new Assignment(rule, new SalesOrgId("a")));
+
+    assertThrows(IllegalArgumentException.class, () -> store.add(new Assignment(rule, new SalesOrgId("a"))));
+    assertThrows(IllegalArgumentException.class, () -> store.remove(new SalesOrgId("b")));
+    assertThrows(IllegalArgumentException.class, () -> store.edit(new SalesOrgId("b"), rule));
+  }
+
+}
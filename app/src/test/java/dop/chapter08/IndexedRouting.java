@@ -0,0 +1,312 @@
+package dop.chapter08;
+
+import dop.chapter08.CompiledRules.CompiledRule;
+import dop.chapter08.Listing8_50.Account;
+import dop.chapter08.Listing8_50.Attribute;
+import dop.chapter08.Listing8_50.Rule;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IndexedRouting {
+
+  /**
+   * ───────────────────────────────────────────────────────
+   * Routing accounts to Sales Orgs
+   * ───────────────────────────────────────────────────────
+   * Each SalesOrgId owns a Rule (Listing 8.50). Routing an account
+   * means finding the rule which matches it. Done the obvious way,
+   * that's every rule against every account.
+   *
+   * Rules are checked in the order they were assigned, and the
+   * first match wins. The properties in Listing 8.5 say that at
+   * most one rule should ever match, so "first" only matters when
+   * the rules are broken. But when they are, we still want the
+   * same answer every time.
+   * ───────────────────────────────────────────────────────
+   */
+  record SalesOrgId(String value) {}
+  record Assignment(Rule rule, SalesOrgId org) {}
+
+  static Optional<SalesOrgId> bruteForce(List<Assignment> assignments, Account account) {
+    for (Assignment assignment : assignments) {
+      if (Listing8_50.interpret(account, assignment.rule()).matched()) {
+        return Optional.of(assignment.org());
+      }
+    }
+    return Optional.empty();
+  }
+
+
+  /**
+   * ───────────────────────────────────────────────────────
+   * Indexing rules by the values they test
+   * ───────────────────────────────────────────────────────
+   * Most rules are conjunctions like REGION=EMEA AND SEGMENT=Public.
+   * No account outside EMEA could ever match that rule, so there's
+   * no point in asking. If we file every rule under the attribute
+   * values it requires, each account only has to look in the
+   * handful of buckets matching its own values.
+   *
+   * To find out what a rule requires, we walk it and work out,
+   * for each attribute, which values could possibly let it match:
+   *
+   *   Equals(a, v)  a ∈ {v}
+   *   And(x, y)     whatever both x and y allow (intersection)
+   *   Or(x, y)      whatever either x or y allows (union)
+   *   Not(x)        anything at all
+   *
+   * That's always a safe over-estimate. A rule can only match if
+   * the account's values are in those sets, but being in them doesn't
+   * prove that it matches. So the index hands back candidates, and
+   * each candidate still gets checked with its compiled predicate.
+   * The index only decides what we skip. It never decides a match
+   * on its own, which is why it always agrees with brute force.
+   *
+   * The rules are then arranged into a discrimination tree. Each
+   * branch splits on one attribute: rules which care about it are
+   * filed under the values they allow, and rules which don't care
+   * go down a separate "any" path. An account follows the path for
+   * its own value *and* the "any" path, so it visits a few dozen
+   * nodes at most, and only ever sees the rules which survive every
+   * split along the way.
+   *
+   *                 REGION
+   *          ┌────────┼──────────┐
+   *         NA      EMEA        any
+   *          │        │          │
+   *       SEGMENT  SEGMENT    CHANNEL
+   *        ...      ...        ...
+   *
+   * Each branch splits on whichever attribute the most of its rules
+   * constrain, and it stops once a node is down to a handful of rules.
+   * ───────────────────────────────────────────────────────
+   */
+  static class RuleIndex {
+    private static final int LEAF_SIZE = 4;
+
+    sealed interface Node {}
+    record Leaf(int[] rules) implements Node {}
+    record Branch(Function<Account, ?> getter, Map<Object, Node> byValue, Node any) implements Node {}
+
+    private final CompiledRule[] rules;
+    private final SalesOrgId[] orgs;
+    private final Node root;
+
+    RuleIndex(List<Assignment> assignments) {
+      this.rules = new CompiledRule[assignments.size()];
+      this.orgs = new SalesOrgId[assignments.size()];
+      Map<Attribute, Function<Account, ?>> getters = new EnumMap<>(Attribute.class);
+      List<Map<Attribute, Set<Object>>> allowed = new ArrayList<>();
+      List<Integer> indexable = new ArrayList<>();
+
+      for (int i = 0; i < assignments.size(); i++) {
+        Rule rule = assignments.get(i).rule();
+        rules[i] = CompiledRules.compile(rule);
+        orgs[i] = assignments.get(i).org();
+        collectGetters(rule, getters);
+        allowed.add(allowedValues(rule));
+        // An empty set means the rule contradicts itself (REGION=NA AND
+        // REGION=EMEA, say) and can never match, so it's left out entirely.
+        if (allowed.get(i).values().stream().noneMatch(Set::isEmpty)) {
+          indexable.add(i);
+        }
+      }
+      this.root = build(indexable, EnumSet.allOf(Attribute.class), allowed, getters);
+    }
+
+    private static Node build(
+        List<Integer> ids,
+        Set<Attribute> remaining,
+        List<Map<Attribute, Set<Object>>> allowed,
+        Map<Attribute, Function<Account, ?>> getters) {
+      Optional<Attribute> split = remaining.stream()
+          .filter(attribute -> ids.stream().anyMatch(i -> allowed.get(i).containsKey(attribute)))
+          .max(Comparator.comparingLong(attribute ->
+              ids.stream().filter(i -> allowed.get(i).containsKey(attribute)).count()));
+      if (ids.size() <= LEAF_SIZE || split.isEmpty()) {
+        return new Leaf(toArray(ids));
+      }
+      Attribute attribute = split.get();
+      Set<Attribute> rest = EnumSet.copyOf(remaining);
+      rest.remove(attribute);
+
+      Map<Object, List<Integer>> byValue = new HashMap<>();
+      List<Integer> any = new ArrayList<>();
+      for (int i : ids) {
+        Set<Object> values = allowed.get(i).get(attribute);
+        if (values == null) {
+          any.add(i);
+        } else {
+          values.forEach(value -> byValue.computeIfAbsent(value, __ -> new ArrayList<>()).add(i));
+        }
+      }
+      Map<Object, Node> children = new HashMap<>();
+      byValue.forEach((value, matching) -> children.put(value, build(matching, rest, allowed, getters)));
+      return new Branch(getters.get(attribute), children, build(any, rest, allowed, getters));
+    }
+
+    Optional<SalesOrgId> route(Account account) {
+      int first = firstMatch(root, account, Integer.MAX_VALUE);
+      return first == Integer.MAX_VALUE ? Optional.empty() : Optional.of(orgs[first]);
+    }
+
+    // Rather than gathering up and sorting the candidates, we just
+    // remember the earliest rule which matched so far. Leaves are in
+    // assignment order, so we can stop looking in one as soon as we
+    // pass that point.
+    private int firstMatch(Node node, Account account, int best) {
+      return switch (node) {
+        case Leaf(int[] ids) -> {
+          for (int i : ids) {
+            if (i >= best) break;
+            if (rules[i].matches(account)) yield i;
+          }
+          yield best;
+        }
+        case Branch(var getter, var byValue, var any) -> {
+          Node matching = byValue.get(getter.apply(account));
+          int found = matching == null ? best : firstMatch(matching, account, best);
+          yield firstMatch(any, account, found);
+        }
+      };
+    }
+
+    /**
+     * Every rule which could match the account, in assignment order.
+     */
+    int[] candidates(Account account) {
+      List<int[]> leaves = new ArrayList<>();
+      collect(root, account, leaves);
+      int[] merged = new int[leaves.stream().mapToInt(leaf -> leaf.length).sum()];
+      int at = 0;
+      for (int[] leaf : leaves) {
+        System.arraycopy(leaf, 0, merged, at, leaf.length);
+        at += leaf.length;
+      }
+      Arrays.sort(merged);   // ◄── keeps "first match wins" in assignment order
+      return merged;
+    }
+
+    private static void collect(Node node, Account account, List<int[]> leaves) {
+      switch (node) {
+        case Leaf(int[] ids) -> {
+          if (ids.length > 0) leaves.add(ids);
+        }
+        case Branch(var getter, var byValue, var any) -> {
+          Node matching = byValue.get(getter.apply(account));
+          if (matching != null) {
+            collect(matching, account, leaves);
+          }
+          collect(any, account, leaves);
+        }
+      }
+    }
+
+    /**
+     * For each attribute the rule constrains, the only values it could
+     * possibly match. Attributes missing from the map are unconstrained.
+     */
+    static Map<Attribute, Set<Object>> allowedValues(Rule rule) {
+      return switch (rule) {
+        case Rule.Equals(var attr, var value) -> {
+          Map<Attribute, Set<Object>> allowed = new EnumMap<>(Attribute.class);
+          allowed.put(attr.attribute(), Set.of(value));
+          yield allowed;
+        }
+        case Rule.Not __ -> new EnumMap<>(Attribute.class);
+        case Rule.And(Rule a, Rule b) -> {
+          Map<Attribute, Set<Object>> allowed = allowedValues(a);
+          allowedValues(b).forEach((attribute, values) -> allowed.merge(attribute, values, (x, y) -> {
+            Set<Object> both = new HashSet<>(x);
+            both.retainAll(y);
+            return both;
+          }));
+          yield allowed;
+        }
+        case Rule.Or(Rule a, Rule b) -> {
+          Map<Attribute, Set<Object>> left = allowedValues(a);
+          Map<Attribute, Set<Object>> right = allowedValues(b);
+          Map<Attribute, Set<Object>> allowed = new EnumMap<>(Attribute.class);
+          left.forEach((attribute, values) -> {
+            if (right.containsKey(attribute)) {
+              Set<Object> either = new HashSet<>(values);
+              either.addAll(right.get(attribute));
+              allowed.put(attribute, either);
+            }
+          });
+          yield allowed;
+        }
+      };
+    }
+
+    private static void collectGetters(Rule rule, Map<Attribute, Function<Account, ?>> getters) {
+      switch (rule) {
+        case Rule.Equals(var attr, var __) -> getters.putIfAbsent(attr.attribute(), attr.getter());
+        case Rule.Not(Rule r) -> collectGetters(r, getters);
+        case Rule.Or(Rule a, Rule b) -> { collectGetters(a, getters); collectGetters(b, getters); }
+        case Rule.And(Rule a, Rule b) -> { collectGetters(a, getters); collectGetters(b, getters); }
+      }
+    }
+
+    private static int[] toArray(List<Integer> ids) {
+      return ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+  }
+
+
+  @Test
+  void routesTheSameAsBruteForce() {
+    Random random = new Random(8_11);
+    for (int depth = 1; depth <= 5; depth++) {
+      List<Assignment> assignments = new ArrayList<>();
+      for (int i = 0; i < 300; i++) {
+        Rule rule = i % 3 == 0
+            ? Generators.randomRule(random, depth)
+            : Generators.randomConjunction(random, 1 + random.nextInt(3));
+        assignments.add(new Assignment(rule, new SalesOrgId("org-" + i)));
+      }
+      RuleIndex index = new RuleIndex(assignments);
+      for (Account account : Generators.randomAccounts(random, 500)) {
+        assertEquals(bruteForce(assignments, account), index.route(account));
+      }
+    }
+  }
+
+  @Test
+  void accountsOnlyLookAtTheRulesThatCouldMatchThem() {
+    Random random = new Random(42);
+    List<Rule> rules = Generators.disjointRules(random, 2_000);
+    List<Assignment> assignments = new ArrayList<>();
+    for (int i = 0; i < rules.size(); i++) {
+      assignments.add(new Assignment(rules.get(i), new SalesOrgId("org-" + i)));
+    }
+    RuleIndex index = new RuleIndex(assignments);
+    Account[] accounts = Generators.randomAccounts(random, 1_000);
+
+    double averageCandidates = Arrays.stream(accounts)
+        .mapToInt(account -> index.candidates(account).length)
+        .average()
+        .orElseThrow();
+    assertTrue(averageCandidates <= RuleIndex.LEAF_SIZE);
+    for (Account account : Arrays.copyOf(accounts, 100)) {
+      assertEquals(bruteForce(assignments, account), index.route(account));
+    }
+  }
+
+}
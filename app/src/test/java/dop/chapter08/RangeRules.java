@@ -0,0 +1,385 @@
+package dop.chapter08;
+
+import dop.chapter08.ColumnarAccounts.Column;
+import dop.chapter08.Listing8_50.CountryCode;
+import dop.chapter08.Listing8_50.Region;
+import dop.chapter08.Listing8_50.Result;
+import dop.chapter08.Listing8_50.SalesChannel;
+import dop.chapter08.Listing8_50.Sector;
+import dop.chapter08.Listing8_50.Segment;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import static dop.chapter08.Generators.pick;
+import static java.lang.String.format;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class RangeRules {
+
+  /**
+   * ───────────────────────────────────────────────────────
+   * The data model with comparisons
+   * ───────────────────────────────────────────────────────
+   * Listing 8.50's model, plus the total spend from Listing 8.61
+   * and the GreaterThan/LessThan rules from Listing 8.62. eval()
+   * is the interpreter from Listing 8.65, filled out for every case.
+   * ───────────────────────────────────────────────────────
+   */
+  enum Attribute {REGION, COUNTRY, SECTOR, SEGMENT, CHANNEL, TOTAL_SPEND}
+
+  record USD(BigDecimal value) implements Comparable<USD> {
+    USD {
+      // Always to the cent, so that equals (which BigDecimal bases on
+      // scale, too) agrees with compareTo. The indexes rely on that.
+      // Fractions of a cent are refused rather than rounded away, or
+      // two different thresholds could quietly become the same one.
+      value = value.setScale(2, RoundingMode.UNNECESSARY);
+    }
+
+    static USD of(double value) {
+      return new USD(BigDecimal.valueOf(value));
+    }
+
+    @Override
+    public int compareTo(USD other) {
+      return value.compareTo(other.value);
+    }
+  }
+
+  record Account(Region region, CountryCode country, Sector sector, Segment segment, SalesChannel channel, USD totalSpend) {}
+  record Attr<A>(Attribute attribute, Function<Account, A> getter) {}
+
+  sealed interface Rule {
+    record Equals<A>(Attr<A> field, A value) implements Rule {}
+    record GreaterThan<A extends Comparable<A>>(Attr<A> attr, A value) implements Rule {}
+    record LessThan<A extends Comparable<A>>(Attr<A> attr, A value) implements Rule {}
+    record Or(Rule a, Rule b) implements Rule {}
+    record And(Rule a, Rule b) implements Rule {}
+    record Not(Rule rule) implements Rule {}
+    default Rule or(Rule b) {
+      return new Or(this, b);
+    }
+    default Rule and(Rule b) {
+      return new And(this, b);
+    }
+  }
+
+  static Attr<Region> region = new Attr<>(Attribute.REGION, Account::region);
+  static Attr<CountryCode> country = new Attr<>(Attribute.COUNTRY, Account::country);
+  static Attr<Sector> sector = new Attr<>(Attribute.SECTOR, Account::sector);
+  static Attr<Segment> segment = new Attr<>(Attribute.SEGMENT, Account::segment);
+  static Attr<SalesChannel> channel = new Attr<>(Attribute.CHANNEL, Account::channel);
+  static Attr<USD> totalSpend = new Attr<>(Attribute.TOTAL_SPEND, Account::totalSpend);
+
+  static Result eval(Rule rule, Account account) {
+    return switch (rule) {
+      case Rule.Equals(var attr, var value) -> {
+        var found = attr.getter().apply(account);
+        yield new Result(found.equals(value),
+            format("%s=%s", attr.attribute(), value),
+            format("%s=%s", attr.attribute(), found));
+      }
+      case Rule.GreaterThan<?> gt -> new Result(compareTo(gt, account) > 0,
+          format("%s>%s", gt.attr().attribute(), gt.value()),
+          format("%s=%s", gt.attr().attribute(), gt.attr().getter().apply(account)));
+      case Rule.LessThan<?> lt -> new Result(compareTo(lt, account) < 0,
+          format("%s<%s", lt.attr().attribute(), lt.value()),
+          format("%s=%s", lt.attr().attribute(), lt.attr().getter().apply(account)));
+      case Rule.Not(Rule r) -> {
+        Result res = eval(r, account);
+        yield new Result(!res.matched(), format("not(%s)", res.expected()), res.found());
+      }
+      case Rule.Or(Rule rule1, Rule rule2) -> {
+        Result a = eval(rule1, account);
+        Result b = eval(rule2, account);
+        yield new Result(a.matched() || b.matched(),
+            format("(%s OR %s)", a.expected(), b.expected()),
+            format("(%s OR %s)", a.found(), b.found()));
+      }
+      case Rule.And(Rule rule1, Rule rule2) -> {
+        Result a = eval(rule1, account);
+        Result b = eval(rule2, account);
+        yield new Result(a.matched() && b.matched(),
+            format("(%s AND %s)", a.expected(), b.expected()),
+            format("(%s AND %s)", a.found(), b.found()));
+      }
+    };
+  }
+
+  // Listing 8.64's trick for getting Java to see both sides as the same A
+  static <A extends Comparable<A>> int compareTo(Rule.GreaterThan<A> gt, Account account) {
+    return gt.attr().getter().apply(account).compareTo(gt.value());
+  }
+
+  static <A extends Comparable<A>> int compareTo(Rule.LessThan<A> lt, Account account) {
+    return lt.attr().getter().apply(account).compareTo(lt.value());
+  }
+
+
+  /**
+   * ───────────────────────────────────────────────────────
+   * Range indexes
+   * ───────────────────────────────────────────────────────
+   * The bitmaps from ColumnarAccounts are great for attributes
+   * with a handful of values, and hopeless for something like total
+   * spend, where nearly every account has its own value. So those
+   * attributes get a sorted index instead. It's every row, ordered
+   * by its value:
+   *
+   *   values  [ 1k   8k   8k   40k  2M   9M ]
+   *   rows    [ 17   3    42   8    0    29 ]
+   *                       ▲
+   *                       └── GreaterThan(8k) starts here. Binary
+   *                           search finds the spot, and everything
+   *                           to the right is the answer.
+   *
+   * The answer is handed back as a bitmap, the same as Equals, so
+   * ranges and equalities mix freely under And/Or/Not.
+   *
+   * Comparisons on the low-cardinality attributes (REGION > NA, say)
+   * don't need a new index. They OR together the bitmaps of every
+   * value on the right side.
+   * ───────────────────────────────────────────────────────
+   */
+  static class SortedIndex {
+    private final Comparable<Object>[] values;
+    private final int[] rows;
+    private final int size;
+
+    @SuppressWarnings("unchecked")
+    SortedIndex(List<? extends Comparable<?>> column) {
+      Integer[] order = new Integer[column.size()];
+      for (int i = 0; i < order.length; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, (a, b) -> ((Comparable<Object>) column.get(a)).compareTo(column.get(b)));
+      this.size = order.length;
+      this.values = (Comparable<Object>[]) new Comparable<?>[size];
+      this.rows = new int[size];
+      for (int i = 0; i < size; i++) {
+        rows[i] = order[i];
+        values[i] = (Comparable<Object>) column.get(order[i]);
+      }
+    }
+
+    BitSet greaterThan(Object value) {
+      return between(firstAbove(value), size);
+    }
+
+    BitSet lessThan(Object value) {
+      return between(0, firstAtOrAbove(value));
+    }
+
+    BitSet equalTo(Object value) {
+      return between(firstAtOrAbove(value), firstAbove(value));
+    }
+
+    private int firstAtOrAbove(Object value) {
+      int low = 0;
+      int high = size;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (values[mid].compareTo(value) < 0) low = mid + 1; else high = mid;
+      }
+      return low;
+    }
+
+    private int firstAbove(Object value) {
+      int low = 0;
+      int high = size;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (values[mid].compareTo(value) <= 0) low = mid + 1; else high = mid;
+      }
+      return low;
+    }
+
+    private BitSet between(int from, int to) {
+      BitSet result = new BitSet(size);
+      if (to - from <= size / 2) {
+        for (int i = from; i < to; i++) {
+          result.set(rows[i]);
+        }
+      } else {
+        // Most rows are in range, so it's cheaper to start
+        // from everything and knock out the ones that aren't.
+        result.set(0, size);
+        for (int i = 0; i < from; i++) {
+          result.clear(rows[i]);
+        }
+        for (int i = to; i < size; i++) {
+          result.clear(rows[i]);
+        }
+      }
+      return result;
+    }
+  }
+
+  static class IndexedAccounts {
+    private final int size;
+    private final Map<Attribute, Column> bitmaps = new EnumMap<>(Attribute.class);
+    private final Map<Attribute, SortedIndex> sorted = new EnumMap<>(Attribute.class);
+    private final Map<Attribute, List<Object>> dictionaries = new EnumMap<>(Attribute.class);
+
+    IndexedAccounts(List<Account> accounts, List<Attr<?>> bitmapped, List<Attr<? extends Comparable<?>>> ranged) {
+      this.size = accounts.size();
+      for (Attr<?> attr : bitmapped) {
+        Column column = new Column();
+        for (int row = 0; row < size; row++) {
+          column.set(row, attr.getter().apply(accounts.get(row)));
+        }
+        bitmaps.put(attr.attribute(), column);
+        dictionaries.put(attr.attribute(), accounts.stream().map(attr.getter()).distinct().map(v -> (Object) v).toList());
+      }
+      for (Attr<? extends Comparable<?>> attr : ranged) {
+        sorted.put(attr.attribute(), new SortedIndex(accounts.stream().map(attr.getter()).toList()));
+      }
+    }
+
+    static IndexedAccounts of(List<Account> accounts) {
+      return new IndexedAccounts(accounts, List.of(region, country, sector, segment, channel), List.of(totalSpend));
+    }
+
+    BitSet matching(Rule rule) {
+      return switch (rule) {
+        case Rule.Equals(var attr, var value) -> sorted.containsKey(attr.attribute())
+            ? sorted.get(attr.attribute()).equalTo(value)
+            : bitmaps.get(attr.attribute()).rowsWith(value);
+        case Rule.GreaterThan(var attr, var value) -> sorted.containsKey(attr.attribute())
+            ? sorted.get(attr.attribute()).greaterThan(value)
+            : valuesWhere(attr.attribute(), found -> compare(found, value) > 0);
+        case Rule.LessThan(var attr, var value) -> sorted.containsKey(attr.attribute())
+            ? sorted.get(attr.attribute()).lessThan(value)
+            : valuesWhere(attr.attribute(), found -> compare(found, value) < 0);
+        case Rule.And(Rule a, Rule b) -> {
+          BitSet rows = matching(a);
+          rows.and(matching(b));
+          yield rows;
+        }
+        case Rule.Or(Rule a, Rule b) -> {
+          BitSet rows = matching(a);
+          rows.or(matching(b));
+          yield rows;
+        }
+        case Rule.Not(Rule r) -> {
+          BitSet rows = matching(r);
+          rows.flip(0, size);
+          yield rows;
+        }
+      };
+    }
+
+    private BitSet valuesWhere(Attribute attribute, Predicate<Object> test) {
+      BitSet rows = new BitSet(size);
+      for (Object value : dictionaries.get(attribute)) {
+        if (test.test(value)) {
+          rows.or(bitmaps.get(attribute).rowsWith(value));
+        }
+      }
+      return rows;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Object found, Object value) {
+      return ((Comparable<Object>) found).compareTo(value);
+    }
+  }
+
+
+  /**
+   * ───────────────────────────────────────────────────────
+   * Random accounts and rules for this model
+   * ───────────────────────────────────────────────────────
+   */
+  static Account randomAccount(Random random) {
+    // Spend is spread log-uniformly from $1k to $50M, rounded to the dollar
+    double spend = Math.rint(Math.exp(Math.log(1_000) + random.nextDouble() * Math.log(50_000)));
+    return new Account(
+        pick(random, Region.values()),
+        pick(random, CountryCode.values()),
+        new Sector("sector-" + random.nextInt(Generators.SECTORS)),
+        pick(random, Segment.values()),
+        pick(random, SalesChannel.values()),
+        USD.of(spend));
+  }
+
+  static Rule randomComparison(Random random) {
+    return switch (random.nextInt(8)) {
+      case 0 -> new Rule.Equals<>(region, pick(random, Region.values()));
+      case 1 -> new Rule.Equals<>(country, pick(random, CountryCode.values()));
+      case 2 -> new Rule.Equals<>(sector, new Sector("sector-" + random.nextInt(Generators.SECTORS)));
+      case 3 -> new Rule.Equals<>(segment, pick(random, Segment.values()));
+      case 4 -> new Rule.LessThan<>(channel, pick(random, SalesChannel.values()));
+      case 5 -> new Rule.GreaterThan<>(totalSpend, randomAccount(random).totalSpend());
+      case 6 -> new Rule.LessThan<>(totalSpend, randomAccount(random).totalSpend());
+      default -> new Rule.Equals<>(totalSpend, randomAccount(random).totalSpend());
+    };
+  }
+
+  static Rule randomRule(Random random, int depth) {
+    if (depth <= 1) {
+      return randomComparison(random);
+    }
+    return switch (random.nextInt(5)) {
+      case 0, 1 -> new Rule.And(randomRule(random, depth - 1), randomRule(random, depth - 1));
+      case 2, 3 -> new Rule.Or(randomRule(random, depth - 1), randomRule(random, depth - 1));
+      default -> new Rule.Not(randomRule(random, depth - 1));
+    };
+  }
+
+
+  @Test
+  void indexesAgreeWithTheInterpreter() {
+    Random random = new Random(8_62);
+    List<Account> accounts = Stream.generate(() -> randomAccount(random)).limit(2_000).toList();
+    IndexedAccounts index = IndexedAccounts.of(accounts);
+
+    for (int depth = 1; depth <= 5; depth++) {
+      for (int n = 0; n < 25; n++) {
+        Rule rule = randomRule(random, depth);
+        BitSet expected = new BitSet();
+        for (int i = 0; i < accounts.size(); i++) {
+          if (eval(rule, accounts.get(i)).matched()) {
+            expected.set(i);
+          }
+        }
+        assertEquals(expected, index.matching(rule), rule::toString);
+      }
+    }
+  }
+
+  @Test
+  void amountsAreExactToTheCent() {
+    assertEquals(new USD(new BigDecimal("10")), new USD(new BigDecimal("10.000")));
+    assertThrows(ArithmeticException.class, () -> new USD(new BigDecimal("10.004")));
+    assertThrows(ArithmeticException.class, () -> USD.of(0.125));
+  }
+
+  @Test
+  void theExampleFromListing8_66() {
+    Rule rule = new Rule.Equals<>(region, Region.EMEA).and(new Rule.GreaterThan<>(totalSpend, USD.of(10_000_000.0)));
+    Account small = new Account(Region.EMEA, CountryCode.FR, new Sector("Finance"), Segment.Public, SalesChannel.Direct, USD.of(500_000.00));
+    Account big = new Account(Region.EMEA, CountryCode.FR, new Sector("Finance"), Segment.Public, SalesChannel.Direct, USD.of(20_000_000.00));
+    Account elsewhere = new Account(Region.NA, CountryCode.US, new Sector("Finance"), Segment.Public, SalesChannel.Direct, USD.of(20_000_000.00));
+
+    assertEquals(
+        new Result(false, "(REGION=EMEA AND TOTAL_SPEND>USD[value=10000000.00])", "(REGION=EMEA AND TOTAL_SPEND=USD[value=500000.00])"),
+        eval(rule, small));
+    BitSet expected = new BitSet();
+    expected.set(1);
+    assertEquals(expected, IndexedAccounts.of(List.of(small, big, elsewhere)).matching(rule));
+  }
+
+}
@@ -0,0 +1,456 @@
+package dop.chapter08;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dop.chapter08.Listing8_50.CountryCode;
+import dop.chapter08.Listing8_50.Region;
+import dop.chapter08.Listing8_50.SalesChannel;
+import dop.chapter08.Listing8_50.Sector;
+import dop.chapter08.Listing8_50.Segment;
+import dop.chapter08.RangeRules.Attr;
+import dop.chapter08.RangeRules.Attribute;
+import dop.chapter08.RangeRules.Rule;
+import dop.chapter08.RangeRules.USD;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RuleCodec {
+
+  /**
+   * ───────────────────────────────────────────────────────
+   * Rules as JSON
+   * ───────────────────────────────────────────────────────
+   * The shape from Listing 8.31, extended to the comparison rules
+   * from RangeRules. A repository of rules is just a JSON array of
+   * them.
+   *
+   *   {"type":"EQ",  "field":"COUNTRY", "value":"US"}
+   *   {"type":"GT",  "field":"TOTAL_SPEND", "value":"10000000.00"}
+   *   {"type":"AND", "a":{...}, "b":{...}}
+   *   {"type":"NOT", "expr":{...}}
+   * ───────────────────────────────────────────────────────
+   */
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final JsonFactory JSON = MAPPER.getFactory();
+
+  static String toJson(List<Rule> rules) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (JsonGenerator json = JSON.createGenerator(out)) {
+      json.writeStartArray();
+      for (Rule rule : rules) {
+        writeJson(rule, json);
+      }
+      json.writeEndArray();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return out.toString(StandardCharsets.UTF_8);
+  }
+
+  private static void writeJson(Rule rule, JsonGenerator json) throws IOException {
+    json.writeStartObject();
+    switch (rule) {
+      case Rule.Equals(var attr, var value) -> leaf("EQ", attr, value, json);
+      case Rule.GreaterThan(var attr, var value) -> leaf("GT", attr, value, json);
+      case Rule.LessThan(var attr, var value) -> leaf("LT", attr, value, json);
+      case Rule.And(Rule a, Rule b) -> {
+        json.writeStringField("type", "AND");
+        json.writeFieldName("a");
+        writeJson(a, json);
+        json.writeFieldName("b");
+        writeJson(b, json);
+      }
+      case Rule.Or(Rule a, Rule b) -> {
+        json.writeStringField("type", "OR");
+        json.writeFieldName("a");
+        writeJson(a, json);
+        json.writeFieldName("b");
+        writeJson(b, json);
+      }
+      case Rule.Not(Rule r) -> {
+        json.writeStringField("type", "NOT");
+        json.writeFieldName("expr");
+        writeJson(r, json);
+      }
+    }
+    json.writeEndObject();
+  }
+
+  private static void leaf(String type, Attr<?> attr, Object value, JsonGenerator json) throws IOException {
+    json.writeStringField("type", type);
+    json.writeStringField("field", attr.attribute().name());
+    json.writeStringField("value", print(value));
+  }
+
+  static List<Rule> fromJson(byte[] json) {
+    try {
+      List<Rule> rules = new ArrayList<>();
+      for (JsonNode node : MAPPER.readTree(json)) {
+        rules.add(readJson(node));
+      }
+      return rules;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static Rule readJson(JsonNode node) {
+    String type = node.get("type").asText();
+    return switch (type) {
+      case "AND" -> new Rule.And(readJson(node.get("a")), readJson(node.get("b")));
+      case "OR" -> new Rule.Or(readJson(node.get("a")), readJson(node.get("b")));
+      case "NOT" -> new Rule.Not(readJson(node.get("expr")));
+      default -> {
+        Attribute attribute = Attribute.valueOf(node.get("field").asText());
+        yield leaf(type, attribute, parse(attribute, node.get("value").asText()));
+      }
+    };
+  }
+
+  static Object parse(Attribute attribute, String text) {
+    return switch (attribute) {
+      case REGION -> Region.valueOf(text);
+      case COUNTRY -> CountryCode.valueOf(text);
+      case SECTOR -> new Sector(text);
+      case SEGMENT -> Segment.valueOf(text);
+      case CHANNEL -> SalesChannel.valueOf(text);
+      case TOTAL_SPEND -> new USD(new BigDecimal(text));
+    };
+  }
+
+  static String print(Object value) {
+    return switch (value) {
+      case Sector sector -> sector.value();
+      case USD usd -> usd.value().toPlainString();
+      case Enum<?> e -> e.name();
+      default -> throw new IllegalArgumentException("No text form for " + value);
+    };
+  }
+
+  static Attr<?> attr(Attribute attribute) {
+    return switch (attribute) {
+      case REGION -> RangeRules.region;
+      case COUNTRY -> RangeRules.country;
+      case SECTOR -> RangeRules.sector;
+      case SEGMENT -> RangeRules.segment;
+      case CHANNEL -> RangeRules.channel;
+      case TOTAL_SPEND -> RangeRules.totalSpend;
+    };
+  }
+
+  // The attribute and value types only line up at runtime, after
+  // we've looked at which attribute the data says it is.
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static Rule leaf(String type, Attribute attribute, Object value) {
+    Attr attr = attr(attribute);
+    return switch (type) {
+      case "EQ" -> new Rule.Equals(attr, value);
+      case "GT" -> new Rule.GreaterThan(attr, (Comparable) value);
+      case "LT" -> new Rule.LessThan(attr, (Comparable) value);
+      default -> throw new IllegalArgumentException("Unknown rule type " + type);
+    };
+  }
+
+
+  /**
+   * ───────────────────────────────────────────────────────
+   * Rules as bytes
+   * ───────────────────────────────────────────────────────
+   * Most of the JSON is the same few keys and values over and over:
+   * "type", "field", "COUNTRY", "US". The binary form says each
+   * attribute/value pair exactly once, up front, in a pool. After
+   * that, every rule is written in prefix order, one tag byte per
+   * node, and a leaf only carries its pair's index in the pool:
+   *
+   *   magic  "RULE" (4 bytes), version (1 byte)
+   *   pool   count, then (attribute ordinal, value as UTF) per entry
+   *   rules  count, then per rule, in prefix order:
+   *            EQ|GT|LT  pool index
+   *            AND|OR    a b
+   *            NOT       rule
+   *
+   * Counts and indexes are varints, so anything under 128 costs one
+   * byte.
+   *
+   * Because of the pool, the decoder parses each distinct value only
+   * once, and it builds each distinct leaf only once, too. Rules are
+   * immutable, so every rule that compares COUNTRY=US can point at
+   * the same Equals. And it streams, handing rules over one at a time
+   * as they come off the input.
+   * ───────────────────────────────────────────────────────
+   */
+  private static final int MAGIC = 0x52554C45;   // "RULE"
+  private static final int VERSION = 1;
+  private static final byte EQ = 0, GT = 1, LT = 2, AND = 3, OR = 4, NOT = 5;
+  private static final String[] LEAF_TYPES = {"EQ", "GT", "LT"};
+
+  private record Entry(Attribute attribute, Object value) {}
+
+  static byte[] encode(List<Rule> rules) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      encode(rules, out);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return out.toByteArray();
+  }
+
+  static void encode(List<Rule> rules, OutputStream stream) throws IOException {
+    Map<Entry, Integer> pool = new LinkedHashMap<>();
+    rules.forEach(rule -> collect(rule, pool));
+
+    DataOutputStream out = new DataOutputStream(stream);
+    out.writeInt(MAGIC);
+    out.writeByte(VERSION);
+    writeVarint(pool.size(), out);
+    for (Entry entry : pool.keySet()) {
+      out.writeByte(entry.attribute().ordinal());
+      out.writeUTF(print(entry.value()));
+    }
+    writeVarint(rules.size(), out);
+    for (Rule rule : rules) {
+      writeRule(rule, pool, out);
+    }
+    out.flush();
+  }
+
+  private static void collect(Rule rule, Map<Entry, Integer> pool) {
+    switch (rule) {
+      case Rule.Equals(var attr, var value) -> pool.putIfAbsent(new Entry(attr.attribute(), value), pool.size());
+      case Rule.GreaterThan(var attr, var value) -> pool.putIfAbsent(new Entry(attr.attribute(), value), pool.size());
+      case Rule.LessThan(var attr, var value) -> pool.putIfAbsent(new Entry(attr.attribute(), value), pool.size());
+      case Rule.And(Rule a, Rule b) -> { collect(a, pool); collect(b, pool); }
+      case Rule.Or(Rule a, Rule b) -> { collect(a, pool); collect(b, pool); }
+      case Rule.Not(Rule r) -> collect(r, pool);
+    }
+  }
+
+  private static void writeRule(Rule rule, Map<Entry, Integer> pool, DataOutputStream out) throws IOException {
+    switch (rule) {
+      case Rule.Equals(var attr, var value) -> {
+        out.writeByte(EQ);
+        writeVarint(pool.get(new Entry(attr.attribute(), value)), out);
+      }
+      case Rule.GreaterThan(var attr, var value) -> {
+        out.writeByte(GT);
+        writeVarint(pool.get(new Entry(attr.attribute(), value)), out);
+      }
+      case Rule.LessThan(var attr, var value) -> {
+        out.writeByte(LT);
+        writeVarint(pool.get(new Entry(attr.attribute(), value)), out);
+      }
+      case Rule.And(Rule a, Rule b) -> {
+        out.writeByte(AND);
+        writeRule(a, pool, out);
+        writeRule(b, pool, out);
+      }
+      case Rule.Or(Rule a, Rule b) -> {
+        out.writeByte(OR);
+        writeRule(a, pool, out);
+        writeRule(b, pool, out);
+      }
+      case Rule.Not(Rule r) -> {
+        out.writeByte(NOT);
+        writeRule(r, pool, out);
+      }
+    }
+  }
+
+  static List<Rule> decode(byte[] bytes) {
+    List<Rule> rules = new ArrayList<>();
+    try {
+      decode(new ByteArrayInputStream(bytes), rules::add);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return rules;
+  }
+
+  /**
+   * Hands each rule to `sink` as soon as it's been read, so a caller
+   * never has to hold the whole repository in memory at once.
+   */
+  static void decode(InputStream stream, Consumer<Rule> sink) throws IOException {
+    DataInputStream in = new DataInputStream(stream);
+    if (in.readInt() != MAGIC) {
+      throw new IOException("Not an encoded rule set");
+    }
+    int version = in.readUnsignedByte();
+    if (version != VERSION) {
+      throw new IOException("Unsupported rule set version " + version);
+    }
+    Attribute[] attributes = Attribute.values();
+    int poolSize = readCount(in);
+    Attribute[] poolAttributes = new Attribute[poolSize];
+    Object[] poolValues = new Object[poolSize];
+    for (int i = 0; i < poolSize; i++) {
+      int ordinal = in.readUnsignedByte();
+      if (ordinal >= attributes.length) {
+        throw new IOException("Unknown attribute " + ordinal);
+      }
+      poolAttributes[i] = attributes[ordinal];
+      String text = in.readUTF();
+      try {
+        poolValues[i] = parse(poolAttributes[i], text);
+      } catch (RuntimeException e) {
+        throw new IOException("Unreadable " + poolAttributes[i] + " value " + text, e);
+      }
+    }
+    // ┌── one slot per (EQ|GT|LT, pool entry), filled the
+    // ▼   first time that leaf shows up.
+    Rule[][] leaves = new Rule[LEAF_TYPES.length][poolSize];
+    int count = readCount(in);
+    for (int i = 0; i < count; i++) {
+      sink.accept(readRule(in, poolAttributes, poolValues, leaves));
+    }
+  }
+
+  private static Rule readRule(DataInputStream in, Attribute[] attributes, Object[] values, Rule[][] leaves) throws IOException {
+    byte tag = in.readByte();
+    return switch (tag) {
+      case EQ, GT, LT -> {
+        int index = readVarint(in);
+        if (index < 0 || index >= values.length) {
+          throw new IOException("Pool index " + index + " is outside a pool of " + values.length);
+        }
+        if (leaves[tag][index] == null) {
+          leaves[tag][index] = leaf(LEAF_TYPES[tag], attributes[index], values[index]);
+        }
+        yield leaves[tag][index];
+      }
+      case AND -> new Rule.And(readRule(in, attributes, values, leaves), readRule(in, attributes, values, leaves));
+      case OR -> new Rule.Or(readRule(in, attributes, values, leaves), readRule(in, attributes, values, leaves));
+      case NOT -> new Rule.Not(readRule(in, attributes, values, leaves));
+      default -> throw new IOException("Unknown rule tag " + tag);
+    };
+  }
+
+  private static void writeVarint(int value, DataOutputStream out) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  private static int readCount(DataInputStream in) throws IOException {
+    int count = readVarint(in);
+    if (count < 0) {
+      throw new IOException("Negative count " + count);
+    }
+    return count;
+  }
+
+  private static int readVarint(DataInputStream in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint");
+  }
+
+
+  static List<Rule> randomRepository(Random random, int size) {
+    return Stream.generate(() -> RangeRules.randomRule(random, 1 + random.nextInt(6))).limit(size).toList();
+  }
+
+  @Test
+  void serializesToTheShapeFromListing8_31() {
+    Rule rule = new Rule.Equals<>(RangeRules.country, CountryCode.US)
+        .or(new Rule.Equals<>(RangeRules.sector, new Sector("Retail")))
+        .and(new Rule.Not(new Rule.GreaterThan<>(RangeRules.totalSpend, USD.of(1_000_000))));
+
+    assertEquals("""
+        [{"type":"AND",\
+        "a":{"type":"OR",\
+        "a":{"type":"EQ","field":"COUNTRY","value":"US"},\
+        "b":{"type":"EQ","field":"SECTOR","value":"Retail"}},\
+        "b":{"type":"NOT","expr":{"type":"GT","field":"TOTAL_SPEND","value":"1000000.00"}}}]""",
+        toJson(List.of(rule)));
+  }
+
+  @Test
+  void roundTripsExactlyWithJson() {
+    List<Rule> rules = randomRepository(new Random(8_31), 2_000);
+    String json = toJson(rules);
+    byte[] binary = encode(rules);
+
+    assertEquals(rules, fromJson(json.getBytes(StandardCharsets.UTF_8)));
+    assertEquals(rules, decode(binary));
+    assertEquals(json, toJson(decode(binary)));
+    assertArrayEquals(binary, encode(fromJson(json.getBytes(StandardCharsets.UTF_8))));
+
+    assertTrue(binary.length * 5 < json.length());
+  }
+
+  @Test
+  void rejectsWhatItCannotRead() {
+    byte[] binary = encode(randomRepository(new Random(1), 10));
+    byte[] truncated = Arrays.copyOf(binary, binary.length - 3);
+    byte[] wrongMagic = binary.clone();
+    wrongMagic[0] = 'X';
+
+    UncheckedIOException ex = assertThrows(UncheckedIOException.class, () -> decode(truncated));
+    assertTrue(ex.getCause() instanceof EOFException);
+    assertThrows(UncheckedIOException.class, () -> decode(wrongMagic));
+  }
+
+  @Test
+  void rejectsCorruptInputAsIOException() {
+    Rule rule = new Rule.Equals<>(RangeRules.country, CountryCode.US).and(new Rule.Not(new Rule.Equals<>(RangeRules.region, Region.EMEA)));
+    byte[] binary = encode(List.of(rule));
+    //  magic(4) version(1) pool=2(1) [COUNTRY "US"] [REGION "EMEA"] count=1(1) AND EQ 0 NOT EQ 1
+    int firstAttribute = 6, secondValue = firstAttribute + 1 + 2 + 2 + 1, rules = secondValue + 2 + 4;
+    assertEquals(rules + 1 + 6, binary.length);
+
+    byte[] badAttribute = binary.clone();
+    badAttribute[firstAttribute] = 99;
+    byte[] badValue = binary.clone();
+    badValue[secondValue + 2] = 'X';
+    byte[] badTag = binary.clone();
+    badTag[rules + 1] = 42;
+    byte[] badIndex = binary.clone();
+    badIndex[rules + 1 + 2] = 7;
+
+    for (byte[] corrupt : List.of(badAttribute, badValue, badTag, badIndex)) {
+      assertThrows(UncheckedIOException.class, () -> decode(corrupt));
+    }
+    // every possible truncation, too
+    for (int length = 0; length < binary.length; length++) {
+      byte[] truncated = Arrays.copyOf(binary, length);
+      assertThrows(UncheckedIOException.class, () -> decode(truncated));
+    }
+  }
+
+}
@@ -0,0 +1,417 @@
+package dop.chapter08;
+
+import dop.chapter08.Listing8_50.Account;
+import dop.chapter08.Listing8_50.Attr;
+import dop.chapter08.Listing8_50.CountryCode;
+import dop.chapter08.Listing8_50.Region;
+import dop.chapter08.Listing8_50.Rule;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RuleSimplifier {
+
+  /**
+   * ───────────────────────────────────────────────────────
+   * Simplifying rules
+   * ───────────────────────────────────────────────────────
+   * The algebra in Listing 8.50 is deliberately tiny, and that
+   * means rules written in it can get big. contains() (Listing
+   * 8.23) turns into a long chain of Or(Equals, Or(Equals, ...)),
+   * and the same little pieces, like not(REGION=LATAM), show up
+   * in rule after rule.
+   *
+   * So, we rewrite rules into a normal form. It says the same thing
+   * with fewer moving parts:
+   *
+   *   Or/And chains   ══►  flat AnyOf/AllOf over a set of terms
+   *                        (duplicates fall out for free)
+   *   Equals on the   ══►  one membership test: COUNTRY ∈ {US, FR, BE}
+   *   same attribute       (union under Or, intersection under And)
+   *   Not(Not(x))     ══►  x
+   *   Not on an enum  ══►  membership in everything else
+   *   impossible or   ══►  the constants false and true
+   *   always-true
+   *
+   * The rewrites are all plain laws of boolean logic, so the normal
+   * form always matches exactly the same accounts as the original.
+   *
+   * Every node is also hash-consed. Before a node is handed out,
+   * we check whether an equal one was already built, and if so we
+   * hand back that one instead. Across a whole rule set, each
+   * distinct subexpression exists exactly once. SharedRules leans on
+   * that to evaluate each one at most once per account, no matter
+   * how many rules it appears in.
+   * ───────────────────────────────────────────────────────
+   */
+  sealed interface Norm {
+    record Const(boolean value) implements Norm {}
+    record Is(Attr<?> attr, Set<Object> values) implements Norm {}
+    record AllOf(Set<Norm> terms) implements Norm {}
+    record AnyOf(Set<Norm> terms) implements Norm {}
+    record Not(Norm term) implements Norm {}
+  }
+
+  static final Norm TRUE = new Norm.Const(true);
+  static final Norm FALSE = new Norm.Const(false);
+
+  /**
+   * Hands back one canonical instance for each distinct node. Using
+   * the same Interner for every rule in a set is what lets the rules
+   * share their subexpressions.
+   */
+  static class Interner {
+    private final Map<Norm, Norm> canonical = new HashMap<>();
+
+    Interner() {
+      canonical.put(TRUE, TRUE);
+      canonical.put(FALSE, FALSE);
+    }
+
+    Norm intern(Norm node) {
+      return canonical.computeIfAbsent(node, __ -> node);
+    }
+
+    int size() {
+      return canonical.size();
+    }
+  }
+
+  static Norm simplify(Rule rule) {
+    return simplify(rule, new Interner());
+  }
+
+  static Norm simplify(Rule rule, Interner interner) {
+    return switch (rule) {
+      case Rule.Equals(var attr, var value) -> is(attr, Set.of(value), interner);
+      case Rule.Not(Rule r) -> not(simplify(r, interner), interner);
+      case Rule.And a -> allOf(flatten(a, Rule.And.class, interner), interner);
+      case Rule.Or o -> anyOf(flatten(o, Rule.Or.class, interner), interner);
+    };
+  }
+
+  private static List<Norm> flatten(Rule rule, Class<? extends Rule> kind, Interner interner) {
+    List<Norm> terms = new ArrayList<>();
+    List<Rule> pending = new ArrayList<>(List.of(rule));
+    while (!pending.isEmpty()) {
+      Rule next = pending.removeLast();
+      switch (next) {
+        case Rule.And(Rule a, Rule b) when kind == Rule.And.class -> { pending.add(b); pending.add(a); }
+        case Rule.Or(Rule a, Rule b) when kind == Rule.Or.class -> { pending.add(b); pending.add(a); }
+        default -> terms.add(simplify(next, interner));
+      }
+    }
+    return terms;
+  }
+
+  private static Norm is(Attr<?> attr, Set<Object> values, Interner interner) {
+    if (values.isEmpty()) {
+      return FALSE;
+    }
+    if (universe(values).map(all -> all.size() == values.size()).orElse(false)) {
+      return TRUE;
+    }
+    return interner.intern(new Norm.Is(attr, Collections.unmodifiableSet(new LinkedHashSet<>(values))));
+  }
+
+  private static Norm not(Norm term, Interner interner) {
+    return switch (term) {
+      case Norm.Const(boolean value) -> value ? FALSE : TRUE;
+      case Norm.Not(Norm inner) -> inner;
+      case Norm.Is(var attr, var values) when universe(values).isPresent() -> {
+        Set<Object> rest = new LinkedHashSet<>(universe(values).get());
+        rest.removeAll(values);
+        yield is(attr, rest, interner);
+      }
+      default -> interner.intern(new Norm.Not(term));
+    };
+  }
+
+  private static Norm allOf(List<Norm> parts, Interner interner) {
+    Map<Attr<?>, Set<Object>> memberships = new LinkedHashMap<>();
+    Set<Norm> terms = new LinkedHashSet<>();
+    for (Norm part : expand(parts, Norm.AllOf.class)) {
+      switch (part) {
+        case Norm.Const(boolean value) when value -> {}
+        case Norm.Const __ -> { return FALSE; }
+        case Norm.Is(var attr, var values) -> memberships.merge(attr, values, (a, b) -> {
+          Set<Object> both = new LinkedHashSet<>(a);
+          both.retainAll(b);
+          return both;
+        });
+        default -> terms.add(part);
+      }
+    }
+    return combine(memberships, terms, false, interner);
+  }
+
+  private static Norm anyOf(List<Norm> parts, Interner interner) {
+    Map<Attr<?>, Set<Object>> memberships = new LinkedHashMap<>();
+    Set<Norm> terms = new LinkedHashSet<>();
+    for (Norm part : expand(parts, Norm.AnyOf.class)) {
+      switch (part) {
+        case Norm.Const(boolean value) when !value -> {}
+        case Norm.Const __ -> { return TRUE; }
+        case Norm.Is(var attr, var values) -> memberships.merge(attr, values, (a, b) -> {
+          Set<Object> either = new LinkedHashSet<>(a);
+          either.addAll(b);
+          return either;
+        });
+        default -> terms.add(part);
+      }
+    }
+    return combine(memberships, terms, true, interner);
+  }
+
+  /**
+   * Nested AllOf inside AllOf (or AnyOf inside AnyOf) just gets
+   * spliced into its parent.
+   */
+  private static List<Norm> expand(List<Norm> parts, Class<? extends Norm> kind) {
+    List<Norm> flat = new ArrayList<>();
+    for (Norm part : parts) {
+      switch (part) {
+        case Norm.AllOf(var terms) when kind == Norm.AllOf.class -> flat.addAll(terms);
+        case Norm.AnyOf(var terms) when kind == Norm.AnyOf.class -> flat.addAll(terms);
+        default -> flat.add(part);
+      }
+    }
+    return flat;
+  }
+
+  private static Norm combine(Map<Attr<?>, Set<Object>> memberships, Set<Norm> others, boolean isOr, Interner interner) {
+    Norm absorbing = isOr ? TRUE : FALSE;
+    Set<Norm> terms = new LinkedHashSet<>();
+    //  ┌── membership tests are the cheapest thing to check,
+    //  ▼   so they go first where they can short-circuit the rest.
+    for (var entry : memberships.entrySet()) {
+      Norm membership = is(entry.getKey(), entry.getValue(), interner);
+      if (membership.equals(absorbing)) {
+        return absorbing;
+      }
+      if (!membership.equals(not(absorbing, interner))) {
+        terms.add(membership);
+      }
+    }
+    terms.addAll(others);
+    for (Norm term : terms) {
+      //  x AND NOT x  is always false
+      //  x OR  NOT x  is always true
+      if (term instanceof Norm.Not(Norm inner) && terms.contains(inner)) {
+        return absorbing;
+      }
+    }
+    if (terms.isEmpty()) {
+      return not(absorbing, interner);
+    } else if (terms.size() == 1) {
+      return terms.iterator().next();
+    }
+    Set<Norm> frozen = Collections.unmodifiableSet(terms);
+    return interner.intern(isOr ? new Norm.AnyOf(frozen) : new Norm.AllOf(frozen));
+  }
+
+  private static Optional<List<Object>> universe(Set<Object> values) {
+    return values.stream().findFirst()
+        .filter(value -> value instanceof Enum<?>)
+        .map(value -> Arrays.<Object>asList((Object[]) ((Enum<?>) value).getDeclaringClass().getEnumConstants()));
+  }
+
+  static boolean matches(Norm norm, Account account) {
+    return switch (norm) {
+      case Norm.Const(boolean value) -> value;
+      case Norm.Is(var attr, var values) -> values.contains(attr.getter().apply(account));
+      case Norm.Not(Norm term) -> !matches(term, account);
+      case Norm.AllOf(var terms) -> terms.stream().allMatch(term -> matches(term, account));
+      case Norm.AnyOf(var terms) -> terms.stream().anyMatch(term -> matches(term, account));
+    };
+  }
+
+
+  /**
+   * ───────────────────────────────────────────────────────
+   * Evaluating a whole rule set at once
+   * ───────────────────────────────────────────────────────
+   * Every distinct node across the rule set gets a slot. While
+   * evaluating an account, each slot remembers its answer the
+   * first time it's computed, and every other rule that refers to
+   * the same node just reads it back.
+   * ───────────────────────────────────────────────────────
+   */
+  static class SharedRules {
+    private static final byte UNKNOWN = 0, NO = 1, YES = 2;
+
+    private final Norm[] nodes;
+    private final int[][] children;
+    private final int[] roots;
+
+    SharedRules(List<Rule> rules) {
+      Interner interner = new Interner();
+      Map<Norm, Integer> ids = new IdentityHashMap<>();
+      List<Norm> nodes = new ArrayList<>();
+      List<int[]> children = new ArrayList<>();
+      this.roots = rules.stream()
+          .mapToInt(rule -> number(simplify(rule, interner), ids, nodes, children))
+          .toArray();
+      this.nodes = nodes.toArray(Norm[]::new);
+      this.children = children.toArray(int[][]::new);
+    }
+
+    private static int number(Norm node, Map<Norm, Integer> ids, List<Norm> nodes, List<int[]> children) {
+      Integer existing = ids.get(node);
+      if (existing != null) {
+        return existing;
+      }
+      int[] kids = switch (node) {
+        case Norm.Not(Norm term) -> new int[]{number(term, ids, nodes, children)};
+        case Norm.AllOf(var terms) -> terms.stream().mapToInt(t -> number(t, ids, nodes, children)).toArray();
+        case Norm.AnyOf(var terms) -> terms.stream().mapToInt(t -> number(t, ids, nodes, children)).toArray();
+        default -> new int[0];
+      };
+      int id = nodes.size();
+      nodes.add(node);
+      children.add(kids);
+      ids.put(node, id);
+      return id;
+    }
+
+    int nodeCount() {
+      return nodes.length;
+    }
+
+    /**
+     * Whether each rule matched, in the order the rules were given.
+     */
+    boolean[] evaluate(Account account) {
+      byte[] memo = new byte[nodes.length];
+      boolean[] results = new boolean[roots.length];
+      for (int i = 0; i < roots.length; i++) {
+        results[i] = eval(roots[i], account, memo);
+      }
+      return results;
+    }
+
+    private boolean eval(int id, Account account, byte[] memo) {
+      if (memo[id] != UNKNOWN) {
+        return memo[id] == YES;
+      }
+      boolean result = switch (nodes[id]) {
+        case Norm.Const(boolean value) -> value;
+        case Norm.Is(var attr, var values) -> values.contains(attr.getter().apply(account));
+        case Norm.Not __ -> !eval(children[id][0], account, memo);
+        case Norm.AllOf __ -> {
+          for (int child : children[id]) {
+            if (!eval(child, account, memo)) yield false;
+          }
+          yield true;
+        }
+        case Norm.AnyOf __ -> {
+          for (int child : children[id]) {
+            if (eval(child, account, memo)) yield true;
+          }
+          yield false;
+        }
+      };
+      memo[id] = result ? YES : NO;
+      return result;
+    }
+  }
+
+  @SafeVarargs
+  static <A> Rule contains(Attr<A> field, A first, A... rest) {
+    Rule rule = new Rule.Equals<>(field, first);
+    for (A value : rest) {
+      rule = rule.or(new Rule.Equals<>(field, value));
+    }
+    return rule;
+  }
+
+
+  @Test
+  void containsBecomesASingleMembershipTest() {
+    Rule rule = contains(Listing8_50.country, CountryCode.US, CountryCode.FR, CountryCode.BE, CountryCode.FR)
+        .or(new Rule.Equals<>(Listing8_50.country, CountryCode.US));
+
+    assertEquals(
+        new Norm.Is(Listing8_50.country, Set.of(CountryCode.US, CountryCode.FR, CountryCode.BE)),
+        simplify(rule));
+  }
+
+  @Test
+  void foldsWhatTheRuleCanBeDecidedWithoutLookingAtAnAccount() {
+    Rule latam = new Rule.Equals<>(Listing8_50.region, Region.LATAM);
+    Rule na = new Rule.Equals<>(Listing8_50.region, Region.NA);
+
+    assertEquals(FALSE, simplify(latam.and(na)));
+    assertEquals(TRUE, simplify(latam.or(new Rule.Not(latam))));
+    assertEquals(simplify(latam), simplify(new Rule.Not(new Rule.Not(latam))));
+    assertEquals(
+        new Norm.Is(Listing8_50.region, Set.of(Region.NA, Region.EMEA)),
+        simplify(new Rule.Not(latam)));
+  }
+
+  @Test
+  void simplifiedRulesMatchExactlyTheSameAccounts() {
+    Random random = new Random(8_23);
+    Account[] accounts = Generators.randomAccounts(random, 300);
+    for (int depth = 1; depth <= 7; depth++) {
+      for (int n = 0; n < 100; n++) {
+        Rule rule = Generators.randomRule(random, depth);
+        Norm simplified = simplify(rule);
+        for (Account account : accounts) {
+          assertEquals(Listing8_50.interpret(account, rule).matched(), matches(simplified, account), rule::toString);
+        }
+      }
+    }
+  }
+
+  @Test
+  void identicalSubtreesAreSharedAcrossARuleSet() {
+    Random random = new Random(42);
+    Rule notLatam = new Rule.Not(new Rule.Equals<>(Listing8_50.region, Region.LATAM));
+    List<Rule> rules = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      rules.add(Generators.randomConjunction(random, 2).and(notLatam));
+    }
+
+    Interner interner = new Interner();
+    Norm first = simplify(rules.get(0), interner);
+    Norm again = simplify(rules.get(0), interner);
+    assertSame(first, again);
+
+    SharedRules shared = new SharedRules(rules);
+    int treeSizes = rules.stream().mapToInt(RuleSimplifier::size).sum();
+    assertTrue(shared.nodeCount() < treeSizes / 3);
+
+    for (Account account : Generators.randomAccounts(random, 500)) {
+      boolean[] results = shared.evaluate(account);
+      for (int i = 0; i < rules.size(); i++) {
+        assertEquals(Listing8_50.interpret(account, rules.get(i)).matched(), results[i]);
+      }
+    }
+  }
+
+  static int size(Rule rule) {
+    return switch (rule) {
+      case Rule.Equals<?> __ -> 1;
+      case Rule.Not(Rule r) -> 1 + size(r);
+      case Rule.And(Rule a, Rule b) -> 1 + size(a) + size(b);
+      case Rule.Or(Rule a, Rule b) -> 1 + size(a) + size(b);
+    };
+  }
+
+}
@@ -0,0 +1,320 @@
+package dop.chapter08;
+
+import dop.chapter08.Listing8_50.CountryCode;
+import dop.chapter08.Listing8_50.Region;
+import dop.chapter08.Listing8_50.Rule;
+import dop.chapter08.Listing8_50.Segment;
+import guru.nidi.graphviz.engine.EngineResult;
+import guru.nidi.graphviz.engine.Format;
+import guru.nidi.graphviz.engine.Graphviz;
+import guru.nidi.graphviz.engine.GraphvizEngine;
+import guru.nidi.graphviz.engine.GraphvizException;
+import guru.nidi.graphviz.engine.Options;
+import guru.nidi.graphviz.engine.Rasterizer;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class StreamingGraphViz {
+
+  /**
+   * ───────────────────────────────────────────────────────
+   * Drawing big rules
+   * ───────────────────────────────────────────────────────
+   * Listing 8.59 builds the graph by recursion: every node nests
+   * its children's streams inside Stream.concat, and the result is
+   * joined into one String at the end. That's lovely for the size
+   * of rule anyone draws by hand. For a contains() over a few
+   * thousand values, it's a few thousand nested streams, a deep
+   * call stack, and the whole file in memory at once.
+   *
+   * Here, the traversal keeps its own stack instead of using the
+   * call stack, and writes each line to a Writer as soon as it
+   * knows it. Children are always written before their parents.
+   * That's when a node finds out whether it's new: a node is
+   * identified by its label plus the ids of its children, so two
+   * identical subtrees anywhere in the rule end up as the same node
+   * in the graph.
+   *
+   *   (REGION=NA AND SEGMENT=Public) OR (REGION=NA AND not(...))
+   *
+   *                  Or
+   *                ┌─┴──┐
+   *              And    And
+   *               │ ╲  ╱ │
+   *               │  ╲╱  │
+   *   SEGMENT=Public  REGION=NA   Not  ◄── REGION=NA is drawn once
+   *
+   * The only thing held in memory is the table of nodes seen so
+   * far, which is as small as the graph can be once deduplicated.
+   * ───────────────────────────────────────────────────────
+   */
+  private record Shape(String label, int a, int b) {}
+
+  static void writeDot(Rule rule, Writer writer) throws IOException {
+    BufferedWriter out = new BufferedWriter(writer);
+    out.write("digraph Rule {\n    rankdir=TD;\n");
+
+    Map<Rule, Integer> ids = new IdentityHashMap<>();
+    Map<Shape, Integer> shapes = new HashMap<>();
+    Deque<Rule> pending = new ArrayDeque<>();
+    pending.push(rule);
+    while (!pending.isEmpty()) {
+      Rule next = pending.peek();
+      if (ids.containsKey(next)) {
+        pending.pop();
+        continue;
+      }
+      List<Rule> children = children(next);
+      boolean ready = true;
+      for (Rule child : children.reversed()) {
+        if (!ids.containsKey(child)) {
+          pending.push(child);
+          ready = false;
+        }
+      }
+      if (!ready) {
+        continue;   // ◄── come back once the children have ids
+      }
+      pending.pop();
+
+      int a = children.isEmpty() ? -1 : ids.get(children.get(0));
+      int b = children.size() < 2 ? -1 : ids.get(children.get(1));
+      Shape shape = new Shape(label(next), a, b);
+      Integer id = shapes.get(shape);
+      if (id == null) {
+        id = shapes.size();
+        shapes.put(shape, id);
+        out.write("    node_" + id + " [label=\"" + escape(shape.label()) + "\"]\n");
+        if (a >= 0) out.write("    node_" + id + " -> node_" + a + "\n");
+        if (b >= 0) out.write("    node_" + id + " -> node_" + b + "\n");
+      }
+      ids.put(next, id);
+    }
+    out.write("}\n");
+    out.flush();
+  }
+
+  static String toGraphViz(Rule rule) {
+    StringWriter out = new StringWriter();
+    try {
+      writeDot(rule, out);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return out.toString();
+  }
+
+  /**
+   * Renders the rule as SVG, PNG, or anything else graphviz-java
+   * supports. The DOT goes to a temp file rather than a String, so
+   * only the layout engine ever holds the whole graph. This needs
+   * a Graphviz engine (the `dot` command, or one of the JavaScript
+   * engines graphviz-java can use) to be available at runtime.
+   */
+  static void render(Rule rule, Format format, OutputStream out) throws IOException {
+    Path dot = Files.createTempFile("rule", ".dot");
+    try {
+      try (Writer writer = Files.newBufferedWriter(dot)) {
+        writeDot(rule, writer);
+      }
+      Graphviz.fromFile(dot.toFile()).render(format).toOutputStream(out);
+    } finally {
+      Files.deleteIfExists(dot);
+    }
+  }
+
+  private static List<Rule> children(Rule rule) {
+    return switch (rule) {
+      case Rule.Equals<?> __ -> List.of();
+      case Rule.Not(Rule r) -> List.of(r);
+      case Rule.And(Rule a, Rule b) -> List.of(a, b);
+      case Rule.Or(Rule a, Rule b) -> List.of(a, b);
+    };
+  }
+
+  private static String label(Rule rule) {
+    return switch (rule) {
+      case Rule.Equals(var attr, var value) -> attr.attribute() + "=" + value;
+      case Rule.Not __ -> "Not";
+      case Rule.And __ -> "And";
+      case Rule.Or __ -> "Or";
+    };
+  }
+
+  private static String escape(String label) {
+    return label.replace("\\", "\\\\").replace("\"", "\\\"");
+  }
+
+
+  @Test
+  void drawsListing8_60() {
+    Rule rule = new Rule.Equals<>(Listing8_50.country, CountryCode.US)
+        .or(new Rule.Equals<>(Listing8_50.country, CountryCode.BE))
+        .or(new Rule.Equals<>(Listing8_50.country, CountryCode.FR))
+        .and(new Rule.Equals<>(Listing8_50.segment, Segment.Public)
+            .or(new Rule.Not(new Rule.Equals<>(Listing8_50.region, Region.LATAM))));
+
+    assertEquals("""
+        digraph Rule {
+            rankdir=TD;
+            node_0 [label="COUNTRY=US"]
+            node_1 [label="COUNTRY=BE"]
+            node_2 [label="Or"]
+            node_2 -> node_0
+            node_2 -> node_1
+            node_3 [label="COUNTRY=FR"]
+            node_4 [label="Or"]
+            node_4 -> node_2
+            node_4 -> node_3
+            node_5 [label="SEGMENT=Public"]
+            node_6 [label="REGION=LATAM"]
+            node_7 [label="Not"]
+            node_7 -> node_6
+            node_8 [label="Or"]
+            node_8 -> node_5
+            node_8 -> node_7
+            node_9 [label="And"]
+            node_9 -> node_4
+            node_9 -> node_8
+        }
+        """, toGraphViz(rule));
+  }
+
+  @Test
+  void drawsEachDistinctSubtreeOnce() {
+    Random random = new Random(8_59);
+    for (int depth = 1; depth <= 7; depth++) {
+      for (int n = 0; n < 50; n++) {
+        Rule shared = Generators.randomRule(random, 3);
+        Rule rule = Generators.randomRule(random, depth).and(shared).or(shared.and(Generators.randomRule(random, 2)));
+        Set<Rule> distinct = new HashSet<>();
+        collectSubtrees(rule, distinct);
+
+        long nodes = toGraphViz(rule).lines().filter(line -> line.contains("[label=")).count();
+        assertEquals(distinct.size(), nodes, rule::toString);
+      }
+    }
+  }
+
+  @Test
+  void drawsRulesFarDeeperThanTheCallStack() {
+    CountryCode[] countries = CountryCode.values();
+    Rule rule = new Rule.Equals<>(Listing8_50.region, Region.EMEA);
+    for (int i = 0; i < 200_000; i++) {
+      // A long contains(), with a distinct sector per value so
+      // nothing collapses, and the odd repeated country which does
+      Rule country = new Rule.Equals<>(Listing8_50.country, countries[i % countries.length]);
+      rule = rule.or(new Rule.Equals<>(Listing8_50.sector, new Listing8_50.Sector("s" + i)).and(country));
+    }
+    long[] lines = new long[1];
+    try {
+      writeDot(rule, new Writer() {
+        public void write(char[] buf, int off, int len) {
+          for (int i = off; i < off + len; i++) if (buf[i] == '\n') lines[0]++;
+        }
+        public void flush() {}
+        public void close() {}
+      });
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    // header and footer, plus 1 + 7 countries, and for each of the
+    // 200k links: a sector, an And with 2 edges, an Or with 2 edges
+    assertEquals(3 + 1 + countries.length + 200_000 * 7L, lines[0]);
+  }
+
+  /**
+   * Stands in for a real layout engine, which isn't something we
+   * can count on being installed: it hands back the DOT it was given
+   * inside an <svg>, or fails if told to.
+   */
+  private record StubEngine(boolean fails) implements GraphvizEngine {
+    @Override
+    public void init(Consumer<GraphvizEngine> onOk, Consumer<GraphvizEngine> onError) {
+      onOk.accept(this);
+    }
+
+    @Override
+    public EngineResult execute(String src, Options options, Rasterizer rasterizer) {
+      if (fails) {
+        throw new GraphvizException("The layout failed");
+      }
+      return EngineResult.fromString("<svg>" + src + "</svg>");
+    }
+
+    @Override
+    public void close() {}
+  }
+
+  @Test
+  void rendersTheDotItWrites() throws IOException {
+    Rule rule = new Rule.Equals<>(Listing8_50.segment, Segment.Public)
+        .and(new Rule.Not(new Rule.Equals<>(Listing8_50.region, Region.LATAM)));
+    Graphviz.useEngine(new StubEngine(false));
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      render(rule, Format.SVG, out);
+
+      String svg = out.toString(UTF_8);
+      assertTrue(svg.startsWith("<svg"), svg);
+      toGraphViz(rule).lines()
+          .filter(line -> line.contains("node_"))
+          .forEach(line -> assertTrue(svg.contains(line.strip()), line));
+    } finally {
+      Graphviz.releaseEngine();
+    }
+  }
+
+  @Test
+  void cleansUpTheDotFileWhenRenderingFails() throws IOException {
+    Rule rule = new Rule.Equals<>(Listing8_50.region, Region.EMEA);
+    Set<Path> before = dotFiles();
+    Graphviz.useEngine(new StubEngine(true));
+    try {
+      assertThrows(GraphvizException.class, () -> render(rule, Format.SVG, new ByteArrayOutputStream()));
+    } finally {
+      Graphviz.releaseEngine();
+    }
+    assertEquals(before, dotFiles());
+  }
+
+  private static Set<Path> dotFiles() throws IOException {
+    try (Stream<Path> files = Files.list(Paths.get(System.getProperty("java.io.tmpdir")))) {
+      return files.filter(file -> file.getFileName().toString().matches("rule.*\\.dot"))
+          .collect(Collectors.toSet());
+    }
+  }
+
+  private static void collectSubtrees(Rule rule, Set<Rule> into) {
+    into.add(rule);
+    children(rule).forEach(child -> collectSubtrees(child, into));
+  }
+
+}
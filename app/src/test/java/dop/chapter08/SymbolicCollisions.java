@@ -0,0 +1,435 @@
+package dop.chapter08;
+
+import dop.chapter08.IndexedRouting.Assignment;
+import dop.chapter08.IndexedRouting.SalesOrgId;
+import dop.chapter08.Listing8_50.Account;
+import dop.chapter08.Listing8_50.Attribute;
+import dop.chapter08.Listing8_50.CountryCode;
+import dop.chapter08.Listing8_50.Region;
+import dop.chapter08.Listing8_50.Rule;
+import dop.chapter08.Listing8_50.SalesChannel;
+import dop.chapter08.Listing8_50.Sector;
+import dop.chapter08.Listing8_50.Segment;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SymbolicCollisions {
+
+  /**
+   * ───────────────────────────────────────────────────────
+   * Checking for collisions without listing every account
+   * ───────────────────────────────────────────────────────
+   * Listings 8.4 and 8.5 check the rules by brute force. They
+   * build every account that could possibly exist, then run every
+   * rule over all of them. That's a lovely way to explain the
+   * properties, but the number of accounts is the product of every
+   * attribute's domain. Put all ~250 ISO country codes in there and
+   * it gets out of hand fast. Then it gets repeated for every pair
+   * of rules.
+   *
+   * Instead, we can work with the rules themselves. Any rule can
+   * be rewritten as a union of "boxes". Each box says which values
+   * every attribute is allowed to take:
+   *
+   *   (REGION=NA OR REGION=EMEA) AND NOT SEGMENT=Public
+   *
+   *     ══► [REGION ∈ {NA}    SEGMENT ∈ {Enterprise, Strategic, Existing}]
+   *       ∪ [REGION ∈ {EMEA}  SEGMENT ∈ {Enterprise, Strategic, Existing}]
+   *
+   * Two rules' domains overlap exactly when some box from one meets
+   * some box from the other, and two boxes meet when every
+   * attribute's sets do. For the enum attributes those sets are
+   * bitmaps, so checking one pair of boxes is a handful of ANDs.
+   * Sector isn't an enum. Anyone can make up a new one, so its sets
+   * are either "only these" or "anything but these".
+   *
+   * The properties from Listing 8.5 then come straight out of
+   * the boxes:
+   *
+   *   Eq.1  |Image(f)| = 1       ◄── each rule has at least one box
+   *   Eq.2  Image(f) ∩ Image(g)  ◄── two matchable rules share an org
+   *   Eq.3  Dom(f) ∩ Dom(g)      ◄── their boxes meet
+   *
+   * Every overlap comes with an example account which both rules
+   * would claim.
+   * ───────────────────────────────────────────────────────
+   */
+  sealed interface Values {
+    Values intersect(Values other);
+    Values complement();
+    boolean isEmpty();
+    boolean intersects(Values other);
+  }
+
+  /** A subset of an enum's values, as a bitmap over ordinals. */
+  record Finite(Object[] universe, BitSet members) implements Values {
+    static Finite of(Enum<?> value) {
+      BitSet members = new BitSet();
+      members.set(value.ordinal());
+      return new Finite(value.getDeclaringClass().getEnumConstants(), members);
+    }
+
+    public Finite intersect(Values other) {
+      BitSet both = (BitSet) members.clone();
+      both.and(((Finite) other).members);
+      return new Finite(universe, both);
+    }
+
+    public Finite complement() {
+      BitSet flipped = (BitSet) members.clone();
+      flipped.flip(0, universe.length);
+      return new Finite(universe, flipped);
+    }
+
+    public boolean isEmpty() {
+      return members.isEmpty();
+    }
+
+    public boolean intersects(Values other) {
+      return members.intersects(((Finite) other).members);
+    }
+
+    Object any() {
+      return universe[members.nextSetBit(0)];
+    }
+  }
+
+  /**
+   * A subset of a domain nobody can list in full. Either exactly
+   * the listed values, or anything except them.
+   */
+  record Open(Set<Object> listed, boolean excluding) implements Values {
+    static Open of(Object value) {
+      return new Open(Set.of(value), false);
+    }
+
+    public Open intersect(Values other) {
+      Open that = (Open) other;
+      Set<Object> combined = new HashSet<>(listed);
+      if (!excluding && !that.excluding) {
+        combined.retainAll(that.listed);
+      } else if (!excluding) {
+        combined.removeAll(that.listed);
+      } else if (!that.excluding) {
+        combined = new HashSet<>(that.listed);
+        combined.removeAll(listed);
+      } else {
+        combined.addAll(that.listed);
+      }
+      return new Open(combined, excluding && that.excluding);
+    }
+
+    public Open complement() {
+      return new Open(listed, !excluding);
+    }
+
+    public boolean isEmpty() {
+      return !excluding && listed.isEmpty();
+    }
+
+    public boolean intersects(Values other) {
+      Open that = (Open) other;
+      if (excluding && that.excluding) {
+        return true;
+      } else if (excluding) {
+        return !listed.containsAll(that.listed);
+      } else if (that.excluding) {
+        return !that.listed.containsAll(listed);
+      } else {
+        return listed.stream().anyMatch(that.listed::contains);
+      }
+    }
+  }
+
+  /**
+   * One box. A null slot means the rule doesn't care about that
+   * attribute, so anything goes.
+   */
+  record Box(Values[] slots) {
+    static final Box EVERYTHING = new Box(new Values[Attribute.values().length]);
+
+    static Box of(Attribute attribute, Values values) {
+      Values[] slots = new Values[Attribute.values().length];
+      slots[attribute.ordinal()] = values;
+      return new Box(slots);
+    }
+
+    /** Null when the two boxes don't meet. */
+    Box intersect(Box other) {
+      Values[] combined = new Values[slots.length];
+      for (int i = 0; i < slots.length; i++) {
+        if (slots[i] == null) {
+          combined[i] = other.slots[i];
+        } else if (other.slots[i] == null) {
+          combined[i] = slots[i];
+        } else {
+          combined[i] = slots[i].intersect(other.slots[i]);
+          if (combined[i].isEmpty()) {
+            return null;
+          }
+        }
+      }
+      return new Box(combined);
+    }
+
+    boolean intersects(Box other) {
+      for (int i = 0; i < slots.length; i++) {
+        if (slots[i] != null && other.slots[i] != null && !slots[i].intersects(other.slots[i])) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Everything outside this box. A point is outside if *any*
+     * one of its attributes is outside, so that's one box per
+     * attribute the box constrains.
+     */
+    List<Box> complement() {
+      List<Box> outside = new ArrayList<>();
+      for (int i = 0; i < slots.length; i++) {
+        if (slots[i] != null) {
+          Values flipped = slots[i].complement();
+          if (!flipped.isEmpty()) {
+            outside.add(Box.of(Attribute.values()[i], flipped));
+          }
+        }
+      }
+      return outside;
+    }
+  }
+
+  static List<Box> boxes(Rule rule) {
+    return switch (rule) {
+      case Rule.Equals(var attr, var value) -> List.of(Box.of(attr.attribute(),
+          value instanceof Enum<?> e ? Finite.of(e) : Open.of(value)));
+      case Rule.Or(Rule a, Rule b) -> {
+        List<Box> either = new ArrayList<>(boxes(a));
+        either.addAll(boxes(b));
+        yield either;
+      }
+      case Rule.And(Rule a, Rule b) -> intersect(boxes(a), boxes(b));
+      case Rule.Not(Rule r) -> {
+        List<Box> outside = List.of(Box.EVERYTHING);
+        for (Box box : boxes(r)) {
+          outside = intersect(outside, box.complement());
+        }
+        yield outside;
+      }
+    };
+  }
+
+  static List<Box> intersect(List<Box> xs, List<Box> ys) {
+    List<Box> both = new ArrayList<>();
+    for (Box x : xs) {
+      for (Box y : ys) {
+        Box meet = x.intersect(y);
+        if (meet != null) {
+          both.add(meet);
+        }
+      }
+    }
+    return both;
+  }
+
+
+  /**
+   * ───────────────────────────────────────────────────────
+   * The report
+   * ───────────────────────────────────────────────────────
+   */
+  record DomainOverlap(Assignment first, Assignment second, Account example) {}
+  record ImageOverlap(Assignment first, Assignment second) {}
+  record Collisions(
+      List<Assignment> neverMatch,
+      List<ImageOverlap> sharedImages,
+      List<DomainOverlap> overlappingDomains) {
+    boolean none() {
+      return neverMatch.isEmpty() && sharedImages.isEmpty() && overlappingDomains.isEmpty();
+    }
+  }
+
+  static Collisions check(List<Assignment> assignments) {
+    List<Assignment> neverMatch = new ArrayList<>();
+    List<ImageOverlap> sharedImages = new ArrayList<>();
+    List<DomainOverlap> overlappingDomains = new ArrayList<>();
+
+    // Flatten every rule's boxes out into one array so the pair
+    // loop below is just walking memory.
+    List<Box> allBoxes = new ArrayList<>();
+    List<Integer> owners = new ArrayList<>();
+    Map<SalesOrgId, Integer> firstWithOrg = new HashMap<>();
+    for (int i = 0; i < assignments.size(); i++) {
+      Assignment assignment = assignments.get(i);
+      List<Box> boxes = boxes(assignment.rule());
+      if (boxes.isEmpty()) {
+        neverMatch.add(assignment);
+        continue;
+      }
+      Integer previous = firstWithOrg.putIfAbsent(assignment.org(), i);
+      if (previous != null) {
+        sharedImages.add(new ImageOverlap(assignments.get(previous), assignment));
+      }
+      for (Box box : boxes) {
+        allBoxes.add(box);
+        owners.add(i);
+      }
+    }
+
+    Box[] flat = allBoxes.toArray(Box[]::new);
+    int[] owner = owners.stream().mapToInt(Integer::intValue).toArray();
+    Set<Long> reported = new HashSet<>();
+    for (int x = 0; x < flat.length; x++) {
+      for (int y = x + 1; y < flat.length; y++) {
+        if (owner[x] != owner[y] && flat[x].intersects(flat[y])) {
+          long pair = ((long) owner[x] << 32) | owner[y];
+          if (reported.add(pair)) {
+            overlappingDomains.add(new DomainOverlap(
+                assignments.get(owner[x]), assignments.get(owner[y]), example(flat[x].intersect(flat[y]))));
+          }
+        }
+      }
+    }
+    return new Collisions(neverMatch, sharedImages, overlappingDomains);
+  }
+
+  /**
+   * Any account which lands inside the box.
+   */
+  static Account example(Box box) {
+    return new Account(
+        (Region) pick(box, Attribute.REGION, Region.values()[0]),
+        (CountryCode) pick(box, Attribute.COUNTRY, CountryCode.values()[0]),
+        (Sector) pick(box, Attribute.SECTOR, null),
+        (Segment) pick(box, Attribute.SEGMENT, Segment.values()[0]),
+        (SalesChannel) pick(box, Attribute.CHANNEL, SalesChannel.values()[0]));
+  }
+
+  private static Object pick(Box box, Attribute attribute, Object fallback) {
+    return switch (box.slots()[attribute.ordinal()]) {
+      case null -> attribute == Attribute.SECTOR ? new Sector("(any sector)") : fallback;
+      case Finite finite -> finite.any();
+      case Open open when !open.excluding() -> open.listed().iterator().next();
+      case Open open -> freshSector(open.listed());
+    };
+  }
+
+  private static Sector freshSector(Set<Object> excluded) {
+    return IntStream.iterate(0, i -> i + 1)
+        .mapToObj(i -> new Sector("(any other sector " + i + ")"))
+        .filter(sector -> !excluded.contains(sector))
+        .findFirst()
+        .orElseThrow();
+  }
+
+
+  @Test
+  void agreesWithTheBruteForceDomains() {
+    // Every sector the generators can produce, plus one they can't,
+    // which stands in for "all the other sectors out there".
+    List<Sector> sectors = new ArrayList<>();
+    for (int i = 0; i < Generators.SECTORS; i++) {
+      sectors.add(new Sector("sector-" + i));
+    }
+    sectors.add(new Sector("some other sector"));
+    List<Account> everyAccount = new ArrayList<>();
+    for (Region region : Region.values())
+      for (CountryCode country : CountryCode.values())
+        for (Sector sector : sectors)
+          for (Segment segment : Segment.values())
+            for (SalesChannel channel : SalesChannel.values())
+              everyAccount.add(new Account(region, country, sector, segment, channel));
+
+    Random random = new Random(8_05);
+    List<Assignment> assignments = new ArrayList<>();
+    for (int i = 0; i < 40; i++) {
+      Rule rule = i % 4 == 0
+          ? Generators.randomConjunction(random, 2 + random.nextInt(3))
+          : Generators.randomRule(random, 1 + random.nextInt(4));
+      assignments.add(new Assignment(rule, new SalesOrgId("org-" + i)));
+    }
+    List<Set<Account>> domains = assignments.stream()
+        .map(a -> Set.copyOf(everyAccount.stream()
+            .filter(account -> Listing8_50.interpret(account, a.rule()).matched())
+            .toList()))
+        .toList();
+
+    Collisions collisions = check(assignments);
+
+    assertEquals(
+        IntStream.range(0, assignments.size()).filter(i -> domains.get(i).isEmpty()).mapToObj(assignments::get).toList(),
+        collisions.neverMatch());
+    Set<List<Assignment>> expectedOverlaps = new HashSet<>();
+    for (int i = 0; i < assignments.size(); i++) {
+      for (int j = i + 1; j < assignments.size(); j++) {
+        if (domains.get(i).stream().anyMatch(domains.get(j)::contains)) {
+          expectedOverlaps.add(List.of(assignments.get(i), assignments.get(j)));
+        }
+      }
+    }
+    Set<List<Assignment>> found = new HashSet<>();
+    for (DomainOverlap overlap : collisions.overlappingDomains()) {
+      found.add(List.of(overlap.first(), overlap.second()));
+      assertTrue(Listing8_50.interpret(overlap.example(), overlap.first().rule()).matched());
+      assertTrue(Listing8_50.interpret(overlap.example(), overlap.second().rule()).matched());
+    }
+    assertEquals(expectedOverlaps, found);
+  }
+
+  @Test
+  void reportsEveryKindOfCollision() {
+    Rule na = new Rule.Equals<>(Listing8_50.region, Region.NA);
+    Rule naPublic = na.and(new Rule.Equals<>(Listing8_50.segment, Segment.Public));
+    Rule notNa = new Rule.Not(na);
+    Rule impossible = na.and(new Rule.Equals<>(Listing8_50.region, Region.EMEA));
+    List<Assignment> assignments = List.of(
+        new Assignment(na, new SalesOrgId("111")),
+        new Assignment(naPublic, new SalesOrgId("222")),
+        new Assignment(notNa, new SalesOrgId("111")),
+        new Assignment(impossible, new SalesOrgId("333")));
+
+    Collisions collisions = check(assignments);
+
+    assertEquals(List.of(assignments.get(3)), collisions.neverMatch());
+    assertEquals(List.of(new ImageOverlap(assignments.get(0), assignments.get(2))), collisions.sharedImages());
+    assertEquals(1, collisions.overlappingDomains().size());
+    DomainOverlap overlap = collisions.overlappingDomains().getFirst();
+    assertEquals(List.of(assignments.get(0), assignments.get(1)), List.of(overlap.first(), overlap.second()));
+    assertEquals(Region.NA, overlap.example().region());
+    assertEquals(Segment.Public, overlap.example().segment());
+  }
+
+  @Test
+  void findsEveryCollisionAmongThousandsOfRules() {
+    Random random = new Random(42);
+    List<Rule> rules = Generators.disjointRules(random, 2_000);
+    List<Assignment> assignments = new ArrayList<>();
+    for (int i = 0; i < rules.size(); i++) {
+      assignments.add(new Assignment(rules.get(i), new SalesOrgId("org-" + i)));
+    }
+    assertTrue(check(assignments).none());
+
+    List<Assignment> broken = new ArrayList<>(assignments);
+    Rule greedy = new Rule.Equals<>(Listing8_50.channel, SalesChannel.Partner);
+    broken.add(new Assignment(greedy, new SalesOrgId("greedy")));
+    Collisions collisions = check(broken);
+    long claimedByGreedy = rules.stream()
+        .filter(rule -> Listing8_50.interpret(example(boxes(rule).getFirst()), greedy).matched())
+        .count();
+    assertEquals(claimedByGreedy, collisions.overlappingDomains().size());
+  }
+
+}